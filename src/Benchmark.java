@@ -0,0 +1,397 @@
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class benchmarks the game's larger paths: undo, replays, the input queue and the AIs.
+ * Each benchmark is warmed up and then timed, reporting throughput and the bytes allocated
+ * per operation. The per-move paths, painting and the leaderboard are JMH benchmarks in
+ * src/jmh/java. The end-to-end runs that write large files or use every core (ScoreIngest,
+ * Tablebase and DatasetWriter) only run with --large.
+ *
+ * Usage: java -Djava.awt.headless=true Benchmark [filter] [--fill 0.25,0.5] [--seconds 2] [--large]
+ */
+public class Benchmark {
+    private static final int BOARDS = 1024;
+    private static final int GRID_SIZE = 500;
+
+    private static String filter = "";
+    private static double seconds = 1;
+    private static boolean large;
+    private static long sink;
+
+    public static void main(String[] args) throws IOException {
+        double[] fills = {0.25, 0.5, 0.75, 1.0};
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--fill")) {
+                String[] v = args[++i].split(",");
+                fills = new double[v.length];
+                for (int j = 0; j < v.length; j++) {
+                    fills[j] = Double.parseDouble(v[j]);
+                }
+            } else if (args[i].equals("--seconds")) {
+                seconds = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--large")) {
+                large = true;
+            } else {
+                filter = args[i];
+            }
+        }
+
+        for (double fill: fills) {
+            benchmarkHistory(fill);
+        }
+        benchmarkReplay();
+        benchmarkNewGame();
+        benchmarkQueue();
+        benchmarkNTuple();
+        if (large) {
+            benchmarkIngest(32, 1 << 16);
+            benchmarkTablebase(6);
+            benchmarkDataset(1 << 24);
+        }
+        for (int threads = 1; threads < 2 * Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            benchmarkMonteCarlo(Math.min(threads, Runtime.getRuntime().availableProcessors()), 1024);
+        }
+        if (sink == 42)
+            System.out.println();
+    }
+
+    /**
+     * Builds random boards with a share of their cells filled.
+     * @param fill share of filled cells, from 0 to 1
+     * @param random the random generator
+     * @return the packed boards
+     */
+    public static long[] randomBoards(double fill, Random random) {
+        long[] boards = new long[BOARDS];
+        int filled = (int) Math.round(fill * Board.SIZE*Board.SIZE);
+        for (int b = 0; b < BOARDS; b++) {
+            long board = 0;
+            int placed = 0;
+            while (placed < filled) {
+                int i = random.nextInt(Board.SIZE*Board.SIZE);
+                if (Board.get(board, i / Board.SIZE, i % Board.SIZE) == 0) {
+                    board = Board.set(board, i / Board.SIZE, i % Board.SIZE, 1 + random.nextInt(11));
+                    placed++;
+                }
+            }
+            boards[b] = board;
+        }
+        return boards;
+    }
+
+    /**
+     * Runs the undo benchmark at one fill level.
+     * @param fill share of filled cells, from 0 to 1
+     */
+    private static void benchmarkHistory(final double fill) {
+        final long[] boards = randomBoards(fill, new Random(1));
+        final GameEngine engine = new GameEngine(1);
+        final String suffix = String.format(" fill=%.2f", fill);
+        final int[] counter = new int[1];
+
+        final History history = new History(10000, Board.SIZE*Board.SIZE);
+        measure("History.push" + suffix, () -> {
+            int i = counter[0]++;
+            engine.setBoard(boards[i & (BOARDS-1)]);
+            history.push(engine);
+            if ((i & 7) == 0 && history.undo())
+                sink += history.getScore();
+        });
+    }
+
+    /**
+     * Records a game of random moves, then times playing it again.
+     */
+    private static void benchmarkReplay() {
+        GameEngine engine = new GameEngine(1);
+        final Replay replay = new Replay(Board.SIZE, engine.getSeed(), true);
+        engine.addListener(replay);
+        Random random = new Random(1);
+        while (!engine.isLost()) {
+            engine.move(random.nextInt(4));
+        }
+
+        final GameEngine player = new GameEngine(1);
+        measure("Replay.play moves=" + replay.size(), () -> {
+            sink += replay.play(player);
+        });
+    }
+
+    /**
+     * Times handing a command through the input queue, on one thread.
+     */
+    private static void benchmarkQueue() {
+        final InputQueue queue = new InputQueue(GameLoop.QUEUE_SIZE);
+        final int[] counter = new int[1];
+        measure("InputQueue.offer+poll", () -> {
+            queue.offer(counter[0]++ & 3, counter[0]);
+            sink += queue.poll();
+        });
+    }
+
+    /**
+     * Times starting a new game in place, as Game.reset does, against rebuilding the game's
+     * components. Windows cannot be opened headless, so the frames themselves are left out.
+     */
+    private static void benchmarkNewGame() {
+        final GameEngine engine = new GameEngine(1);
+        final GridPanel grid = new GridPanel(GRID_SIZE, engine);
+        grid.setSize(GRID_SIZE, GRID_SIZE);
+        new ScorePanel(GRID_SIZE / 4, engine);
+        final Replay replay = new Replay(Board.SIZE, engine.getSeed(), true);
+        engine.addListener(replay);
+        final History history = new History(10000, Board.SIZE*Board.SIZE);
+        final Random random = new Random(1);
+
+        measure("new game in place", () -> {
+            for (int i = 0; i < 50; i++) {
+                engine.move(random.nextInt(4));
+            }
+            engine.reset();
+            replay.clear(engine.getSeed());
+            history.clear();
+            history.push(engine);
+            sink += engine.getScore();
+        });
+        measure("new game rebuilt", () -> {
+            GameEngine fresh = new GameEngine(random.nextLong());
+            new GridPanel(GRID_SIZE, fresh).setSize(GRID_SIZE, GRID_SIZE);
+            new ScorePanel(GRID_SIZE / 4, fresh);
+            fresh.addListener(new Replay(Board.SIZE, fresh.getSeed(), true));
+            new History(10000, Board.SIZE*Board.SIZE).push(fresh);
+            sink += fresh.getScore();
+        });
+    }
+
+    /**
+     * Plays self-play turns alone, then while exporting them, and reads the file back.
+     * Exporting costs the difference, since both play the same games.
+     * @param rows number of turns to play
+     * @throws IOException if the file cannot be written or read
+     */
+    private static void benchmarkDataset(long rows) throws IOException {
+        if (!"DatasetWriter.add".contains(filter) && !"DatasetReader.getBoard".contains(filter))
+            return;
+        File file = File.createTempFile("dataset", ".dat");
+        DatasetWriter.simulate(rows / 16, 2, null); // warms up
+        long start = System.nanoTime();
+        sink += DatasetWriter.simulate(rows, 1, null);
+        long played = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        DatasetWriter writer = new DatasetWriter(file, DatasetWriter.DEFAULT_BLOCK, 1);
+        try {
+            sink += DatasetWriter.simulate(rows, 1, writer);
+        } finally {
+            writer.close();
+        }
+        long exported = System.nanoTime() - start;
+        System.out.printf("%-40s %14.1f ops/s %12.1f ns/op %.2f bytes/row, %.1fM rows/s played alone%n", "DatasetWriter.add",
+            rows * 1e9 / exported, (double) (exported - played) / rows, (double) file.length() / rows, rows * 1e3 / played);
+
+        try (DatasetReader reader = new DatasetReader(file)) {
+            start = System.nanoTime();
+            for (long row = 0; row < rows; row++) {
+                sink += reader.getBoard(row);
+            }
+            long read = System.nanoTime() - start;
+            System.out.printf("%-40s %14.1f ops/s %12.1f ns/op%n", "DatasetReader.getBoard", rows * 1e9 / read, (double) read / rows);
+        }
+        file.delete();
+    }
+
+    /**
+     * Submits distinct scores from many threads at once, then checks that every one was written.
+     * @param threads number of producer threads
+     * @param perThread scores submitted by each thread
+     * @throws IOException if the store cannot be written
+     */
+    private static void benchmarkIngest(int threads, final int perThread) throws IOException {
+        String name = "ScoreIngest.submit threads=" + threads;
+        if (!name.contains(filter))
+            return;
+        File dir = File.createTempFile("ingest", "");
+        dir.delete();
+        dir.mkdir();
+        final ScoreIngest ingest = new ScoreIngest(new File(dir, "leaderboard").getPath());
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final String username = "sim" + t;
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    ingest.submit(username, i, false);
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread producer: producers) {
+            producer.start();
+        }
+        try {
+            for (Thread producer: producers) {
+                producer.join();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        long submitted = System.nanoTime() - start;
+        ingest.flush();
+        long durable = System.nanoTime() - start;
+        long total = (long) threads * perThread;
+        System.out.printf("%-40s %14.1f ops/s %12.1f ns/op%n", name, total * 1e9 / submitted, (double) submitted / total);
+        System.out.printf("%-40s %14.1f ops/s %d of %d written in %d batches%n", "ScoreIngest durable threads=" + threads,
+            total * 1e9 / durable, ingest.getWritten(), total, ingest.getBatches());
+        ingest.close();
+        for (File f: dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Times Monte Carlo searches on a 4x4 position from the middle of a game, then reports
+     * how many rollouts a second the pool plays.
+     * @param threads number of threads of the pool
+     * @param rollouts rollouts per search
+     */
+    private static void benchmarkMonteCarlo(int threads, int rollouts) {
+        String name = "MonteCarlo.bestMove threads=" + threads + " rollouts=" + rollouts;
+        if (!name.contains(filter))
+            return;
+        GameEngine engine = new GameEngine(1);
+        Random random = new Random(1);
+        for (int i = 0; i < 100 && !engine.isLost(); i++) {
+            engine.move(random.nextInt(4));
+        }
+        final byte[] cells = new byte[Board.SIZE*Board.SIZE];
+        engine.copyCells(cells, 0);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        final MonteCarlo player = new MonteCarlo(rollouts, pool);
+        final long[] played = new long[2];
+        long start = System.nanoTime();
+        measure(name, () -> {
+            sink += player.bestMove(cells, Board.SIZE);
+            played[0] += player.getPlayed();
+        });
+        System.out.printf("%-40s %14.1f rollouts/s%n", "", played[0] * 1e9 / (System.nanoTime() - start));
+        pool.shutdown();
+    }
+
+    /**
+     * Times training games of an n-tuple network on one thread and reports moves per second,
+     * then times its greedy move on the boards it reached.
+     */
+    private static void benchmarkNTuple() {
+        if (!"NTuple.train".contains(filter) && !"NTuple.bestMove".contains(filter))
+            return;
+        final NTuple network = new NTuple();
+        final SplittableRandom random = new SplittableRandom(1);
+        final long[] boards = new long[8];
+        final long[] next = new long[8];
+        final long[] moves = new long[1];
+        long start = System.nanoTime();
+        measure("NTuple.train game", () -> {
+            moves[0] += network.train(random, boards, next) >>> 40;
+        });
+        if (moves[0] > 0)
+            System.out.printf("%-40s %14.1f moves/s%n", "", moves[0] * 1e9 / (System.nanoTime() - start));
+
+        final long[] positions = randomBoards(0.5, new Random(1));
+        final int[] counter = new int[1];
+        measure("NTuple.bestMove", () -> {
+            sink += network.bestMove(positions[counter[0]++ & (BOARDS-1)]);
+        });
+    }
+
+    /**
+     * Solves 3x3 games for the chance of reaching a tile, then times looking up the best
+     * move of positions from games played with the tablebase.
+     * @param target exponent of the tile, which keeps the table small enough to solve quickly
+     * @throws IOException if the file cannot be written
+     */
+    private static void benchmarkTablebase(int target) throws IOException {
+        String name = "Tablebase.generate 3x3 target=" + (1 << target);
+        if (!name.contains(filter) && !"Tablebase.bestMove".contains(filter))
+            return;
+        File file = File.createTempFile("tablebase", ".tb");
+        file.deleteOnExit();
+        ForkJoinPool pool = new ForkJoinPool();
+        long start = System.nanoTime();
+        long states = Tablebase.generate(3, target, file, pool);
+        long nanos = System.nanoTime() - start;
+        pool.shutdown();
+        System.out.printf("%-40s %14.1f positions/s %d positions%n", name, states * 1e9 / nanos, states);
+
+        final Tablebase tablebase = new Tablebase(file);
+        final byte[][] positions = new byte[4096][9];
+        GameEngine engine = new GameEngine(3, 1);
+        for (byte[] cells: positions) {
+            engine.copyCells(cells, 0);
+            int d = tablebase.bestMove(cells);
+            if (d < 0 || !engine.move(d))
+                engine.reset();
+        }
+        final int[] counter = new int[1];
+        measure("Tablebase.bestMove 3x3 target=" + (1 << target), () -> {
+            sink += tablebase.bestMove(positions[counter[0]++ & (positions.length-1)]);
+        });
+    }
+
+    /**
+     * Gets the bytes allocated so far by the current thread.
+     * @return allocated bytes
+     */
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Warms up and times a benchmark, then prints its results.
+     * @param name the benchmark's name
+     * @param op one operation of the benchmark
+     */
+    public static void measure(String name, Runnable op) {
+        if (!name.contains(filter))
+            return;
+
+        run(op, (long) (seconds * 0.5e9));
+        long before = allocated();
+        long start = System.nanoTime();
+        long ops = run(op, (long) (seconds * 1e9));
+        long nanos = System.nanoTime() - start;
+        long bytes = allocated() - before;
+
+        System.out.printf("%-40s %14.1f ops/s %12.1f ns/op %10.1f B/op%n",
+            name, ops * 1e9 / nanos, (double) nanos / ops, (double) bytes / ops);
+    }
+
+    /**
+     * Repeats an operation in growing batches until the time is up.
+     * @param op the operation
+     * @param nanos minimum running time
+     * @return number of operations run
+     */
+    private static long run(Runnable op, long nanos) {
+        long start = System.nanoTime();
+        long ops = 0;
+        int batch = 1;
+        long now = start;
+        while (now - start < nanos) {
+            long batchStart = now;
+            for (int i = 0; i < batch; i++) {
+                op.run();
+            }
+            ops += batch;
+            now = System.nanoTime();
+            // Grows short batches so the clock is read rarely
+            if (now - batchStart < nanos / 100)
+                batch *= 2;
+        }
+        return ops;
+    }
+}
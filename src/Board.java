@@ -0,0 +1,249 @@
+import java.util.random.*;
+
+/**
+ * This class contains the packed board engine.
+ * A board is stored in a single long as sixteen 4-bit tile exponents, where the
+ * cell at (row, column) occupies bits 4*(row*4 + column) to 4*(row*4 + column) + 3.
+ * An exponent of 0 is an empty cell and an exponent of e is the value 2^e.
+ */
+public class Board {
+    public static final int SIZE = 4;
+    public static final int UP = 0;
+    public static final int DOWN = 1;
+    public static final int LEFT = 2;
+    public static final int RIGHT = 3;
+
+    private static final int MAX_EXPONENT = 15;
+    private static final long ROW_MASK = 0xFFFFL;
+
+    // Lookup tables indexed by a 16-bit row, column 0 in the lowest nibble
+    static final char[] ROW_LEFT = new char[65536];
+    static final char[] ROW_RIGHT = new char[65536];
+    private static final int[] ROW_SCORE = new int[65536];
+
+    // Lowest bit of every nibble, and of the nibbles that have a neighbor to their right or below
+    private static final long NIBBLES = 0x1111111111111111L;
+    private static final long HAS_RIGHT = 0x0111011101110111L;
+    private static final long HAS_BELOW = 0x0000111111111111L;
+
+    static {
+        int[] line = new int[SIZE];
+        for (int row = 0; row < 65536; row++) {
+            for (int i = 0; i < SIZE; i++) {
+                line[i] = (row >> (4*i)) & 0xF;
+            }
+            ROW_SCORE[row] = slide(line);
+            int result = 0;
+            for (int i = 0; i < SIZE; i++) {
+                result |= line[i] << (4*i);
+            }
+            ROW_LEFT[row] = (char) result;
+            ROW_RIGHT[reverseRow(row)] = (char) reverseRow(result);
+        }
+    }
+
+    private Board() {
+    }
+
+    /**
+     * Slides and merges a line of exponents to the left, the same way GridPanel always has.
+     * A pair of tiles at the maximum exponent is left unmerged, as it cannot be stored.
+     * @param line exponents to slide, modified in place
+     * @return score gained from the merges
+     */
+    private static int slide(int[] line) {
+        // Shifts non-zero exponents to the left
+        int j = 0;
+        for (int i = 0; i < line.length; i++) {
+            if (line[i] != 0) {
+                line[j++] = line[i];
+            }
+        }
+        for (int i = j; i < line.length; i++) {
+            line[i] = 0;
+        }
+
+        // Merges pairs, then closes the gaps left behind
+        int score = 0;
+        int k = 0;
+        for (int i = 0; i < j; i++) {
+            if (i+1 < j && line[i] == line[i+1] && line[i] < MAX_EXPONENT) {
+                score += 1 << (line[i] + 1);
+                line[k++] = line[i] + 1;
+                i++;
+            } else {
+                line[k++] = line[i];
+            }
+        }
+        for (int i = k; i < line.length; i++) {
+            line[i] = 0;
+        }
+        return score;
+    }
+
+    /**
+     * Reverses the order of the four nibbles in a 16-bit row.
+     * @param row row to reverse
+     * @return the reversed row
+     */
+    private static int reverseRow(int row) {
+        return ((row >> 12) & 0xF) | ((row >> 4) & 0xF0) | ((row << 4) & 0xF00) | ((row << 12) & 0xF000);
+    }
+
+    /**
+     * Transposes the board, swapping rows with columns.
+     * @param board packed board
+     * @return the transposed board
+     */
+    public static long transpose(long board) {
+        long a1 = board & 0xF0F00F0FF0F00F0FL;
+        long a2 = board & 0x0000F0F00000F0F0L;
+        long a3 = board & 0x0F0F00000F0F0000L;
+        long a = a1 | (a2 << 12) | (a3 >>> 12);
+        long b1 = a & 0xFF00FF0000FF00FFL;
+        long b2 = a & 0x00FF00FF00000000L;
+        long b3 = a & 0x00000000FF00FF00L;
+        return b1 | (b2 >>> 24) | (b3 << 24);
+    }
+
+    /**
+     * Applies a row table to each of the four rows of the board.
+     * @param board packed board
+     * @param table row lookup table
+     * @return the resulting board
+     */
+    static long applyRows(long board, char[] table) {
+        return (long) table[(int) (board & ROW_MASK)]
+            | (long) table[(int) ((board >>> 16) & ROW_MASK)] << 16
+            | (long) table[(int) ((board >>> 32) & ROW_MASK)] << 32
+            | (long) table[(int) (board >>> 48)] << 48;
+    }
+
+    /**
+     * Sums the merge score of each of the four rows of the board.
+     * @param board packed board
+     * @return the total score
+     */
+    static int scoreRows(long board) {
+        return ROW_SCORE[(int) (board & ROW_MASK)]
+            + ROW_SCORE[(int) ((board >>> 16) & ROW_MASK)]
+            + ROW_SCORE[(int) ((board >>> 32) & ROW_MASK)]
+            + ROW_SCORE[(int) (board >>> 48)];
+    }
+
+    /**
+     * Shifts the tiles of the board in the specified direction.
+     * @param board packed board
+     * @param direction UP, DOWN, LEFT or RIGHT
+     * @return the resulting board
+     */
+    public static long move(long board, int direction) {
+        switch (direction) {
+            case UP:
+                return transpose(applyRows(transpose(board), ROW_LEFT));
+            case DOWN:
+                return transpose(applyRows(transpose(board), ROW_RIGHT));
+            case RIGHT:
+                return applyRows(board, ROW_RIGHT);
+            default:
+                return applyRows(board, ROW_LEFT);
+        }
+    }
+
+    /**
+     * Calculates the score gained by shifting the board in the specified direction.
+     * A row scores the same whichever end it is slid towards, so both share a table.
+     * @param board packed board
+     * @param direction UP, DOWN, LEFT or RIGHT
+     * @return the score of the move
+     */
+    public static int score(long board, int direction) {
+        if (direction == UP || direction == DOWN)
+            return scoreRows(transpose(board));
+        return scoreRows(board);
+    }
+
+    /**
+     * Checks if there is a valid move that can be made.
+     * A board with both tiles and empty cells can always move. On a full board every pair of
+     * neighbors is tested at once for the same exponent below the maximum.
+     * @param board packed board
+     * @return true if a valid move exists, otherwise false
+     */
+    public static boolean canMove(long board) {
+        long full = occupied(board);
+        if (full != NIBBLES)
+            return full != 0; // a tile next to an empty cell can always slide into it
+        long mergeable = ~(board & (board >>> 1) & (board >>> 2) & (board >>> 3));
+        return ((equal(board, 4) & HAS_RIGHT | equal(board, 16) & HAS_BELOW) & mergeable) != 0;
+    }
+
+    /**
+     * Finds the cells that hold the same exponent as their neighbor at a fixed distance.
+     * @param board packed board
+     * @param shift distance to the neighbor in bits, 4 for the right and 16 for below
+     * @return the lowest bit of every nibble equal to its neighbor
+     */
+    private static long equal(long board, int shift) {
+        return ~occupied(board ^ (board >>> shift)) & NIBBLES;
+    }
+
+    /**
+     * Folds each nibble into its lowest bit, which is set if the nibble is non-zero.
+     * @param board packed board
+     * @return the lowest bit of every non-zero nibble
+     */
+    private static long occupied(long board) {
+        long x = board | (board >>> 2);
+        x |= x >>> 1;
+        return x & NIBBLES;
+    }
+
+    /**
+     * Counts the empty cells of the board.
+     * @param board packed board
+     * @return number of empty cells
+     */
+    public static int countEmpty(long board) {
+        return SIZE*SIZE - Long.bitCount(occupied(board));
+    }
+
+    /**
+     * Spawns a tile on a random empty cell, drawing the same random numbers as ByteBoard.spawn.
+     * @param board packed board with at least one empty cell
+     * @param random the random generator
+     * @return the board with the new tile
+     */
+    public static long spawn(long board, RandomGenerator random) {
+        int index = random.nextInt(countEmpty(board));
+        long exponent = random.nextDouble() < 0.9 ? 1 : 2; // 10% chance for a 4
+        for (int shift = 0; ; shift += 4) {
+            if ((board >>> shift & 0xF) == 0 && index-- == 0)
+                return board | exponent << shift;
+        }
+    }
+
+    /**
+     * Retrieves the exponent of a cell.
+     * @param board packed board
+     * @param row row of the cell
+     * @param column column of the cell
+     * @return the exponent, 0 if the cell is empty
+     */
+    public static int get(long board, int row, int column) {
+        return (int) (board >>> (4*(row*SIZE + column))) & 0xF;
+    }
+
+    /**
+     * Sets the exponent of a cell.
+     * @param board packed board
+     * @param row row of the cell
+     * @param column column of the cell
+     * @param exponent the new exponent
+     * @return the resulting board
+     */
+    public static long set(long board, int row, int column, int exponent) {
+        int shift = 4*(row*SIZE + column);
+        return (board & ~(0xFL << shift)) | ((long) exponent << shift);
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * This class advances many independent 4x4 boards at once.
+ * The boards are stored structure-of-arrays: one array of packed boards, one of scores and
+ * one of moved flags, so a batch move is a single pass over contiguous memory with no
+ * objects or allocation per board. Every result is bit-identical to moving each board
+ * on its own with Board.move, Board.score and Board.canMove.
+ *
+ * When the JVM is started with --add-modules jdk.incubator.vector, whole vectors of boards
+ * are moved at once by VectorBoards, which is compiled apart from the game in src/vector/java.
+ * Otherwise, or if VectorBoards was not compiled, the boards are moved one at a time.
+ */
+public class BoardBatch {
+    // Moves vectors of boards, or null if the Vector API is not available
+    private static final Mover VECTOR = loadVector();
+
+    private long[] boards;
+    private long[] scores;
+    private boolean[] moved;
+    private int size;
+    private Mover mover;
+
+    /**
+     * This interface moves and checks the boards of a batch all at once.
+     */
+    interface Mover {
+        /**
+         * Shifts every board in the specified direction and adds each move's score.
+         * @param boards packed boards, modified in place
+         * @param scores score of each board, added to
+         * @param moved receives, for each board, true if it changed
+         * @param size number of boards
+         * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+         * @return number of boards that changed
+         */
+        int move(long[] boards, long[] scores, boolean[] moved, int size, int direction);
+
+        /**
+         * Checks which boards have a valid move.
+         * @param boards packed boards
+         * @param moved receives, for each board, true if it can move
+         * @param size number of boards
+         * @return number of boards that can move
+         */
+        int canMove(long[] boards, boolean[] moved, int size);
+
+        /**
+         * Counts the empty cells of every board.
+         * @param boards packed boards
+         * @param empty receives each board's count
+         * @param size number of boards
+         * @return total number of empty cells
+         */
+        int countEmpty(long[] boards, int[] empty, int size);
+    }
+
+    /**
+     * Constructs an empty BoardBatch, moved with the Vector API if it is available.
+     * @param capacity maximum number of boards
+     */
+    public BoardBatch(int capacity) {
+        this(capacity, true);
+    }
+
+    /**
+     * Constructs an empty BoardBatch.
+     * @param capacity maximum number of boards
+     * @param vector true to move with the Vector API if it is available, false to always
+     * move one board at a time
+     */
+    public BoardBatch(int capacity, boolean vector) {
+        boards = new long[capacity];
+        scores = new long[capacity];
+        moved = new boolean[capacity];
+        mover = vector ? VECTOR : null;
+    }
+
+    /**
+     * Loads VectorBoards if the Vector API module is present.
+     * @return the mover, or null if the module or the class is missing
+     */
+    private static Mover loadVector() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return null;
+        try {
+            return (Mover) Class.forName("VectorBoards").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null; // built without src/vector/java
+        }
+    }
+
+    /**
+     * Checks if whole vectors of boards are moved at once.
+     * @return true if the Vector API is used, false if boards are moved one at a time
+     */
+    public boolean isVectorized() {
+        return mover != null;
+    }
+
+    /**
+     * Gets the number of boards in the batch.
+     * @return the board count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a board with a score of 0.
+     * @param board packed board
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(long board) {
+        if (size == boards.length)
+            throw new IllegalStateException("the batch holds at most " + boards.length + " boards");
+        boards[size] = board;
+        scores[size] = 0;
+        moved[size] = false;
+        size++;
+    }
+
+    /**
+     * Removes every board.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Retrieves a board.
+     * @param index index of the board
+     * @return the packed board
+     */
+    public long get(int index) {
+        return boards[index];
+    }
+
+    /**
+     * Replaces a board, keeping its score.
+     * @param index index of the board
+     * @param board the new packed board
+     */
+    public void set(int index, long board) {
+        boards[index] = board;
+    }
+
+    /**
+     * Gets the total score of a board's moves since it was added.
+     * @param index index of the board
+     * @return the score
+     */
+    public long getScore(int index) {
+        return scores[index];
+    }
+
+    /**
+     * Gets if a board changed in the last move.
+     * @param index index of the board
+     * @return true if the board moved, false otherwise
+     */
+    public boolean isMoved(int index) {
+        return moved[index];
+    }
+
+    /**
+     * Shifts every board in the specified direction and adds each move's score.
+     * Vertical moves transpose each board once for both the tiles and the score.
+     * @param direction UP, DOWN, LEFT or RIGHT
+     * @return number of boards that changed
+     */
+    public int move(int direction) {
+        if (mover != null)
+            return mover.move(boards, scores, moved, size, direction);
+        char[] table = direction == Board.UP || direction == Board.LEFT ? Board.ROW_LEFT : Board.ROW_RIGHT;
+        int count = 0;
+        if (direction == Board.UP || direction == Board.DOWN) {
+            for (int i = 0; i < size; i++) {
+                long board = boards[i];
+                long rows = Board.transpose(board);
+                long next = Board.transpose(Board.applyRows(rows, table));
+                scores[i] += Board.scoreRows(rows);
+                moved[i] = next != board;
+                count += next != board ? 1 : 0;
+                boards[i] = next;
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                long board = boards[i];
+                long next = Board.applyRows(board, table);
+                scores[i] += Board.scoreRows(board);
+                moved[i] = next != board;
+                count += next != board ? 1 : 0;
+                boards[i] = next;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks which boards have a valid move, storing the answer in the moved flags.
+     * @return number of boards that can move
+     */
+    public int canMove() {
+        if (mover != null)
+            return mover.canMove(boards, moved, size);
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            moved[i] = Board.canMove(boards[i]);
+            count += moved[i] ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the empty cells of every board.
+     * @param empty destination of each board's count, at least size() long
+     * @return total number of empty cells
+     */
+    public int countEmpty(int[] empty) {
+        if (mover != null)
+            return mover.countEmpty(boards, empty, size);
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            empty[i] = Board.countEmpty(boards[i]);
+            total += empty[i];
+        }
+        return total;
+    }
+}
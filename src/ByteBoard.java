@@ -0,0 +1,315 @@
+import java.lang.invoke.*;
+import java.nio.ByteOrder;
+import java.util.random.*;
+
+/**
+ * This class contains the board engine for every size from 2x2 to 8x8.
+ * A board is an array of size*size tile exponents, one byte per cell in row-major order,
+ * so tiles can pass 2^31 on large boards. Every operation is linear in the number of cells
+ * and works in place, so nothing is allocated per move.
+ * 4x4 boards are moved through the packed tables of Board, keeping its exponent limit of 15.
+ */
+public class ByteBoard {
+    // Reads and writes eight cells at once, for packing 4x4 boards
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    public static final int MIN_SIZE = 2;
+    public static final int MAX_SIZE = 8;
+    // The largest exponent a tile can reach, low enough that a whole game's score fits in a
+    // long: each of 64 tiles has scored at most (exponent-1) * 2^exponent, under 2^63 for 51
+    public static final int MAX_EXPONENT = 51;
+
+    private ByteBoard() {
+    }
+
+    /**
+     * Packs a 4x4 board into sixteen 4-bit exponents.
+     * @param cells exponents of the sixteen cells
+     * @return the packed board
+     */
+    public static long pack(byte[] cells) {
+        return compress((long) LONGS.get(cells, 0)) | compress((long) LONGS.get(cells, 8)) << 32;
+    }
+
+    /**
+     * Unpacks a 4x4 board into one exponent per cell.
+     * @param board packed board
+     * @param cells receives the exponents of the sixteen cells
+     */
+    public static void unpack(long board, byte[] cells) {
+        LONGS.set(cells, 0, expand(board & 0xFFFFFFFFL));
+        LONGS.set(cells, 8, expand(board >>> 32));
+    }
+
+    /**
+     * Squeezes eight bytes, each holding an exponent below 16, into eight nibbles.
+     * @param x the bytes, the first cell in the lowest byte
+     * @return the nibbles, in the low 32 bits
+     */
+    private static long compress(long x) {
+        x = (x | x >>> 4) & 0x00FF00FF00FF00FFL;
+        x = (x | x >>> 8) & 0x0000FFFF0000FFFFL;
+        return (x | x >>> 16) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Spreads eight nibbles into eight bytes, the reverse of compress.
+     * @param x the nibbles, in the low 32 bits
+     * @return the bytes, the first cell in the lowest byte
+     */
+    private static long expand(long x) {
+        x = (x | x << 16) & 0x0000FFFF0000FFFFL;
+        x = (x | x << 8) & 0x00FF00FF00FF00FFL;
+        return (x | x << 4) & 0x0F0F0F0F0F0F0F0FL;
+    }
+
+    /**
+     * Gets the largest exponent a board of the specified size can hold.
+     * @param size number of rows and columns
+     * @return the exponent limit
+     */
+    public static int maxExponent(int size) {
+        return size == Board.SIZE ? 15 : MAX_EXPONENT;
+    }
+
+    /**
+     * Finds the cell where a line starts, at the edge tiles move towards.
+     * @param size number of rows and columns
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @param line index of the row or column
+     * @return index of the cell (row*size + column)
+     */
+    private static int start(int size, int direction, int line) {
+        switch (direction) {
+            case Board.UP:
+                return line;
+            case Board.DOWN:
+                return (size-1)*size + line;
+            case Board.RIGHT:
+                return line*size + size-1;
+            default:
+                return line*size;
+        }
+    }
+
+    /**
+     * Finds the distance between two cells next to each other along a line, away from the edge.
+     * @param size number of rows and columns
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @return the difference of their cell indices
+     */
+    private static int step(int size, int direction) {
+        switch (direction) {
+            case Board.UP:
+                return size;
+            case Board.DOWN:
+                return -size;
+            case Board.RIGHT:
+                return -1;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Shifts the tiles of the board in place, with the same rules as Board.move.
+     * @param cells exponents of the cells, modified in place
+     * @param size number of rows and columns
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @return the score of the move shifted left by one, with the low bit set if any tile moved
+     */
+    public static long move(byte[] cells, int size, int direction) {
+        if (size == Board.SIZE) {
+            long board = pack(cells);
+            long next = Board.move(board, direction);
+            if (next == board)
+                return 0;
+            unpack(next, cells);
+            return (long) Board.score(board, direction) << 1 | 1;
+        }
+        return shift(cells, size, direction, MAX_EXPONENT);
+    }
+
+    /**
+     * Shifts the tiles of the board in place one line at a time, the way move does for every
+     * size but 4x4.
+     * @param cells exponents of the cells, modified in place
+     * @param size number of rows and columns
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @param max the exponent limit, at which tiles no longer merge
+     * @return the score of the move shifted left by one, with the low bit set if any tile moved
+     */
+    static long shift(byte[] cells, int size, int direction, int max) {
+        int step = step(size, direction);
+        long score = 0;
+        boolean moved = false;
+        for (int line = 0; line < size; line++) {
+            int start = start(size, direction, line);
+            int next = start; // cell the next unmerged tile slides to
+            boolean mergeable = false; // if the tile before next can still be merged into
+            for (int p = 0, from = start; p < size; p++, from += step) {
+                int exponent = cells[from];
+                if (exponent == 0)
+                    continue;
+                if (mergeable && cells[next - step] == exponent && exponent < max) {
+                    cells[next - step] = (byte) (exponent + 1);
+                    cells[from] = 0;
+                    score += 1L << (exponent + 1);
+                    mergeable = false;
+                    moved = true;
+                } else {
+                    if (from != next) {
+                        cells[next] = (byte) exponent;
+                        cells[from] = 0;
+                        moved = true;
+                    }
+                    next += step;
+                    mergeable = true;
+                }
+            }
+        }
+        return score << 1 | (moved ? 1 : 0);
+    }
+
+    /**
+     * Checks if there is a valid move that can be made, with the same result as Board.canMove.
+     * @param cells exponents of the cells
+     * @param size number of rows and columns
+     * @return true if a tile can slide into an empty neighbor or two neighbors can merge
+     */
+    public static boolean canMove(byte[] cells, int size) {
+        int max = maxExponent(size);
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int exponent = cells[r*size + c];
+                if (c+1 < size && canJoin(exponent, cells[r*size + c+1], max))
+                    return true;
+                if (r+1 < size && canJoin(exponent, cells[(r+1)*size + c], max))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if two neighboring cells change when shifted towards each other.
+     * @param a exponent of one cell
+     * @param b exponent of the other cell
+     * @param max the exponent limit
+     * @return true if exactly one is empty, or both hold equal tiles that can merge
+     */
+    private static boolean canJoin(int a, int b, int max) {
+        return (a == 0) != (b == 0) || (a == b && a != 0 && a < max);
+    }
+
+    /**
+     * Counts the empty cells of the board.
+     * @param cells exponents of the cells
+     * @return number of empty cells
+     */
+    public static int countEmpty(byte[] cells) {
+        int empty = 0;
+        for (byte exponent: cells) {
+            if (exponent == 0)
+                empty++;
+        }
+        return empty;
+    }
+
+    /**
+     * Finds the empty cells of the board, testing eight cells at a time.
+     * @param cells exponents of the cells, at most 64
+     * @return bit i set if cell i is empty
+     */
+    public static long emptyMask(byte[] cells) {
+        long empty = 0;
+        int i = 0;
+        for (; i + 8 <= cells.length; i += 8) {
+            long x = (long) LONGS.get(cells, i);
+            // High bit of each byte set if the byte is zero, exponents being below 128
+            long zero = ~(((x & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | x) & 0x8080808080808080L;
+            // Gathers the eight high bits into the top byte, cell i+k at bit k
+            empty |= ((zero >>> 7) * 0x0102040810204080L >>> 56) << i;
+        }
+        for (; i < cells.length; i++) {
+            if (cells[i] == 0)
+                empty |= 1L << i;
+        }
+        return empty;
+    }
+
+    /**
+     * Spawns a tile on a random empty cell: a 2 with 90% chance, otherwise a 4.
+     * The random numbers are drawn in a fixed order, so a seed always gives the same spawns.
+     * @param cells exponents of the cells, modified in place
+     * @param empty number of empty cells, at least 1
+     * @param random the random generator
+     * @return index of the cell (row*size + column)
+     */
+    public static int spawn(byte[] cells, int empty, RandomGenerator random) {
+        int index = random.nextInt(empty);
+        int exponent = random.nextDouble() < 0.9 ? 1 : 2; // 10% chance for a 4
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] == 0 && index-- == 0) {
+                cells[i] = (byte) exponent;
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("fewer than " + empty + " empty cells");
+    }
+
+    /**
+     * Spawns a tile like spawn, on a cell picked from a set of empty cells instead of a scan.
+     * It draws the same random numbers and picks the same cell as spawn.
+     * @param cells exponents of the cells, modified in place
+     * @param empty bit i set if cell i is empty, at least one bit set
+     * @param random the random generator
+     * @return index of the cell (row*size + column)
+     */
+    public static int spawnMasked(byte[] cells, long empty, RandomGenerator random) {
+        int index = random.nextInt(Long.bitCount(empty));
+        int exponent = random.nextDouble() < 0.9 ? 1 : 2; // 10% chance for a 4
+        // Narrows down to the index-th set bit by halves instead of walking the bits
+        int i = 0;
+        for (int width = 32; width > 0; width >>= 1) {
+            int low = Long.bitCount(empty & ((1L << width) - 1));
+            if (index >= low) {
+                index -= low;
+                empty >>>= width;
+                i += width;
+            }
+        }
+        cells[i] = (byte) exponent;
+        return i;
+    }
+
+    /**
+     * Finds where every tile ends up when the board is shifted, following the same rules as move.
+     * @param cells exponents of the cells
+     * @param size number of rows and columns
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @param targets receives, for every cell, the cell its tile moves to, or -1 if it is empty
+     */
+    public static void targets(byte[] cells, int size, int direction, int[] targets) {
+        int step = step(size, direction);
+        int max = maxExponent(size);
+        for (int line = 0; line < size; line++) {
+            int start = start(size, direction, line);
+            int next = start;
+            int waiting = -1; // cell of the last tile that can still be merged into
+            for (int p = 0, from = start; p < size; p++, from += step) {
+                int exponent = cells[from];
+                if (exponent == 0) {
+                    targets[from] = -1;
+                } else if (waiting >= 0 && exponent == cells[waiting] && exponent < max) {
+                    targets[from] = targets[waiting];
+                    waiting = -1;
+                } else {
+                    targets[from] = next;
+                    waiting = from;
+                    next += step;
+                }
+            }
+        }
+    }
+}
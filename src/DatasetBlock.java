@@ -0,0 +1,148 @@
+import java.nio.*;
+import java.util.zip.*;
+
+/**
+ * This class is one block of dataset rows, held as columns, and its encoded bytes.
+ */
+class DatasetBlock {
+    final int capacity;
+    int rows;
+    int games;
+    private int lastStart;
+    private int lastBoard;
+    private long predicted; // board the last row added leads to
+    private final byte[][] columns = new byte[DatasetWriter.COLUMNS][];
+    private final int[] lengths = new int[DatasetWriter.COLUMNS];
+    private final ByteBuffer out;
+
+    /**
+     * Constructs an empty DatasetBlock.
+     * @param capacity number of rows it holds
+     */
+    DatasetBlock(int capacity) {
+        this.capacity = capacity;
+        columns[DatasetWriter.MOVES] = new byte[(capacity + 3) / 4];
+        columns[DatasetWriter.REWARDS] = new byte[capacity * 5];
+        columns[DatasetWriter.SPAWNS] = new byte[capacity];
+        columns[DatasetWriter.STARTS] = new byte[capacity * 5];
+        columns[DatasetWriter.BOARDS] = new byte[capacity * 13];
+        int size = 8 + 8 * DatasetWriter.COLUMNS;
+        for (byte[] column: columns) {
+            size += column.length;
+        }
+        out = ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Marks the next row added as the first turn of a game.
+     */
+    void start() {
+        lengths[DatasetWriter.STARTS] = putVarint(columns[DatasetWriter.STARTS], lengths[DatasetWriter.STARTS], rows - lastStart);
+        lastStart = rows;
+        games++;
+    }
+
+    /**
+     * Adds a row.
+     * @param board packed board before the move
+     * @param move the move
+     * @param reward score gained by the move
+     * @param spawn the spawn byte
+     * @return the number of rows held
+     */
+    int add(long board, int move, int reward, int spawn) {
+        int r = rows;
+        long delta = r == lastStart ? board : board ^ predicted;
+        if (delta != 0) {
+            byte[] boards = columns[DatasetWriter.BOARDS];
+            int length = putVarint(boards, lengths[DatasetWriter.BOARDS], r - lastBoard);
+            for (int k = 0; k < 8; k++) {
+                boards[length++] = (byte) (delta >>> 8*k);
+            }
+            lengths[DatasetWriter.BOARDS] = length;
+            lastBoard = r;
+        }
+        predicted = predict(board, move, spawn);
+        byte[] moves = columns[DatasetWriter.MOVES];
+        moves[r >> 2] = (byte) ((r & 3) == 0 ? move : moves[r >> 2] | move << (r & 3) * 2);
+        lengths[DatasetWriter.REWARDS] = putVarint(columns[DatasetWriter.REWARDS], lengths[DatasetWriter.REWARDS], reward);
+        columns[DatasetWriter.SPAWNS][r] = (byte) spawn;
+        return rows = r + 1;
+    }
+
+    /**
+     * Finds the board a row leads to, which the next row of its game starts from.
+     * @param board packed board before the move
+     * @param move the move
+     * @param spawn the spawn byte
+     * @return the board after the move and the spawn
+     */
+    static long predict(long board, int move, int spawn) {
+        long next = Board.move(board, move);
+        if (spawn != DatasetWriter.NO_SPAWN)
+            next |= (long) ((spawn & 1) + 1) << (spawn >> 1) * 4;
+        return next;
+    }
+
+    /**
+     * Empties the block for reuse.
+     */
+    void clear() {
+        rows = 0;
+        games = 0;
+        lastStart = 0;
+        lastBoard = 0;
+        lengths[DatasetWriter.REWARDS] = 0;
+        lengths[DatasetWriter.STARTS] = 0;
+        lengths[DatasetWriter.BOARDS] = 0;
+    }
+
+    /**
+     * Encodes the block, deflating each column that shrinks.
+     * @param deflater deflater to reuse
+     * @return the encoded bytes, valid until the next call
+     */
+    ByteBuffer encode(Deflater deflater) {
+        lengths[DatasetWriter.MOVES] = (rows + 3) / 4;
+        lengths[DatasetWriter.SPAWNS] = rows;
+
+        out.clear();
+        out.putInt(rows).putInt(games);
+        int table = out.position();
+        out.position(table + 8 * DatasetWriter.COLUMNS);
+        for (int c = 0; c < DatasetWriter.COLUMNS; c++) {
+            int raw = lengths[c];
+            int begin = out.position();
+            deflater.reset();
+            deflater.setInput(columns[c], 0, raw);
+            deflater.finish();
+            out.limit(begin + raw);
+            while (!deflater.finished() && out.hasRemaining()) {
+                deflater.deflate(out);
+            }
+            if (!deflater.finished() || out.position() - begin >= raw) {
+                out.position(begin);
+                out.put(columns[c], 0, raw);
+            }
+            out.limit(out.capacity());
+            out.putInt(table + 8*c, out.position() - begin).putInt(table + 8*c + 4, raw);
+        }
+        return out.flip();
+    }
+
+    /**
+     * Writes a varint: 7 bits per byte, low bits first, with the high bit set on all but the last.
+     * @param dest the column
+     * @param offset where to write
+     * @param value the value, not negative
+     * @return the offset after the varint
+     */
+    static int putVarint(byte[] dest, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            dest[offset++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        dest[offset++] = (byte) value;
+        return offset;
+    }
+}
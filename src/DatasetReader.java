@@ -0,0 +1,353 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * This class reads a self-play file written by DatasetWriter, by row number.
+ * The index at the end of the file finds the block holding a row, which is read and decoded
+ * whole, so reading rows in order decodes each block once and any row costs at most one block.
+ *
+ * Usage: java DatasetReader file... [--seconds 1]
+ */
+public class DatasetReader implements Closeable {
+    private FileChannel channel;
+    private int capacity;
+    private long rows;
+    private long games;
+    private long[] offsets;
+    private long[] firstRows;
+    private long end;
+
+    // The decoded block
+    private long first;
+    private int count;
+    private long[] boards;
+    private byte[] moves;
+    private int[] rewards;
+    private byte[] spawns;
+    private boolean[] starts;
+    private ByteBuffer in;
+    private byte[] stored;
+    private byte[] raw;
+    private int cursor;
+    private Inflater inflater = new Inflater(true);
+
+    /**
+     * Opens a file and reads its index.
+     * @param file the file
+     * @throws IOException if the file cannot be read or is not a dataset
+     */
+    public DatasetReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath());
+        try {
+            long size = channel.size();
+            ByteBuffer header = read(0, DatasetWriter.HEADER_SIZE);
+            if (size < DatasetWriter.HEADER_SIZE + DatasetWriter.TRAILER_SIZE
+                    || header.getInt() != DatasetWriter.MAGIC || header.getInt() != DatasetWriter.VERSION)
+                throw new IOException(file + " is not a dataset");
+            capacity = header.getInt();
+            ByteBuffer trailer = read(size - DatasetWriter.TRAILER_SIZE, DatasetWriter.TRAILER_SIZE);
+            end = trailer.getLong();
+            rows = trailer.getLong();
+            games = trailer.getLong();
+            int blocks = trailer.getInt();
+            if (trailer.getInt() != DatasetWriter.MAGIC || end + blocks * 16L + DatasetWriter.TRAILER_SIZE != size)
+                throw new IOException(file + " is corrupt or was not closed");
+            ByteBuffer index = read(end, blocks * 16);
+            offsets = new long[blocks];
+            firstRows = new long[blocks];
+            for (int b = 0; b < blocks; b++) {
+                offsets[b] = index.getLong();
+                firstRows[b] = index.getLong();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        boards = new long[capacity];
+        moves = new byte[capacity];
+        rewards = new int[capacity];
+        spawns = new byte[capacity];
+        starts = new boolean[capacity];
+        raw = new byte[capacity * 13]; // enough for any column
+        stored = new byte[capacity * 13];
+    }
+
+    /**
+     * Reads bytes at a position of the file.
+     * @param position where to read
+     * @param length number of bytes
+     * @return a buffer holding the bytes
+     * @throws IOException if the file is too short
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException();
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Gets the number of rows.
+     * @return the count
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the number of games.
+     * @return the count
+     */
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * Gets the number of blocks.
+     * @return the count
+     */
+    public int getBlocks() {
+        return offsets.length;
+    }
+
+    /**
+     * Gets the board of a row.
+     * @param row the row
+     * @return packed board before the move
+     * @throws IOException if the block cannot be read
+     */
+    public long getBoard(long row) throws IOException {
+        return boards[seek(row)];
+    }
+
+    /**
+     * Gets the move of a row.
+     * @param row the row
+     * @return Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @throws IOException if the block cannot be read
+     */
+    public int getMove(long row) throws IOException {
+        return moves[seek(row)];
+    }
+
+    /**
+     * Gets the score gained by the move of a row.
+     * @param row the row
+     * @return the reward
+     * @throws IOException if the block cannot be read
+     */
+    public int getReward(long row) throws IOException {
+        return rewards[seek(row)];
+    }
+
+    /**
+     * Gets the tile spawned after the move of a row.
+     * @param row the row
+     * @return the cell shifted left by one with the low bit set for a 4, or DatasetWriter.NO_SPAWN
+     * @throws IOException if the block cannot be read
+     */
+    public int getSpawn(long row) throws IOException {
+        return spawns[seek(row)] & 0xFF;
+    }
+
+    /**
+     * Checks if a row is the first turn of a game.
+     * @param row the row
+     * @return true if a game starts at the row
+     * @throws IOException if the block cannot be read
+     */
+    public boolean isGameStart(long row) throws IOException {
+        return starts[seek(row)];
+    }
+
+    /**
+     * Decodes the block holding a row, unless it already is.
+     * @param row the row
+     * @return index of the row in the block
+     * @throws IOException if the block cannot be read
+     * @throws IndexOutOfBoundsException if there is no such row
+     */
+    private int seek(long row) throws IOException {
+        if (row >= first && row - first < count)
+            return (int) (row - first);
+        if (row < 0 || row >= rows)
+            throw new IndexOutOfBoundsException("row " + row + " of " + rows);
+        int b = Arrays.binarySearch(firstRows, row);
+        load(b < 0 ? -b - 2 : b);
+        return (int) (row - first);
+    }
+
+    /**
+     * Reads and decodes a block.
+     * @param b index of the block
+     * @throws IOException if the block cannot be read or is corrupt
+     */
+    private void load(int b) throws IOException {
+        count = 0;
+        long offset = offsets[b];
+        int length = (int) ((b + 1 < offsets.length ? offsets[b + 1] : end) - offset);
+        if (in == null || in.capacity() < length)
+            in = ByteBuffer.allocate(length);
+        in.clear().limit(length);
+        while (in.hasRemaining()) {
+            if (channel.read(in, offset + in.position()) < 0)
+                throw new EOFException();
+        }
+        in.flip();
+
+        int n = in.getInt();
+        int blockGames = in.getInt();
+        if (n < 1 || n > capacity)
+            throw new IOException("block " + b + " is corrupt");
+        int table = in.position();
+        in.position(table + 8 * DatasetWriter.COLUMNS);
+        for (int c = 0; c < DatasetWriter.COLUMNS; c++) {
+            int storedLength = in.getInt(table + 8*c);
+            int rawLength = in.getInt(table + 8*c + 4);
+            if (rawLength > raw.length)
+                throw new IOException("block " + b + " is corrupt");
+            if (storedLength == rawLength) {
+                in.get(raw, 0, rawLength);
+            } else {
+                in.get(stored, 0, storedLength);
+                inflater.reset();
+                inflater.setInput(stored, 0, storedLength);
+                try {
+                    if (inflater.inflate(raw, 0, rawLength) != rawLength)
+                        throw new IOException("block " + b + " is corrupt");
+                } catch (DataFormatException e) {
+                    throw new IOException("block " + b + " is corrupt", e);
+                }
+            }
+            decode(c, n, rawLength);
+        }
+        first = firstRows[b];
+        count = n;
+    }
+
+    /**
+     * Decodes a column from the raw buffer.
+     * @param c the column
+     * @param n number of rows of the block
+     * @param length number of bytes of the column
+     * @throws IOException if the column is corrupt
+     */
+    private void decode(int c, int n, int length) throws IOException {
+        cursor = 0;
+        switch (c) {
+            case DatasetWriter.MOVES:
+                for (int r = 0; r < n; r++) {
+                    moves[r] = (byte) (raw[r >> 2] >> (r & 3) * 2 & 3);
+                }
+                break;
+            case DatasetWriter.REWARDS:
+                for (int r = 0; r < n; r++) {
+                    rewards[r] = varint();
+                }
+                break;
+            case DatasetWriter.SPAWNS:
+                System.arraycopy(raw, 0, spawns, 0, n);
+                break;
+            case DatasetWriter.STARTS:
+                Arrays.fill(starts, false);
+                for (int r = 0; cursor < length; ) {
+                    r += varint();
+                    if (r > n)
+                        throw new IOException("game start past the end of a block");
+                    if (r < n)
+                        starts[r] = true; // a game started just before the file was closed has no rows
+                }
+                break;
+            default:
+                // The last column, so the moves, spawns and starts it predicts from are decoded
+                int stored = length > 0 ? varint() : n; // next row whose board is stored
+                long predicted = 0;
+                for (int r = 0; r < n; r++) {
+                    long board = r == 0 || starts[r] ? 0 : predicted;
+                    if (r == stored) {
+                        for (int k = 0; k < 8; k++) {
+                            board ^= (raw[cursor++] & 0xFFL) << 8*k;
+                        }
+                        stored = cursor < length ? r + varint() : n;
+                    }
+                    boards[r] = board;
+                    predicted = DatasetBlock.predict(board, moves[r], spawns[r] & 0xFF);
+                }
+        }
+    }
+
+    /**
+     * Reads a varint of the raw buffer at the cursor, and moves the cursor past it.
+     * @return the value
+     */
+    private int varint() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte x = raw[cursor++];
+            value |= (x & 0x7F) << shift;
+            if (x >= 0)
+                return value;
+        }
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    /**
+     * Reads every row of each file in order, checks that every turn follows from the one
+     * before it, and reports how fast rows are read.
+     * @param args command line arguments
+     * @throws IOException if a file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        double seconds = 1;
+        ArrayList<File> files = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--seconds"))
+                seconds = Double.parseDouble(args[++i]);
+            else
+                files.add(new File(args[i]));
+        }
+
+        for (File file: files) {
+            try (DatasetReader reader = new DatasetReader(file)) {
+                long score = 0;
+                long mismatched = 0;
+                long expected = 0;
+                long passes = 0;
+                long start = System.nanoTime();
+                long nanos = 0;
+                do {
+                    for (long row = 0; row < reader.getRows(); row++) {
+                        long board = reader.getBoard(row);
+                        int move = reader.getMove(row);
+                        int spawn = reader.getSpawn(row);
+                        int reward = reader.getReward(row);
+                        if (passes == 0 && ((!reader.isGameStart(row) && board != expected) || reward != Board.score(board, move)))
+                            mismatched++;
+                        if (passes == 0)
+                            score += reward;
+                        expected = DatasetBlock.predict(board, move, spawn);
+                    }
+                    passes++;
+                    nanos = System.nanoTime() - start;
+                } while (nanos < seconds * 1e9);
+                System.out.printf("%s: %d rows of %d games in %d blocks, %.2f bytes/row, mean score %.1f, %s, %.1fM rows/s%n",
+                    file, reader.getRows(), reader.getGames(), reader.getBlocks(), (double) file.length() / reader.getRows(),
+                    (double) score / Math.max(1, reader.getGames()),
+                    mismatched == 0 ? "verified" : mismatched + " rows do not follow", passes * reader.getRows() * 1e3 / nanos);
+            }
+        }
+    }
+}
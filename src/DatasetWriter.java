@@ -0,0 +1,329 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * This class streams self-play turns to a compact columnar file, for offline analysis and
+ * training. Every row is one turn of a 4x4 game: the packed board before the move, the move,
+ * the score it gained and the tile spawned after it. DatasetReader reads the file back.
+ *
+ * Rows are gathered into blocks of columns. The caller fills one block while a writer thread
+ * compresses and writes the other, so memory stays at two blocks however many rows are
+ * written, and nothing is allocated per row or per block.
+ *
+ * A file is a header (magic, version, rows per block, reserved), the blocks, an index with
+ * the file offset and first row of every block, and a trailer (index offset, rows, games,
+ * blocks, magic). A block is its row count, its game count, then the stored and raw length
+ * of each column followed by the columns:
+ * - moves: 2 bits each, four to a byte
+ * - rewards: varints of the score gained by each move, the deltas of the game's score
+ * - spawns: one byte each as in Replay, the cell shifted left by one with the low bit set for a 4
+ * - starts: varints of the distance between rows that start a game, from the block's first row
+ * - boards: only the rows whose board differs from the one the row before leads to (its board
+ *   moved, plus its spawn), which is only the first row of a block or game in self-play; each
+ *   is a varint of the distance from the last row stored, then the 8-byte XOR of the two boards
+ * A column is deflated unless that would not make it smaller, in which case its stored
+ * length equals its raw length. The columns hold few repeated strings, so they are deflated
+ * with Huffman coding only, which is both faster and smaller for them than searching for matches.
+ *
+ * Usage: java DatasetWriter [--rows 10000000] [--out selfplay.dat] [--block 65536] [--level 1]
+ */
+public class DatasetWriter implements Closeable {
+    static final int MAGIC = 0x32303444; // "204D"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int TRAILER_SIZE = 32;
+    static final int COLUMNS = 5;
+    static final int MOVES = 0;
+    static final int REWARDS = 1;
+    static final int SPAWNS = 2;
+    static final int STARTS = 3;
+    static final int BOARDS = 4;
+    public static final int NO_SPAWN = 0xFF;
+    public static final int DEFAULT_BLOCK = 1 << 16;
+
+    private FileChannel channel;
+    private int level;
+    private int capacity;
+    private Thread writer;
+    private volatile IOException failure;
+
+    // Double buffering: the caller fills current while the writer drains full
+    private final ArrayBlockingQueue<DatasetBlock> free = new ArrayBlockingQueue<DatasetBlock>(2);
+    private final ArrayBlockingQueue<DatasetBlock> full = new ArrayBlockingQueue<DatasetBlock>(2);
+    private final DatasetBlock end = new DatasetBlock(1);
+    private DatasetBlock current;
+    private long rows;
+    private long games;
+
+    // Owned by the writer thread until it stops
+    private long position;
+    private long[] offsets = new long[64];
+    private long[] firstRows = new long[64];
+    private int blocks;
+    private volatile long written;
+
+    /**
+     * Creates a file and starts its writer thread.
+     * @param file the file, replaced if it exists
+     * @param capacity number of rows per block
+     * @param level deflate level, from 0 (stored) to 9
+     * @throws IOException if the file cannot be created
+     */
+    public DatasetWriter(File file, int capacity, int level) throws IOException {
+        if (capacity < 1 || capacity > (1 << 24))
+            throw new IllegalArgumentException("block of " + capacity + " rows");
+        this.capacity = capacity;
+        this.level = level;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(capacity).putInt(0).flip();
+        write(header);
+
+        current = new DatasetBlock(capacity);
+        free.add(new DatasetBlock(capacity));
+        writer = new Thread(this::run, "dataset-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Marks the next row added as the first turn of a new game.
+     */
+    public void startGame() {
+        current.start();
+        games++;
+    }
+
+    /**
+     * Adds a row.
+     * @param board packed board before the move
+     * @param move Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @param reward score gained by the move
+     * @param spawn cell of the tile spawned after the move, shifted left by one with the low
+     *     bit set for a 4, or NO_SPAWN
+     * @throws IOException if an earlier block could not be written
+     */
+    public void add(long board, int move, int reward, int spawn) throws IOException {
+        if (current.add(board, move, reward, spawn) == capacity)
+            send();
+        rows++;
+    }
+
+    /**
+     * Gets the number of rows added.
+     * @return the count
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the number of games started.
+     * @return the count
+     */
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * Gets the number of bytes written so far, including the header.
+     * @return the count
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Hands the current block to the writer and takes the other one, waiting for it if needed.
+     * @throws IOException if a block could not be written
+     */
+    private void send() throws IOException {
+        try {
+            full.put(current);
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while writing a dataset");
+        }
+        if (failure != null)
+            throw new IOException("the dataset could not be written", failure);
+    }
+
+    /**
+     * Writes the rows still in the current block, then the index, and closes the file.
+     * @throws IOException if the file cannot be written
+     */
+    public void close() throws IOException {
+        if (current == null)
+            return;
+        try {
+            try {
+                if (current.rows > 0)
+                    full.put(current);
+                full.put(end);
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while closing a dataset");
+            }
+            if (failure != null)
+                throw new IOException("the dataset could not be written", failure);
+            ByteBuffer index = ByteBuffer.allocate(blocks * 16 + TRAILER_SIZE);
+            for (int b = 0; b < blocks; b++) {
+                index.putLong(offsets[b]).putLong(firstRows[b]);
+            }
+            index.putLong(position).putLong(rows).putLong(games).putInt(blocks).putInt(MAGIC).flip();
+            write(index);
+        } finally {
+            current = null;
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes full blocks until the end marker arrives.
+     */
+    private void run() {
+        Deflater deflater = new Deflater(level, true);
+        deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+        long first = 0;
+        try {
+            while (true) {
+                DatasetBlock block = full.take();
+                if (block == end)
+                    return;
+                try {
+                    if (failure == null) {
+                        ByteBuffer out = block.encode(deflater);
+                        if (blocks == offsets.length) {
+                            offsets = Arrays.copyOf(offsets, blocks * 2);
+                            firstRows = Arrays.copyOf(firstRows, blocks * 2);
+                        }
+                        offsets[blocks] = position;
+                        firstRows[blocks++] = first;
+                        first += block.rows;
+                        write(out);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+                block.clear();
+                free.put(block);
+            }
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("the dataset writer was interrupted");
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Writes a whole buffer at the end of the file.
+     * @param buffer the bytes, from its position to its limit
+     * @throws IOException if the file cannot be written
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        written += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Spawns a tile like Board.spawn, and encodes where it went.
+     * @param board packed board with at least one empty cell
+     * @param random the random generator
+     * @param spawn receives the spawn byte at index 0
+     * @return the board with the new tile
+     */
+    static long spawn(long board, SplittableRandom random, int[] spawn) {
+        long next = Board.spawn(board, random);
+        int shift = Long.numberOfTrailingZeros(next ^ board) & ~3;
+        spawn[0] = shift / 4 << 1 | (int) (next >>> shift & 0xF) - 1;
+        return next;
+    }
+
+    /**
+     * Plays games with random moves, exporting every turn if a writer is given.
+     * @param rows number of turns to play
+     * @param seed seed of the generator
+     * @param writer the writer, or null to only play
+     * @return the sum of the scores gained, so that playing alone is not optimized away
+     * @throws IOException if the file cannot be written
+     */
+    static long simulate(long rows, long seed, DatasetWriter writer) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] spawn = new int[1];
+        long total = 0;
+        long board = 0;
+        for (long row = 0; row < rows; ) {
+            int first = random.nextInt(4);
+            long next = board;
+            int d = 0;
+            for (int k = 0; k < 4 && next == board; k++) {
+                d = (first + k) & 3;
+                next = Board.move(board, d);
+            }
+            if (next == board) {
+                board = spawn(spawn(0, random, spawn), random, spawn);
+                if (writer != null)
+                    writer.startGame();
+                continue;
+            }
+            int reward = Board.score(board, d);
+            total += reward;
+            long spawned = spawn(next, random, spawn);
+            if (writer != null)
+                writer.add(board, d, reward, spawn[0]);
+            board = spawned;
+            row++;
+        }
+        return total;
+    }
+
+    /**
+     * Plays self-play games and exports them, printing how fast rows are played and written.
+     * @param args command line arguments
+     * @throws IOException if the file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        long rows = 10000000;
+        File file = new File("selfplay.dat");
+        int block = DEFAULT_BLOCK;
+        int level = Deflater.BEST_SPEED;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--rows"))
+                rows = Long.parseLong(args[++i]);
+            else if (args[i].equals("--out"))
+                file = new File(args[++i]);
+            else if (args[i].equals("--block"))
+                block = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--level"))
+                level = Integer.parseInt(args[++i]);
+            else
+                throw new IllegalArgumentException("unknown option " + args[i]);
+        }
+
+        long start = System.nanoTime();
+        simulate(rows, 1, null);
+        long played = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        DatasetWriter writer = new DatasetWriter(file, block, level);
+        try {
+            simulate(rows, 1, writer);
+        } finally {
+            writer.close();
+        }
+        long exported = System.nanoTime() - start;
+        System.out.printf("played %.1fM rows/s, exported %.1fM rows/s: %d rows of %d games, %.2f bytes/row, %s%n",
+            rows * 1e3 / played, rows * 1e3 / exported, writer.getRows(), writer.getGames(),
+            (double) writer.getWritten() / rows, file);
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * This enum lists the directions tiles can be shifted in.
+ * The ordinal of each direction is its Board constant, so Board.move(board, d.ordinal()) works directly.
+ */
+public enum Direction {
+    UP, DOWN, LEFT, RIGHT;
+
+    // values() copies its array on every call
+    private static final Direction[] VALUES = values();
+
+    /**
+     * Gets the direction of a Board constant.
+     * @param index Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @return the matching Direction
+     */
+    public static Direction get(int index) {
+        return VALUES[index];
+    }
+
+    /**
+     * Converts a direction name to a Direction, defaulting to LEFT like shiftTiles always has.
+     * @param name the direction ("UP", "DOWN", "LEFT", or "RIGHT")
+     * @return the matching Direction
+     */
+    public static Direction parse(String name) {
+        if (name.equals("UP"))
+            return UP;
+        if (name.equals("DOWN"))
+            return DOWN;
+        if (name.equals("RIGHT"))
+            return RIGHT;
+        return LEFT;
+    }
+}
@@ -0,0 +1,303 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class is an AI player that searches moves with depth-limited expectimax.
+ * Chance nodes follow the spawn rule of GameEngine: a 2 with 90% chance, a 4 with 10%.
+ * The moves and spawns below the root are searched in parallel on a ForkJoinPool,
+ * and every thread shares one TranspositionTable.
+ */
+public class Expectimax {
+    private static final double SPAWN_2 = 0.9;
+    private static final double SPAWN_4 = 0.1;
+    // Spawn sequences less likely than this are not worth searching further
+    private static final double PROBABILITY_CUTOFF = 0.0001;
+
+    private static final double LOST_PENALTY = 200000;
+    private static final double MONOTONICITY_POWER = 4;
+    private static final double MONOTONICITY_WEIGHT = 47;
+    private static final double SUM_POWER = 3.5;
+    private static final double SUM_WEIGHT = 11;
+    private static final double MERGES_WEIGHT = 700;
+    private static final double EMPTY_WEIGHT = 270;
+
+    // Heuristic value of each 16-bit row, see rowHeuristic
+    private static final float[] ROW_HEURISTIC = new float[65536];
+
+    static {
+        for (int row = 0; row < 65536; row++) {
+            ROW_HEURISTIC[row] = (float) rowHeuristic(row);
+        }
+    }
+
+    private int depth;
+    private ForkJoinPool pool;
+    private TranspositionTable table;
+
+    private long nodes;
+    private long nanos;
+
+    /**
+     * Constructs an Expectimax player searching to the specified depth on the common pool.
+     * @param depth number of moves to look ahead
+     */
+    public Expectimax(int depth) {
+        this(depth, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs an Expectimax player searching to the specified depth on a pool.
+     * @param depth number of moves to look ahead
+     * @param pool pool that runs the search
+     */
+    public Expectimax(int depth, ForkJoinPool pool) {
+        this.depth = depth;
+        this.pool = pool;
+        table = new TranspositionTable(22);
+    }
+
+    /**
+     * Scores a single row on empty cells, possible merges, monotonicity and tile sum.
+     * @param row 16-bit row, column 0 in the lowest nibble
+     * @return the row's heuristic value
+     */
+    private static double rowHeuristic(int row) {
+        int[] line = new int[Board.SIZE];
+        for (int i = 0; i < Board.SIZE; i++) {
+            line[i] = (row >> (4*i)) & 0xF;
+        }
+
+        double sum = 0;
+        int empty = 0;
+        int merges = 0;
+        int prev = 0;
+        int counter = 0;
+        for (int i = 0; i < Board.SIZE; i++) {
+            sum += Math.pow(line[i], SUM_POWER);
+            if (line[i] == 0) {
+                empty++;
+            } else {
+                if (prev == line[i]) {
+                    counter++;
+                } else if (counter > 0) {
+                    merges += 1 + counter;
+                    counter = 0;
+                }
+                prev = line[i];
+            }
+        }
+        if (counter > 0)
+            merges += 1 + counter;
+
+        double monotonicityLeft = 0;
+        double monotonicityRight = 0;
+        for (int i = 1; i < Board.SIZE; i++) {
+            double a = Math.pow(line[i-1], MONOTONICITY_POWER);
+            double b = Math.pow(line[i], MONOTONICITY_POWER);
+            if (line[i-1] > line[i])
+                monotonicityLeft += a - b;
+            else
+                monotonicityRight += b - a;
+        }
+
+        return LOST_PENALTY + EMPTY_WEIGHT * empty + MERGES_WEIGHT * merges
+            - MONOTONICITY_WEIGHT * Math.min(monotonicityLeft, monotonicityRight) - SUM_WEIGHT * sum;
+    }
+
+    /**
+     * Evaluates a board by summing the heuristic of its rows and columns.
+     * @param board packed board
+     * @return the board's heuristic value
+     */
+    public static double heuristic(long board) {
+        long t = Board.transpose(board);
+        return ROW_HEURISTIC[(int) (board & 0xFFFF)] + ROW_HEURISTIC[(int) ((board >>> 16) & 0xFFFF)]
+            + ROW_HEURISTIC[(int) ((board >>> 32) & 0xFFFF)] + ROW_HEURISTIC[(int) (board >>> 48)]
+            + ROW_HEURISTIC[(int) (t & 0xFFFF)] + ROW_HEURISTIC[(int) ((t >>> 16) & 0xFFFF)]
+            + ROW_HEURISTIC[(int) ((t >>> 32) & 0xFFFF)] + ROW_HEURISTIC[(int) (t >>> 48)];
+    }
+
+    /**
+     * Sets how many moves are looked ahead.
+     * @param depth number of moves to look ahead
+     */
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * Gets how many moves are looked ahead.
+     * @return the search depth
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Gets the number of nodes visited by the last search.
+     * @return the node count
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Gets the search speed of the last search.
+     * @return nodes visited per second
+     */
+    public double getNodesPerSecond() {
+        return nanos == 0 ? 0 : nodes * 1e9 / nanos;
+    }
+
+    /**
+     * Searches for the best move on a board.
+     * @param board packed board
+     * @return Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT, or -1 if no move is possible
+     */
+    public int bestMove(long board) {
+        long start = System.nanoTime();
+        ArrayList<Search> tasks = new ArrayList<Search>();
+        int[] owners = new int[4 * Board.SIZE*Board.SIZE];
+        double[] totals = new double[4];
+        int[] counts = new int[4];
+
+        // Splits every move into one task per spawn position
+        for (int d = 0; d < 4; d++) {
+            long next = Board.move(board, d);
+            if (next == board)
+                continue;
+            int empty = Board.countEmpty(next);
+            counts[d] = empty;
+            for (int i = 0; i < Board.SIZE*Board.SIZE; i++) {
+                if (((next >>> (4*i)) & 0xF) == 0) {
+                    owners[tasks.size()] = d;
+                    tasks.add(new Search(next, i, depth - 1, 1.0 / empty));
+                }
+            }
+        }
+        for (Search task: tasks) {
+            pool.execute(task);
+        }
+
+        int best = -1;
+        double bestValue = -1;
+        long visited = tasks.size();
+        for (int i = 0; i < tasks.size(); i++) {
+            totals[owners[i]] += tasks.get(i).join();
+            visited += tasks.get(i).nodes;
+        }
+        for (int d = 0; d < 4; d++) {
+            if (counts[d] > 0 && totals[d] / counts[d] > bestValue) {
+                bestValue = totals[d] / counts[d];
+                best = d;
+            }
+        }
+
+        nodes = visited;
+        nanos = System.nanoTime() - start;
+        return best;
+    }
+
+    /**
+     * Plays a game to the end, always making the best move found.
+     * @param engine the game to play
+     * @return number of moves made
+     */
+    public int play(GameEngine engine) {
+        int moves = 0;
+        while (!engine.isLost()) {
+            int d = bestMove(engine.getBoard());
+            if (d < 0) {
+                engine.move(Board.LEFT); // no move left, lets the engine record the loss
+            } else {
+                engine.move(d);
+                moves++;
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * This class searches the value of one spawn position after a move.
+     */
+    private class Search extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        private long board;
+        private int cell;
+        private int depth;
+        private double probability;
+        private long nodes;
+
+        /**
+         * Constructs a Search of the spawns at one empty cell.
+         * @param board packed board after the move
+         * @param cell index of the empty cell
+         * @param depth remaining moves to look ahead
+         * @param probability chance of this cell being picked
+         */
+        Search(long board, int cell, int depth, double probability) {
+            this.board = board;
+            this.cell = cell;
+            this.depth = depth;
+            this.probability = probability;
+        }
+
+        /**
+         * Searches both possible spawns at the cell.
+         * @return the expected value of the cell
+         */
+        protected Double compute() {
+            return SPAWN_2 * max(board | (1L << (4*cell)), depth, probability * SPAWN_2)
+                + SPAWN_4 * max(board | (2L << (4*cell)), depth, probability * SPAWN_4);
+        }
+
+        /**
+         * Finds the value of the best move, with 0 for a lost board.
+         * @param board packed board
+         * @param depth remaining moves to look ahead
+         * @param probability chance of reaching this board
+         * @return the board's value
+         */
+        private double max(long board, int depth, double probability) {
+            nodes++;
+            if (depth <= 0 || probability < PROBABILITY_CUTOFF)
+                return heuristic(board);
+
+            double best = 0;
+            for (int d = 0; d < 4; d++) {
+                long next = Board.move(board, d);
+                if (next != board)
+                    best = Math.max(best, chance(next, depth - 1, probability));
+            }
+            return best;
+        }
+
+        /**
+         * Finds the expected value over every possible spawn.
+         * @param board packed board
+         * @param depth remaining moves to look ahead
+         * @param probability chance of reaching this board
+         * @return the board's value
+         */
+        private double chance(long board, int depth, double probability) {
+            nodes++;
+            double cached = table.get(board, depth);
+            if (!Double.isNaN(cached))
+                return cached;
+
+            int empty = Board.countEmpty(board);
+            double p = probability / empty;
+            double total = 0;
+            for (int i = 0; i < Board.SIZE*Board.SIZE; i++) {
+                if (((board >>> (4*i)) & 0xF) == 0) {
+                    total += SPAWN_2 * max(board | (1L << (4*i)), depth, p * SPAWN_2)
+                        + SPAWN_4 * max(board | (2L << (4*i)), depth, p * SPAWN_4);
+                }
+            }
+            double value = total / empty;
+            table.put(board, depth, value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * This class is a set of 64-bit fingerprints in a primitive open-addressing table.
+ * Each entry costs 8 bytes at full load and between 10 and 20 bytes in practice.
+ * A fingerprint of 0 marks an empty slot, so 0 is stored as 1 instead.
+ */
+public class FingerprintSet {
+    private long[] table;
+    private int size;
+    private int mask;
+
+    /**
+     * Constructs an empty FingerprintSet.
+     */
+    public FingerprintSet() {
+        table = new long[1024];
+        mask = table.length - 1;
+    }
+
+    /**
+     * Hashes a score record into a fingerprint.
+     * @param name buffer holding the UTF-8 name
+     * @param nameLength number of bytes of the name
+     * @param score the score
+     * @param won true if the game was won
+     * @return the 64-bit fingerprint
+     */
+    public static long fingerprint(byte[] name, int nameLength, long score, boolean won) {
+        long h = 0xCBF29CE484222325L; // FNV-1a
+        for (int i = 0; i < nameLength; i++) {
+            h = (h ^ (name[i] & 0xFF)) * 0x100000001B3L;
+        }
+        h ^= (score << 1) | (won ? 1 : 0);
+        // Finalizer of MurmurHash3, spreads every input bit over the whole hash
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Adds a fingerprint to the set.
+     * @param fingerprint the fingerprint
+     * @return true if it was added, false if it was already present
+     */
+    public boolean add(long fingerprint) {
+        if (fingerprint == 0)
+            fingerprint = 1;
+        int i = (int) fingerprint & mask;
+        while (table[i] != 0) {
+            if (table[i] == fingerprint)
+                return false;
+            i = (i + 1) & mask;
+        }
+        table[i] = fingerprint;
+        if (++size > table.length * 4 / 5)
+            grow();
+        return true;
+    }
+
+    /**
+     * Checks if a fingerprint is in the set.
+     * @param fingerprint the fingerprint
+     * @return true if it is present, otherwise false
+     */
+    public boolean contains(long fingerprint) {
+        if (fingerprint == 0)
+            fingerprint = 1;
+        int i = (int) fingerprint & mask;
+        while (table[i] != 0) {
+            if (table[i] == fingerprint)
+                return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a fingerprint from the set.
+     * @param fingerprint the fingerprint
+     * @return true if it was removed, false if it was not present
+     */
+    public boolean remove(long fingerprint) {
+        if (fingerprint == 0)
+            fingerprint = 1;
+        int i = (int) fingerprint & mask;
+        while (table[i] != fingerprint) {
+            if (table[i] == 0)
+                return false;
+            i = (i + 1) & mask;
+        }
+        // Moves later entries of the run back into the hole when their probe passes it,
+        // so that no lookup stops early at an empty slot
+        int hole = i;
+        for (int j = (hole + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = (int) table[j] & mask;
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                table[hole] = table[j];
+                hole = j;
+            }
+        }
+        table[hole] = 0;
+        size--;
+        return true;
+    }
+
+    /**
+     * Gets the number of fingerprints in the set.
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Doubles the table and reinserts every fingerprint.
+     */
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        mask = table.length - 1;
+        for (long f: old) {
+            if (f != 0) {
+                int i = (int) f & mask;
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = f;
+            }
+        }
+    }
+}
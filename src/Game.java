@@ -1,3 +1,5 @@
+import java.util.*;
+import java.io.*;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
@@ -5,23 +7,58 @@ import javax.swing.*;
 /**
  * This class represents the main game window.
  * It manages the game components, such as the grid, score, and buttons.
+ * The rules are played by a GameLoop on its own thread; the components observe a copy of
+ * its engine that is updated on the Event Dispatch Thread from each snapshot.
  */
-public class Game extends JFrame implements KeyListener {
+public class Game extends JFrame implements KeyListener, GameListener {
+    private static final long serialVersionUID = 1L;
     private static final int FRAME_SIZE = 800;
     private static final Color FRAME_COLOR = new Color(250,248,239);
     private static final Color TEXT_COLOR = new Color(119,110,101);
+    private static final String INFO_TEXT = "Use arrows keys to reach 2048!";
+    private static final int AI_DEPTH = 6;
+    private static final int ROLLOUTS = 4096;
+    // Hint and autoplay AIs, switched with M
+    private static final int AI_SEARCH = 0;
+    private static final int AI_ROLLOUTS = 1;
+    private static final int AI_NETWORK = 2;
+    private static final int UNDO_DEPTH = 10000;
     
+    private GameEngine engine;
+    private GameLoop loop;
+    private int games;
     private GridPanel grid;
     private ScorePanel score;
     private Leaderboard leaderboard;
 
     private JLabel info;
-    private boolean playing;
+    private Expectimax ai;
+    private MonteCarlo rollouts;
+    private int depth = AI_DEPTH;
+    private NTuple network;
+    private int mode;
+    private Tablebase tablebase;
+    private byte[] cells;
+    private SwingWorker<Integer, Void> thinking;
+    private boolean autoplay;
+
+    // Key held down, and the last key released, to tell auto-repeats from new presses
+    private int heldKey = -1;
+    private int releasedKey = -1;
+    private long releasedWhen;
     
     /**
-     * Constructs a new instance of the Game class.
+     * Constructs a new instance of the Game class with a 4x4 board.
      */
     public Game() {
+        this(Board.SIZE);
+    }
+
+    /**
+     * Constructs a new instance of the Game class with the specified board size.
+     * @param size number of rows and columns, from ByteBoard.MIN_SIZE to ByteBoard.MAX_SIZE
+     */
+    public Game(int size) {
         setSize(FRAME_SIZE, FRAME_SIZE);
         setResizable(false);
         setLocationRelativeTo(null);
@@ -29,9 +66,17 @@ public class Game extends JFrame implements KeyListener {
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         getContentPane().setBackground(FRAME_COLOR);
 
-        score = new ScorePanel(FRAME_SIZE * 1/7);
+        long seed = new SplittableRandom().nextLong();
+        engine = new GameEngine(size, seed);
+        score = new ScorePanel(FRAME_SIZE * 1/7, engine);
         score.setBackground(FRAME_COLOR);
-        leaderboard = new Leaderboard(score);
+        leaderboard = new Leaderboard(score, size);
+        addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                // Writes any score still being added before the game exits
+                leaderboard.close();
+            }
+        });
         
         JLabel title = new JLabel("2048");
         title.setForeground(TEXT_COLOR);
@@ -79,7 +124,7 @@ public class Game extends JFrame implements KeyListener {
         panel1.add(score);
         panel1.add(Box.createHorizontalGlue());
 
-        info = new JLabel("Use arrows keys to reach 2048!");
+        info = new JLabel(INFO_TEXT);
         info.setForeground(TEXT_COLOR);
         info.setFont(new Font("Helvetica", Font.BOLD, 22));
 
@@ -94,7 +139,7 @@ public class Game extends JFrame implements KeyListener {
         panel2.add(showLeaderboard);
         panel2.add(Box.createHorizontalGlue());
 
-        grid = new GridPanel(FRAME_SIZE * 5/8);
+        grid = new GridPanel(FRAME_SIZE * 5/8, engine);
         grid.setBackground(FRAME_COLOR);
 
         add(Box.createVerticalGlue());
@@ -105,18 +150,87 @@ public class Game extends JFrame implements KeyListener {
         add(grid);
         add(Box.createVerticalGlue());
 
-        playing = true;
+        grid.setIdleListener(new Runnable() {
+            public void run() {
+                idle();
+            }
+        });
+
+        // Plays an engine of its own, started with the same seed as the one displayed
+        loop = new GameLoop(new GameEngine(size, seed), UNDO_DEPTH, this::show);
+        leaderboard.setReplay(loop.getReplay());
+        grid.getTelemetry().setLoop(loop);
+
+        rollouts = new MonteCarlo(ROLLOUTS);
+        cells = new byte[size*size];
+        File file = new File(Tablebase.fileName(size));
+        if (size <= Tablebase.MAX_SIZE && file.exists()) {
+            try {
+                tablebase = new Tablebase(file);
+            } catch (IOException e) {
+                // Without a tablebase, small boards have no hint or autoplay
+            }
+        }
+        engine.addListener(this);
         addKeyListener(this);
     }
     
     /**
-     * Resets the game by creating a new instance and disposing the current window.
+     * Starts a new game in place, re-seeding the engine and keeping every component.
+     * The listeners clear the grid and score once it has started, and the leaderboard stays loaded.
      */
     public void reset() {
-        Game g = new Game();
-        g.setVisible(true);
-        leaderboard.dispose();
-        this.dispose();
+        autoplay = false;
+        loop.submit(GameLoop.RESET, System.nanoTime(), false);
+    }
+
+    /**
+     * Sets how many commands may be waiting for an auto-repeated key press to be queued.
+     * @param repeatLimit the limit, 0 to ignore every repeat
+     */
+    public void setRepeatLimit(int repeatLimit) {
+        loop.setRepeatLimit(repeatLimit);
+    }
+
+    /**
+     * Sets how many moves the expectimax AI looks ahead. Each move deeper costs several times
+     * more, so a slow machine may need a shallower search to hint without a noticeable wait.
+     * @param depth number of moves to look ahead, at least 1
+     */
+    public void setSearchDepth(int depth) {
+        if (depth != this.depth)
+            ai = null; // built again on next use
+        this.depth = depth;
+    }
+
+    /**
+     * Sets the budget of the Monte Carlo AI's searches.
+     * @param count number of rollouts per search, used if millis is 0
+     * @param millis time per search in milliseconds, or 0 to budget by count
+     */
+    public void setRolloutBudget(int count, long millis) {
+        if (millis > 0)
+            rollouts.setTime(millis);
+        else
+            rollouts.setRollouts(count);
+    }
+
+    /**
+     * Shows a snapshot from the game loop, on the Event Dispatch Thread.
+     * @param snapshot the snapshot
+     */
+    private void show(Snapshot snapshot) {
+        long now = System.nanoTime();
+        if (snapshot.getGames() != games) {
+            games = snapshot.getGames();
+            leaderboard.reset(loop.getReplay());
+            grid.getTelemetry().newGame(now - snapshot.getPressed());
+        }
+        if (snapshot.isUndone())
+            leaderboard.setReplay(null); // the replay no longer matches the game
+        if (snapshot.getState().getLastMove() >= 0)
+            grid.getTelemetry().input(snapshot.getPressed());
+        engine.apply(snapshot.getState());
     }
 
     /**
@@ -133,47 +247,212 @@ public class Game extends JFrame implements KeyListener {
         info.setText("You lost :(");
     }
 
+    /**
+     * Updates the info message when the game is won or lost.
+     * @param engine the engine that changed
+     */
+    public void stateChanged(GameEngine engine) {
+        if (engine.isLost())
+            lose();
+        else if (engine.isWon())
+            win();
+        else
+            info.setText(INFO_TEXT);
+    }
+
+    /**
+     * Thinks about the next autoplay move once a turn has been animated.
+     */
+    private void idle() {
+        if (autoplay)
+            think();
+    }
+
+    /**
+     * Steps back or forward through the history on the logic thread and restores that state.
+     * The game no longer follows its seed, so its replay is not saved with the score.
+     * @param forward true to redo, false to undo
+     */
+    private void undo(boolean forward) {
+        autoplay = false;
+        loop.submit(forward ? GameLoop.REDO : GameLoop.UNDO, System.nanoTime(), false);
+    }
+
+    /**
+     * Searches for the best move in the background, then shows it as a hint or plays it.
+     * Boards with a tablebase look the move up instead, and the n-tuple network picks its
+     * move at once, as both are instant.
+     */
+    private void think() {
+        if (thinking != null || engine.isLost())
+            return;
+        if (mode == AI_NETWORK) {
+            // Greedy on the learned values, fast enough to run on the Event Dispatch Thread
+            if (network != null)
+                advise(network.bestMove(engine.getBoard()), "n-tuple network");
+            return;
+        }
+        if (tablebase != null && mode == AI_SEARCH) {
+            engine.copyCells(cells, 0);
+            double value = tablebase.value(cells);
+            advise(tablebase.bestMove(cells), tablebase.getTarget() > 0
+                    ? String.format("exact, %.1f%% to reach %d", value * 100, 1 << tablebase.getTarget())
+                    : String.format("exact, %.0f more points expected", value));
+            return;
+        }
+        // The expectimax AI only plays packed 4x4 boards
+        final boolean monteCarlo = mode == AI_ROLLOUTS;
+        if (!monteCarlo && engine.getSize() != Board.SIZE)
+            return;
+
+        final int size = engine.getSize();
+        final byte[] board = new byte[size*size];
+        engine.copyCells(board, 0);
+        thinking = new SwingWorker<Integer, Void>() {
+            protected Integer doInBackground() {
+                if (monteCarlo)
+                    return rollouts.bestMove(board, size);
+                // Built on first use, as its transposition table takes about 68 MB
+                if (ai == null)
+                    ai = new Expectimax(depth);
+                return ai.bestMove(ByteBoard.pack(board));
+            }
+
+            protected void done() {
+                thinking = null;
+                int d;
+                try {
+                    d = get();
+                } catch (Exception e) {
+                    return;
+                }
+
+                engine.copyCells(cells, 0);
+                if (!Arrays.equals(cells, board)) {
+                    if (autoplay && !grid.isAnimating())
+                        think();
+                    return;
+                }
+                advise(d, monteCarlo ? (int) (rollouts.getRolloutsPerSecond() / 1000) + "k rollouts/s"
+                        : (int) (ai.getNodesPerSecond() / 1000) + "k nodes/s");
+            }
+        };
+        thinking.execute();
+    }
+
+    /**
+     * Switches the hint and autoplay AI to the next one that plays this board.
+     * The n-tuple network only plays 4x4 boards, once a weights file has been trained;
+     * it is loaded in the background the first time it is chosen.
+     */
+    private void nextMode() {
+        mode = (mode + 1) % 3;
+        if (mode == AI_NETWORK && (engine.getSize() != Board.SIZE || !new File(NTuple.FILE).exists()))
+            mode = AI_SEARCH;
+        if (mode == AI_NETWORK && network == null) {
+            info.setText("AI: n-tuple network (loading)");
+            new SwingWorker<NTuple, Void>() {
+                protected NTuple doInBackground() throws IOException {
+                    return NTuple.load(new File(NTuple.FILE));
+                }
+
+                protected void done() {
+                    try {
+                        network = get();
+                    } catch (Exception e) {
+                        if (mode == AI_NETWORK)
+                            mode = AI_SEARCH;
+                        info.setText("AI: could not load " + NTuple.FILE);
+                        return;
+                    }
+                    if (mode == AI_NETWORK)
+                        info.setText("AI: n-tuple network");
+                }
+            }.execute();
+            return;
+        }
+        String[] names = {tablebase != null ? "tablebase" : "expectimax", "Monte Carlo rollouts", "n-tuple network"};
+        info.setText("AI: " + names[mode]);
+    }
+
+    /**
+     * Plays the move found for the board shown if autoplaying, otherwise shows it as a hint.
+     * @param d the move, or -1 if there is none to suggest
+     * @param note how the move was found, shown with the hint
+     */
+    private void advise(int d, String note) {
+        if (autoplay) {
+            if (d < 0) {
+                autoplay = false;
+                if (!engine.canMove())
+                    loop.submit(Board.LEFT, System.nanoTime(), false); // no move left, lets the engine record the loss
+                return;
+            }
+            loop.submit(d, System.nanoTime(), false); // idle thinks again once it is animated
+        } else if (d >= 0) {
+            info.setText("Hint: " + Direction.get(d) + " (" + note + ")");
+        }
+    }
+
     /**
      * Handles the key pressed event.
      * @param e KeyEvent object
      */
     public void keyPressed(KeyEvent e) {
-        if (!playing)
+        long pressed = System.nanoTime();
+        int key = e.getKeyCode();
+        // X11 reports each auto-repeat as a release and a press with the same time
+        boolean repeat = key == heldKey || (key == releasedKey && e.getWhen() == releasedWhen);
+        heldKey = key;
+        if (key == KeyEvent.VK_F3) {
+            grid.setOverlay(!grid.isOverlay());
+            return;
+        }
+        if (e.isControlDown() || e.isMetaDown()) {
+            if (key == KeyEvent.VK_Z)
+                undo(e.isShiftDown());
+            else if (key == KeyEvent.VK_Y)
+                undo(true);
+            return;
+        }
+        if (engine.isLost())
             return;
 
-        String direction;
-        int key = e.getKeyCode();
-        if (key == KeyEvent.VK_W || key == 38) {
-            direction = "UP";
+        Direction direction;
+        if (key == KeyEvent.VK_H) {
+            think();
+            return;
+        } else if (key == KeyEvent.VK_P) {
+            autoplay = !autoplay;
+            think();
+            return;
+        } else if (key == KeyEvent.VK_M) {
+            nextMode();
+            return;
+        } else if (key == KeyEvent.VK_W || key == 38) {
+            direction = Direction.UP;
         } else if (key == KeyEvent.VK_A || key == 37) {
-            direction = "LEFT";
+            direction = Direction.LEFT;
         } else if (key == KeyEvent.VK_S || key == 40) {
-            direction = "DOWN";
+            direction = Direction.DOWN;
         } else if (key == KeyEvent.VK_D || key == 39) {
-            direction = "RIGHT";
+            direction = Direction.RIGHT;
         } else {
             return;
         }
 
-        int[] scoreDiff = grid.shiftTiles(direction);
-        // if merged or shifted
-        if (scoreDiff[0] > 0 || scoreDiff[1] > 0) {
-            score.add(scoreDiff[0]);
-            if (grid.spawn())
-                grid.repaint();
-            if (scoreDiff[0] >= 2048 && !score.getWon()) {
-                score.setWon(true);
-                win();
-            }
-        }
-        // no merge or shift + can't move = lose
-        else if (!grid.canMove()) {
-            playing = false;
-            lose();
-        }
+        loop.submit(direction.ordinal(), pressed, repeat);
     }
 
+    /**
+     * Handles the key released event, remembering it to detect auto-repeats.
+     * @param e KeyEvent object
+     */
     public void keyReleased(KeyEvent e) {
+        if (e.getKeyCode() == heldKey)
+            heldKey = -1;
+        releasedKey = e.getKeyCode();
+        releasedWhen = e.getWhen();
     }
 
     public void keyTyped(KeyEvent e) {
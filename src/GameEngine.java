@@ -0,0 +1,436 @@
+import java.util.*;
+
+/**
+ * This class contains the rules of the game, independent of any user interface.
+ * It can be run headless, and views follow it by registering a GameListener.
+ * The board holds one exponent per cell, so any size from 2x2 to 8x8 can be played.
+ */
+public class GameEngine {
+    public static final int WIN_SCORE = 2048;
+
+    private int size;
+    private byte[] cells;
+    private long score;
+    private boolean won;
+    private boolean lost;
+
+    // Kept up to date with the cells, so spawning never scans and canMove is a few tests
+    private long empty; // bit i set if cell i is empty
+    private boolean mergeable; // if two neighbors can merge, only checked once the board is full
+
+    // The last turn played by move, for views that animate it
+    private byte[] previousCells;
+    private int lastMove;
+    private int lastSpawn;
+
+    // Each game owns its generator, so games replay from their seed and never contend on one
+    private SplittableRandom random;
+    private long seed;
+    private ArrayList<GameListener> listeners;
+
+    /**
+     * Constructs a 4x4 GameEngine with a random seed and two spawned tiles.
+     */
+    public GameEngine() {
+        this(Board.SIZE, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Constructs a 4x4 GameEngine with the specified seed and two spawned tiles.
+     * Two engines with the same seed spawn the same tiles when played the same way.
+     * @param seed seed of the generator used to spawn tiles
+     */
+    public GameEngine(long seed) {
+        this(Board.SIZE, seed);
+    }
+
+    /**
+     * Constructs a GameEngine with the specified board size and seed, and two spawned tiles.
+     * @param size number of rows and columns, from ByteBoard.MIN_SIZE to ByteBoard.MAX_SIZE
+     * @param seed seed of the generator used to spawn tiles
+     */
+    public GameEngine(int size, long seed) {
+        if (size < ByteBoard.MIN_SIZE || size > ByteBoard.MAX_SIZE)
+            throw new IllegalArgumentException("board size " + size + " is not between "
+                + ByteBoard.MIN_SIZE + " and " + ByteBoard.MAX_SIZE);
+        this.size = size;
+        cells = new byte[size*size];
+        previousCells = new byte[size*size];
+        listeners = new ArrayList<GameListener>();
+        reset(seed);
+    }
+
+    /**
+     * Adds a listener to be notified of every change.
+     * @param listener the listener
+     */
+    public void addListener(GameListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Notifies every listener of a change.
+     */
+    private void notifyListeners() {
+        // Indexed, so that notifying does not allocate an iterator
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).stateChanged(this);
+        }
+    }
+
+    /**
+     * Clears the board and score, then spawns two tiles, with the next seed of the generator.
+     */
+    public void reset() {
+        reset(random.nextLong());
+    }
+
+    /**
+     * Clears the board and score, then spawns two tiles, with the specified seed.
+     * @param seed seed of the generator used to spawn tiles
+     */
+    public void reset(long seed) {
+        this.seed = seed;
+        random = new SplittableRandom(seed);
+        Arrays.fill(cells, (byte) 0);
+        refresh();
+        score = 0;
+        won = false;
+        lost = false;
+        lastMove = -1;
+        spawnTile();
+        spawnTile();
+        notifyListeners();
+    }
+
+    /**
+     * Gets the seed the current game was started with.
+     * @return the seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Gets the number of rows and columns of the board.
+     * @return the board size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Retrieves the exponent of a cell.
+     * @param row row of the cell
+     * @param column column of the cell
+     * @return the exponent, 0 if the cell is empty
+     */
+    public int get(int row, int column) {
+        return cells[row*size + column];
+    }
+
+    /**
+     * Copies the exponent of every cell, in row-major order.
+     * @param dest receives size*size exponents
+     * @param offset index in dest of the first cell
+     */
+    public void copyCells(byte[] dest, int offset) {
+        System.arraycopy(cells, 0, dest, offset, cells.length);
+    }
+
+    /**
+     * Copies the exponent of every cell from before the last turn, if the last change was a turn.
+     * @param dest receives size*size exponents
+     */
+    public void copyPreviousCells(byte[] dest) {
+        System.arraycopy(previousCells, 0, dest, 0, previousCells.length);
+    }
+
+    /**
+     * Gets the packed board of a 4x4 game.
+     * @return the board as sixteen 4-bit exponents
+     * @throws IllegalStateException if the board is not 4x4
+     */
+    public long getBoard() {
+        checkPacked();
+        return ByteBoard.pack(cells);
+    }
+
+    /**
+     * Replaces the board of a 4x4 game, keeping the score and status.
+     * @param board packed board
+     * @throws IllegalStateException if the board is not 4x4
+     */
+    public void setBoard(long board) {
+        checkPacked();
+        ByteBoard.unpack(board, cells);
+        refresh();
+        lastMove = -1;
+        notifyListeners();
+    }
+
+    /**
+     * Checks that the board fits in a packed long.
+     * @throws IllegalStateException if the board is not 4x4
+     */
+    private void checkPacked() {
+        if (size != Board.SIZE)
+            throw new IllegalStateException("a " + size + "x" + size + " board cannot be packed");
+    }
+
+    /**
+     * Returns to an earlier state of the game, such as one kept for undo.
+     * @param cells exponent of every cell, in row-major order
+     * @param score the score
+     * @param won true if the game was won
+     */
+    public void restore(byte[] cells, long score, boolean won) {
+        System.arraycopy(cells, 0, this.cells, 0, this.cells.length);
+        refresh();
+        this.score = score;
+        this.won = won;
+        lost = false;
+        lastMove = -1;
+        notifyListeners();
+    }
+
+    /**
+     * Gets the direction of the last turn.
+     * @return Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT, or -1 if the last change was not a turn
+     */
+    public int getLastMove() {
+        return lastMove;
+    }
+
+    /**
+     * Gets the cell where the last turn spawned a tile.
+     * @return index of the cell (row*size + column), or -1 if no tile was spawned
+     */
+    public int getLastSpawn() {
+        return lastSpawn;
+    }
+
+    /**
+     * Gets the score.
+     * @return the current score
+     */
+    public long getScore() {
+        return score;
+    }
+
+    /**
+     * Gets if the game has been won.
+     * @return true if the game is won, false otherwise
+     */
+    public boolean isWon() {
+        return won;
+    }
+
+    /**
+     * Gets if the game has been lost.
+     * @return true if the game is lost, false otherwise
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    /**
+     * Takes a snapshot of the game.
+     * @return the current GameState
+     */
+    public GameState getState() {
+        return new GameState(size, cells, score, won, lost, previousCells, lastMove, lastSpawn, seed);
+    }
+
+    /**
+     * Copies a snapshot of another engine, including its last turn, then notifies listeners.
+     * This lets a view keep its own copy of a game that is played on another thread.
+     * @param state the snapshot
+     * @throws IllegalArgumentException if the snapshot has another board size
+     */
+    public void apply(GameState state) {
+        if (state.getSize() != size)
+            throw new IllegalArgumentException("a " + state.getSize() + "x" + state.getSize() + " state on a " + size + "x" + size + " board");
+        state.copyCells(cells);
+        state.copyPreviousCells(previousCells);
+        refresh();
+        score = state.getScore();
+        won = state.isWon();
+        lost = state.isLost();
+        lastMove = state.getLastMove();
+        lastSpawn = state.getLastSpawn();
+        seed = state.getSeed();
+        notifyListeners();
+    }
+
+    /**
+     * Checks if there is a valid move that can be made.
+     * @return true if a valid move exists, otherwise false
+     */
+    public boolean canMove() {
+        // A board with both tiles and empty cells always has a tile next to an empty cell,
+        // so merges only decide it once the board is full
+        if (empty != 0)
+            return Long.bitCount(empty) != cells.length;
+        return mergeable;
+    }
+
+    /**
+     * Rebuilds the empty cells from the cells, after a change that rewrites the board.
+     */
+    private void refresh() {
+        empty = ByteBoard.emptyMask(cells);
+        mergeable = empty == 0 && ByteBoard.canMove(cells, size);
+    }
+
+    /**
+     * Spawns a new tile on the board without notifying listeners.
+     * Only the spawned cell changes, so the empty cells are updated without a scan.
+     * @return index of the cell (row*size + column), or -1 if the board is full
+     */
+    private int spawnTile() {
+        if (empty == 0)
+            return -1;
+
+        Telemetry.SpawnEvent event = new Telemetry.SpawnEvent();
+        event.begin();
+        int i = ByteBoard.spawnMasked(cells, empty, random);
+        empty &= ~(1L << i);
+        if (empty == 0)
+            mergeable = ByteBoard.canMove(cells, size);
+        if (event.shouldCommit()) {
+            event.cell = i;
+            event.exponent = cells[i];
+            event.commit();
+        }
+        return i;
+    }
+
+    /**
+     * Spawns a new tile on the board.
+     * @return true if a tile was successfully spawned, otherwise false
+     */
+    public boolean spawn() {
+        if (spawnTile() < 0)
+            return false;
+        lastMove = -1;
+        notifyListeners();
+        return true;
+    }
+
+    /**
+     * Gets the score gained from a shift result.
+     * @param result value returned by shift
+     * @return the score of the shift
+     */
+    public static long score(long result) {
+        return result >>> 1;
+    }
+
+    /**
+     * Gets if any tiles were moved from a shift result.
+     * @param result value returned by shift
+     * @return true if the board changed, otherwise false
+     */
+    public static boolean moved(long result) {
+        return (result & 1) != 0;
+    }
+
+    /**
+     * Shifts the tiles in the specified direction, without adding to the score or spawning.
+     * The result is packed into a long so that nothing is allocated, see score and moved.
+     * @param direction the direction
+     * @return the score of the shift and a flag indicating whether any tiles were moved
+     */
+    public long shift(Direction direction) {
+        long result = ByteBoard.move(cells, size, direction.ordinal());
+        if (!moved(result))
+            return result;
+        refresh();
+        lastMove = -1;
+        notifyListeners();
+        return result;
+    }
+
+    /**
+     * Shifts the tiles in the specified direction, without adding to the score or spawning.
+     * @param direction the direction ("UP", "DOWN", "LEFT", or "RIGHT")
+     * @return array containing the score, at most Integer.MAX_VALUE, and a flag indicating whether any tiles were moved
+     */
+    public int[] shiftTiles(String direction) {
+        long result = shift(Direction.parse(direction));
+        int[] returnArr = {(int) Math.min(Integer.MAX_VALUE, score(result)), moved(result) ? 1 : 0};
+        return returnArr;
+    }
+
+    /**
+     * Plays a full turn: shifts the tiles, adds the score, spawns a tile and updates the status.
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @return true if the tiles moved, otherwise false
+     */
+    public boolean move(int direction) {
+        if (lost)
+            return false;
+
+        Telemetry.MoveEvent event = new Telemetry.MoveEvent();
+        event.begin();
+        System.arraycopy(cells, 0, previousCells, 0, cells.length);
+        long result = ByteBoard.move(cells, size, direction);
+        // if merged or shifted
+        if (moved(result)) {
+            refresh();
+            long gained = score(result);
+            lastMove = direction;
+            score += gained;
+            lastSpawn = spawnTile();
+            if (gained >= WIN_SCORE && !won)
+                won = true;
+            commit(event, direction, result);
+            notifyListeners();
+            return true;
+        }
+        // no merge or shift + can't move = lose
+        if (!canMove()) {
+            lost = true;
+            lastMove = -1;
+            commit(event, direction, result);
+            notifyListeners();
+            return false;
+        }
+        commit(event, direction, result);
+        return false;
+    }
+
+    /**
+     * Commits a move's Flight Recorder event, timing the turn without the listeners.
+     * @param event the event, begun before the turn
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @param result value returned by ByteBoard.move
+     */
+    private static void commit(Telemetry.MoveEvent event, int direction, long result) {
+        if (event.shouldCommit()) {
+            event.direction = direction;
+            event.moved = moved(result);
+            event.gained = score(result);
+            event.commit();
+        }
+    }
+
+    /**
+     * Plays a full turn in the specified direction.
+     * @param direction the direction
+     * @return true if the tiles moved, otherwise false
+     */
+    public boolean move(Direction direction) {
+        return move(direction.ordinal());
+    }
+
+    /**
+     * Plays a full turn in the specified direction.
+     * @param direction the direction ("UP", "DOWN", "LEFT", or "RIGHT")
+     * @return true if the tiles moved, otherwise false
+     */
+    public boolean move(String direction) {
+        return move(Direction.parse(direction));
+    }
+}
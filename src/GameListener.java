@@ -0,0 +1,10 @@
+/**
+ * This interface is implemented by views that observe a GameEngine.
+ */
+public interface GameListener {
+    /**
+     * Called after the engine's board, score or status has changed.
+     * @param engine the engine that changed
+     */
+    void stateChanged(GameEngine engine);
+}
@@ -0,0 +1,202 @@
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import javax.swing.*;
+
+/**
+ * This class plays a game on its own thread, so the Event Dispatch Thread never runs game logic.
+ * Key presses are offered to a bounded lock-free InputQueue. The logic thread plays them on
+ * the engine, records the replay and undo history, then publishes an immutable Snapshot.
+ * Only the latest snapshot is kept: if the view has not taken the last one yet, the new one
+ * replaces it, so a slow view skips states instead of falling behind. GridPanel then
+ * animates from the board it last showed rather than from the skipped one.
+ *
+ * Auto-repeated key presses are coalesced: a repeat is only queued while fewer than
+ * repeatLimit commands are waiting, so holding a key never floods the queue.
+ */
+public class GameLoop implements GameListener {
+    public static final int UNDO = 4;
+    public static final int REDO = 5;
+    public static final int RESET = 6;
+    public static final int QUEUE_SIZE = 64;
+
+    private GameEngine engine;
+    private Replay replay;
+    private History history;
+    private byte[] undoCells;
+    private int games;
+    private boolean undone;
+
+    private InputQueue queue;
+    private Thread thread;
+    private AtomicReference<Snapshot> latest;
+    private Consumer<Snapshot> view;
+    private Runnable deliver;
+    private int repeatLimit = 1;
+    private long coalesced;
+    private volatile long superseded;
+
+    /**
+     * Constructs a GameLoop that plays an engine and starts its thread.
+     * The engine must no longer be used by any other thread.
+     * @param engine the engine
+     * @param undoDepth number of states kept for undo
+     * @param view called on the Event Dispatch Thread with each snapshot it takes
+     */
+    public GameLoop(GameEngine engine, int undoDepth, Consumer<Snapshot> view) {
+        this.engine = engine;
+        this.view = view;
+        int cellCount = engine.getSize() * engine.getSize();
+        replay = new Replay(engine.getSize(), engine.getSeed(), true);
+        engine.addListener(replay);
+        history = new History(undoDepth, cellCount);
+        history.push(engine);
+        undoCells = new byte[cellCount];
+        engine.addListener(this);
+
+        queue = new InputQueue(QUEUE_SIZE);
+        latest = new AtomicReference<Snapshot>();
+        deliver = () -> {
+            Snapshot snapshot = latest.getAndSet(null);
+            if (snapshot != null)
+                this.view.accept(snapshot);
+        };
+        thread = new Thread(this::run, "game-logic");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Gets the replay of the current game, which the logic thread keeps recording.
+     * @return the replay
+     */
+    public Replay getReplay() {
+        return replay;
+    }
+
+    /**
+     * Gets the queue of commands, for its depth and drop counts.
+     * @return the queue
+     */
+    public InputQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Sets how many commands may be waiting for an auto-repeated key press to be queued.
+     * @param repeatLimit the limit, 0 to ignore every repeat
+     */
+    public void setRepeatLimit(int repeatLimit) {
+        this.repeatLimit = repeatLimit;
+    }
+
+    /**
+     * Gets the number of auto-repeated key presses that were coalesced.
+     * @return the count
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Gets the number of snapshots replaced before the view took them.
+     * @return the count
+     */
+    public long getSuperseded() {
+        return superseded;
+    }
+
+    /**
+     * Queues a command, called on the Event Dispatch Thread. It never waits.
+     * @param command Board.UP, Board.DOWN, Board.LEFT, Board.RIGHT, UNDO, REDO or RESET
+     * @param pressed value of System.nanoTime when the key was pressed
+     * @param repeat true if the key press was an auto-repeat
+     * @return true if the command was queued, false if it was coalesced or dropped
+     */
+    public boolean submit(int command, long pressed, boolean repeat) {
+        if (repeat && queue.depth() >= repeatLimit) {
+            coalesced++;
+            return false;
+        }
+        if (!queue.offer(command, pressed))
+            return false;
+        LockSupport.unpark(thread);
+        return true;
+    }
+
+    /**
+     * Records every turn for undo, called on the logic thread.
+     * @param engine the engine that changed
+     */
+    public void stateChanged(GameEngine engine) {
+        if (engine.getLastMove() >= 0)
+            history.push(engine);
+    }
+
+    /**
+     * Plays queued commands until the program exits, parking while the queue is empty.
+     */
+    private void run() {
+        while (true) {
+            int command = queue.poll();
+            if (command < 0) {
+                LockSupport.park(this); // submit unparks, and a permit given before parking is kept
+                continue;
+            }
+            if (play(command))
+                publish(queue.getPolledTime());
+        }
+    }
+
+    /**
+     * Plays one command on the engine.
+     * @param command the command
+     * @return true if the game changed, false if there is nothing new to show
+     */
+    private boolean play(int command) {
+        if (command == RESET) {
+            Telemetry.NewGameEvent event = new Telemetry.NewGameEvent();
+            event.begin();
+            engine.reset();
+            replay.clear(engine.getSeed());
+            history.clear();
+            history.push(engine);
+            games++;
+            undone = false;
+            event.seed = engine.getSeed();
+            event.commit();
+            return true;
+        }
+        if (command == UNDO || command == REDO) {
+            if (!(command == REDO ? history.redo() : history.undo()))
+                return false;
+            history.copyCells(undoCells);
+            engine.restore(undoCells, history.getScore(), history.isWon());
+            undone = true; // the game no longer follows its seed
+            return true;
+        }
+        boolean lost = engine.isLost();
+        return engine.move(command) || engine.isLost() != lost;
+    }
+
+    /**
+     * Publishes a snapshot of the engine, replacing any the view has not taken yet.
+     * The view is only scheduled when there was none, so at most one delivery is pending.
+     * @param pressed when the command just played was issued
+     */
+    private void publish(long pressed) {
+        GameState state = engine.getState();
+        Snapshot old;
+        Snapshot next;
+        do {
+            old = latest.get();
+            // Keeps the oldest press not yet shown, so latency covers the skipped states
+            long first = old != null && old.getPressed() < pressed ? old.getPressed() : pressed;
+            next = new Snapshot(state, first, games, undone);
+        } while (!latest.compareAndSet(old, next));
+        if (old == null)
+            SwingUtilities.invokeLater(deliver);
+        else
+            superseded++;
+    }
+}
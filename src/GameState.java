@@ -0,0 +1,145 @@
+/**
+ * This class is an immutable snapshot of a game's board, score and status.
+ * It can also hold the last turn, so a view can animate it, and the seed of the game.
+ */
+public class GameState {
+    private final int size;
+    private final byte[] cells;
+    private final long score;
+    private final boolean won;
+    private final boolean lost;
+    private final byte[] previousCells;
+    private final int lastMove;
+    private final int lastSpawn;
+    private final long seed;
+
+    /**
+     * Constructs a GameState with the specified values.
+     * @param size number of rows and columns
+     * @param cells exponent of every cell in row-major order, copied
+     * @param score the score
+     * @param won true if the game has been won
+     * @param lost true if the game has been lost
+     */
+    public GameState(int size, byte[] cells, long score, boolean won, boolean lost) {
+        this(size, cells, score, won, lost, cells, -1, -1, 0);
+    }
+
+    /**
+     * Constructs a GameState with the specified values and last turn.
+     * @param size number of rows and columns
+     * @param cells exponent of every cell in row-major order, copied
+     * @param score the score
+     * @param won true if the game has been won
+     * @param lost true if the game has been lost
+     * @param previousCells exponent of every cell before the last turn, copied
+     * @param lastMove direction of the last turn, or -1 if the board changed otherwise
+     * @param lastSpawn cell spawned by the last turn, or -1 if none
+     * @param seed seed the game was started with
+     */
+    public GameState(int size, byte[] cells, long score, boolean won, boolean lost,
+                     byte[] previousCells, int lastMove, int lastSpawn, long seed) {
+        this.size = size;
+        this.cells = cells.clone();
+        this.score = score;
+        this.won = won;
+        this.lost = lost;
+        this.previousCells = previousCells.clone();
+        this.lastMove = lastMove;
+        this.lastSpawn = lastSpawn;
+        this.seed = seed;
+    }
+
+    /**
+     * Gets the number of rows and columns of the board.
+     * @return the board size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Retrieves the exponent of a cell.
+     * @param row row of the cell
+     * @param column column of the cell
+     * @return the exponent, 0 if the cell is empty
+     */
+    public int get(int row, int column) {
+        return cells[row*size + column];
+    }
+
+    /**
+     * Copies the exponent of every cell.
+     * @param dest array receiving the cells in row-major order
+     */
+    public void copyCells(byte[] dest) {
+        System.arraycopy(cells, 0, dest, 0, cells.length);
+    }
+
+    /**
+     * Copies the exponent of every cell before the last turn.
+     * @param dest array receiving the cells in row-major order
+     */
+    public void copyPreviousCells(byte[] dest) {
+        System.arraycopy(previousCells, 0, dest, 0, previousCells.length);
+    }
+
+    /**
+     * Gets the packed board of a 4x4 game.
+     * @return the board as sixteen 4-bit exponents
+     * @throws IllegalStateException if the board is not 4x4
+     */
+    public long getBoard() {
+        if (size != Board.SIZE)
+            throw new IllegalStateException("a " + size + "x" + size + " board cannot be packed");
+        return ByteBoard.pack(cells);
+    }
+
+    /**
+     * Gets the score.
+     * @return the score
+     */
+    public long getScore() {
+        return score;
+    }
+
+    /**
+     * Gets if the game has been won.
+     * @return true if the game is won, false otherwise
+     */
+    public boolean isWon() {
+        return won;
+    }
+
+    /**
+     * Gets if the game has been lost.
+     * @return true if the game is lost, false otherwise
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    /**
+     * Gets the direction of the last turn.
+     * @return Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT, or -1 if the board changed otherwise
+     */
+    public int getLastMove() {
+        return lastMove;
+    }
+
+    /**
+     * Gets the cell spawned by the last turn.
+     * @return index of the cell, or -1 if none
+     */
+    public int getLastSpawn() {
+        return lastSpawn;
+    }
+
+    /**
+     * Gets the seed the game was started with.
+     * @return the seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+}
@@ -1,34 +1,85 @@
-import java.util.*;
 import java.awt.*;
 import java.awt.image.*;
+import java.util.Arrays;
 import javax.swing.*;
 
 /**
  * This class represents a panel that displays a grid of tiles.
+ * Each turn is animated: tiles slide to their targets, then merged tiles pop and the
+ * spawned tile scales in. Frames are driven by a Swing Timer that only runs while animating.
  */
-public class GridPanel extends JPanel {
-    private static final int GRID_SEGMENTS = 4;
+public class GridPanel extends JPanel implements GameListener {
+    private static final long serialVersionUID = 1L;
     private static final Color BACKGROUND_COLOR = new Color(187,173,160);
+    private static final long SLIDE_NANOS = 100000000L;
+    private static final long POP_NANOS = 100000000L;
+    private static final int FRAME_DELAY = 1000 / 120;
+    private static final Color OVERLAY_COLOR = new Color(0, 0, 0, 160);
+    private static final Font OVERLAY_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
 
+    private GameEngine engine;
+    private int segments;
     private Tile[][] grid;
-    private BufferedImage image;
+    private TileSprites sprites;
+    private BufferedImage background;
+    private Color backgroundColor;
+
+    private int tileSize;
+    private int[] xs;
+    private int[] ys;
+
+    // State of the running animation, reused for every turn so that frames do not allocate
+    private Timer timer;
+    private boolean animating;
+    private long animationStart;
+    private byte[] from;
+    private byte[] to;
+    private byte[] shown; // cells on screen once the running animation ends
+    private int[] targets;
+    private boolean[] merged;
+    private int spawned;
+    private Runnable idle;
+    private Telemetry telemetry;
+    private Timer overlayTimer;
+    private boolean overlay;
     
     /**
-     * Constructs a GridPanel object with the specified size.
+     * Constructs a GridPanel object with the specified size, displaying a GameEngine.
+     * Tiles are sized to fit the engine's board, with gaps of a fifth of a Tile.
      * @param size panel's size
+     * @param engine the game to display
      */
-    public GridPanel(int size) {
-        int tileSize = size / (GRID_SEGMENTS + 1);
-        grid = new Tile[GRID_SEGMENTS][GRID_SEGMENTS];
-        for (int r = 0; r < GRID_SEGMENTS; r++) {
-            for (int c = 0; c < GRID_SEGMENTS; c++) {
-                grid[r][c] = new Tile(0, c*tileSize + (c+1)*tileSize/5, r*tileSize + (r+1)*tileSize/5, tileSize);
+    public GridPanel(int size, GameEngine engine) {
+        this.engine = engine;
+        segments = engine.getSize();
+        tileSize = size*5 / (6*segments + 1); // segments Tiles and segments+1 gaps
+        xs = new int[segments*segments];
+        ys = new int[segments*segments];
+        grid = new Tile[segments][segments];
+        for (int r = 0; r < segments; r++) {
+            for (int c = 0; c < segments; c++) {
+                xs[r*segments + c] = c*tileSize + (c+1)*tileSize/5;
+                ys[r*segments + c] = r*tileSize + (r+1)*tileSize/5;
+                grid[r][c] = new Tile(0, xs[r*segments + c], ys[r*segments + c], tileSize);
             }
         }
-        spawn();
-        spawn();
+        sync();
+        engine.addListener(this);
 
-        image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        sprites = new TileSprites();
+        from = new byte[segments*segments];
+        to = new byte[segments*segments];
+        shown = new byte[segments*segments];
+        engine.copyCells(shown, 0);
+        targets = new int[segments*segments];
+        merged = new boolean[segments*segments];
+        telemetry = new Telemetry();
+        engine.addListener(telemetry);
+        overlayTimer = new Timer(1000, e -> {
+            telemetry.roll();
+            repaint();
+        });
+        timer = new Timer(FRAME_DELAY, e -> tick());
         Dimension dimension = new Dimension(size, size);
         setMinimumSize(dimension);
         setMaximumSize(dimension);
@@ -36,41 +87,168 @@ public class GridPanel extends JPanel {
     }
 
     /**
-     * Retrieves a row from the grid.
-     * @param index index of the row
-     * @return row of Tiles as an array list
+     * Retrieves the packed board behind a 4x4 grid.
+     * @return the board as sixteen 4-bit exponents
+     */
+    public long getBoard() {
+        return engine.getBoard();
+    }
+
+    /**
+     * Updates the Tiles to match the engine's board.
+     */
+    private void sync() {
+        for (int r = 0; r < segments; r++) {
+            for (int c = 0; c < segments; c++) {
+                grid[r][c].setExponent(engine.get(r, c));
+            }
+        }
+    }
+
+    /**
+     * Syncs the Tiles and repaints when the game changes, animating the change if it was a turn.
+     * The game loop only hands over its latest state, so when the turns in between were never
+     * shown, the board on screen does not slide: its changed tiles pop into the new board instead.
+     * @param engine the engine that changed
+     */
+    public void stateChanged(GameEngine engine) {
+        sync();
+        if (engine.getLastMove() >= 0 && isShowing()) {
+            engine.copyPreviousCells(from);
+            engine.copyCells(to, 0);
+            if (Arrays.equals(from, shown)) {
+                animate(engine.getLastMove(), engine.getLastSpawn());
+            } else {
+                System.arraycopy(shown, 0, from, 0, from.length);
+                animateChanges();
+            }
+        } else if (animating) {
+            finishAnimation();
+        }
+        engine.copyCells(shown, 0);
+        repaint();
+    }
+
+    /**
+     * Starts animating a turn, replacing any animation still running.
+     * @param from exponent of every cell before the turn
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @param to exponent of every cell after the turn, including the spawned tile
+     * @param spawned index of the spawned cell, or -1 if none
      */
-    public ArrayList<Tile> getRow(int index) {
-        return new ArrayList<Tile>(Arrays.asList(grid[index]));
+    public void startAnimation(byte[] from, int direction, byte[] to, int spawned) {
+        System.arraycopy(from, 0, this.from, 0, this.from.length);
+        System.arraycopy(to, 0, this.to, 0, this.to.length);
+        System.arraycopy(to, 0, shown, 0, shown.length);
+        animate(direction, spawned);
     }
 
     /**
-     * Retrieves a column from the grid.
-     * @param index index of the row
-     * @return column of Tiles as an array list
+     * Starts animating the turn between the from and to cells.
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @param spawned index of the spawned cell, or -1 if none
      */
-    public ArrayList<Tile> getColumn(int index) {
-        ArrayList<Tile> column = new ArrayList<Tile>();
-        for (int i = 0; i < GRID_SEGMENTS; i++) {
-            column.add(grid[i][index]);
+    private void animate(int direction, int spawned) {
+        this.spawned = spawned;
+        ByteBoard.targets(from, segments, direction, targets);
+        for (int i = 0; i < merged.length; i++) {
+            merged[i] = false;
         }
-        return column;
+        for (int i = 0; i < targets.length; i++) {
+            // A target that ends up higher than a tile sliding into it was merged
+            if (targets[i] >= 0 && to[targets[i]] != from[i])
+                merged[targets[i]] = true;
+        }
+        start();
     }
 
     /**
-     * Reverses the order of the elements in the given ArrayList.
-     * @param array ArrayList to reverse
-     * @return the reversed ArrayList
+     * Starts animating from the from cells to the to cells without a slide: every tile stays
+     * in its cell, then each cell that changed pops into its new tile.
      */
-    public ArrayList<Tile> reverse(ArrayList<Tile> array) {
-        int i = 0;
-        while (i < array.size()/2) {
-            Tile temp = array.get(i);
-            array.set(i, array.get(array.size()-1-i));
-            array.set(array.size()-1-i, temp);
-            i++;
+    private void animateChanges() {
+        spawned = -1;
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = from[i] == 0 ? -1 : i;
+            merged[i] = to[i] != from[i];
         }
-        return array;
+        start();
+    }
+
+    /**
+     * Starts the frame timer of an animation set up by animate or animateChanges.
+     */
+    private void start() {
+        animationStart = System.nanoTime();
+        animating = true;
+        if (isShowing())
+            timer.start();
+    }
+
+    /**
+     * Requests the next frame, or ends the animation once it is over.
+     */
+    private void tick() {
+        if (System.nanoTime() - animationStart >= SLIDE_NANOS + POP_NANOS)
+            finishAnimation();
+        repaint();
+    }
+
+    /**
+     * Stops the animation and tells the idle listener that input can be played.
+     */
+    private void finishAnimation() {
+        animating = false;
+        timer.stop();
+        if (idle != null)
+            idle.run();
+    }
+
+    /**
+     * Checks if a turn is being animated.
+     * @return true while animating, otherwise false
+     */
+    public boolean isAnimating() {
+        return animating;
+    }
+
+    /**
+     * Sets a listener to run whenever an animation ends.
+     * @param idle the listener
+     */
+    public void setIdleListener(Runnable idle) {
+        this.idle = idle;
+    }
+
+    /**
+     * Gets the telemetry recorded while the game is played.
+     * @return the telemetry
+     */
+    public Telemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * Shows or hides the stats overlay, which is refreshed once a second while shown.
+     * @param overlay true to show the overlay
+     */
+    public void setOverlay(boolean overlay) {
+        this.overlay = overlay;
+        if (overlay) {
+            telemetry.roll();
+            overlayTimer.start();
+        } else {
+            overlayTimer.stop();
+        }
+        repaint();
+    }
+
+    /**
+     * Checks if the stats overlay is shown.
+     * @return true if the overlay is shown, otherwise false
+     */
+    public boolean isOverlay() {
+        return overlay;
     }
 
     /**
@@ -78,14 +256,7 @@ public class GridPanel extends JPanel {
      * @return true if a valid move exists, otherwise false
      */
     public boolean canMove() {
-        for (int r = 0; r < GRID_SEGMENTS; r++) {
-            for (int c = 0; c < GRID_SEGMENTS; c++) {
-                if (grid[r][c].getValue() == 0 || r < GRID_SEGMENTS-1 && grid[r+1][c].getValue() == grid[r][c].getValue() || c < GRID_SEGMENTS-1 && grid[r][c+1].getValue() == grid[r][c].getValue()) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return engine.canMove();
     }
 
     /**
@@ -93,20 +264,16 @@ public class GridPanel extends JPanel {
      * @return true if a tile was successfully spawned, otherwise false
      */
     public boolean spawn() {
-        ArrayList<Tile> empty = new ArrayList<Tile>();
-        for (int r = 0; r < GRID_SEGMENTS; r++) {
-            for (int c = 0; c < GRID_SEGMENTS; c++) {
-                if (grid[r][c].getValue() == 0) {
-                    empty.add(grid[r][c]);
-                }
-            }
-        }
+        return engine.spawn();
+    }
 
-        if (empty.size() != 0) {
-            empty.get((int) (Math.random()*empty.size())).setValue(Math.random() < 0.9 ? 2 : 4); // 10% chance for a 4
-            return true;
-        }
-        return false;
+    /**
+     * Shifts the tiles in the grid in the specified direction without allocating.
+     * @param direction the direction
+     * @return the packed result, see GameEngine.score and GameEngine.moved
+     */
+    public long shiftTiles(Direction direction) {
+        return engine.shift(direction);
     }
 
     /**
@@ -115,93 +282,144 @@ public class GridPanel extends JPanel {
      * @return array containing the score and a flag indicating whether any tiles were moved
      */
     public int[] shiftTiles(String direction) {
-        int score = 0;
-        boolean moved = false;
-        ArrayList<ArrayList<Tile>> segments = new ArrayList<ArrayList<Tile>>();
-
-        // Saves Tile references to an array, depending on orientation
-        if (direction.equals("UP")) {
-            for (int c = 0; c < GRID_SEGMENTS; c++) {
-                segments.add(getColumn(c));
-            }
-        } else if (direction.equals("DOWN")) {
-            for (int c = 0; c < GRID_SEGMENTS; c++) {
-                segments.add(reverse(getColumn(c)));
-            }
-        } else if (direction.equals("RIGHT")) {
-            for (int r = 0; r < GRID_SEGMENTS; r++) {
-                segments.add(reverse(getRow(r)));
-            }
-        } else {
-            for (int r = 0; r < GRID_SEGMENTS; r++) {
-                segments.add(getRow(r));
-            }
+        return engine.shiftTiles(direction);
+    }
+
+    /**
+     * Renders the rounded background of the grid at the panel's current size.
+     * An opaque panel's own background color is baked in around the corners, so painting
+     * does not need super.paintComponent, which copies the graphics context every frame.
+     * @return the background image
+     */
+    private BufferedImage renderBackground() {
+        backgroundColor = getBackground();
+        BufferedImage image = new BufferedImage(getWidth(), getHeight(),
+            isOpaque() ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = image.createGraphics();
+        if (isOpaque()) {
+            g2d.setColor(backgroundColor);
+            g2d.fillRect(0, 0, getWidth(), getHeight());
         }
-        
-        for (ArrayList<Tile> segment: segments) {
-            // Shifts non-zero Tiles to Left
-            int j = 0;
-            for (int i = 0; i < segment.size(); i++) {
-                if (segment.get(i).getValue() != 0) {
-                    if (j != i) {
-                        segment.get(i).swap(segment.get(j));
-                        moved = true;
-                    }
-                    j++;
-                }
-            }
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(BACKGROUND_COLOR);
+        g2d.fillRoundRect(0, 0, getWidth(), getHeight(), getWidth()/20, getHeight()/20); // corner radii = 5%
+        g2d.drawRoundRect(0, 0, getWidth(), getHeight(), getWidth()/20, getHeight()/20);
+        g2d.dispose();
+        return image;
+    }
 
-            int scoreAdd = 0;
-            // Merges Tile pairs, adds value of merged tile to score
-            for (int i = 0; i < segment.size()-1; i++) {
-                if (segment.get(i).getValue() == segment.get(i+1).getValue()) {
-                    segment.get(i).merge(segment.get(i+1));
-                    scoreAdd += segment.get(i).getValue();
-                    i++;
-                }
-            }
-            if (scoreAdd == 0) {
-                continue;
-            }
+    /**
+     * Draws a Tile sprite scaled around the center of its cell, rounded to the nearest
+     * scale TileSprites caches, since a scaled drawImage allocates on every call.
+     * @param g2d graphics context to draw on
+     * @param exponent exponent of the Tile's value
+     * @param x x-coordinate of the cell
+     * @param y y-coordinate of the cell
+     * @param scale size of the Tile relative to its cell
+     */
+    private void drawScaled(Graphics2D g2d, int exponent, int x, int y, double scale) {
+        int step = Math.min(TileSprites.MAX_STEP, (int) Math.round(scale * TileSprites.STEPS));
+        if (step <= 0)
+            return;
+        int size = step * tileSize / TileSprites.STEPS;
+        int offset = (tileSize - size) / 2;
+        g2d.drawImage(sprites.getScaled(exponent, step, tileSize, g2d.getDeviceConfiguration()), x + offset, y + offset, null);
+    }
 
-            // Shifts non-zero Tiles to Left, filling up new gaps
-            j = 0;
-            for (int i = 0; i < segment.size(); i++) {
-                if (segment.get(i).getValue() != 0) {
-                    if (j != i) {
-                        segment.get(i).swap(segment.get(j));
-                    }
-                    j++;
-                }
+    /**
+     * Paints one frame of the running animation.
+     * @param g2d graphics context to draw on
+     * @param elapsed time since the animation started in nanoseconds
+     */
+    private void paintAnimation(Graphics2D g2d, long elapsed) {
+        GraphicsConfiguration config = g2d.getDeviceConfiguration();
+        Image empty = sprites.get(0, tileSize, config);
+        for (int i = 0; i < xs.length; i++) {
+            g2d.drawImage(empty, xs[i], ys[i], null);
+        }
+
+        if (elapsed < SLIDE_NANOS) {
+            // Slides every tile of the old board towards its target
+            double t = (double) elapsed / SLIDE_NANOS;
+            t = t * (2 - t); // eases out
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] < 0)
+                    continue;
+                int x = xs[i] + (int) ((xs[targets[i]] - xs[i]) * t);
+                int y = ys[i] + (int) ((ys[targets[i]] - ys[i]) * t);
+                g2d.drawImage(sprites.get(from[i], tileSize, config), x, y, null);
             }
-            score += scoreAdd;
+            return;
         }
 
-        int[] returnArr = {score, moved ? 1 : 0};
-        return returnArr;
+        // Shows the new board, popping merged tiles and growing the spawned one
+        double t = Math.min(1, (double) (elapsed - SLIDE_NANOS) / POP_NANOS);
+        for (int i = 0; i < xs.length; i++) {
+            int exponent = to[i];
+            if (exponent == 0)
+                continue;
+            if (i == spawned)
+                drawScaled(g2d, exponent, xs[i], ys[i], t);
+            else if (merged[i])
+                drawScaled(g2d, exponent, xs[i], ys[i], 1 + 0.2 * Math.sin(Math.PI * t));
+            else
+                g2d.drawImage(sprites.get(exponent, tileSize, config), xs[i], ys[i], null);
+        }
     }
 
     /**
-     * Paints the grid panel on the screen.
+     * Paints the stats overlay in the top left corner.
+     * @param g2d graphics context to draw on
+     */
+    private void paintOverlay(Graphics2D g2d) {
+        String[] lines = telemetry.getLines();
+        g2d.setFont(OVERLAY_FONT);
+        FontMetrics fm = g2d.getFontMetrics();
+        int width = 0;
+        for (String line: lines) {
+            width = Math.max(width, fm.stringWidth(line));
+        }
+        g2d.setColor(OVERLAY_COLOR);
+        g2d.fillRect(0, 0, width + 10, lines.length * fm.getHeight() + 10);
+        g2d.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++) {
+            g2d.drawString(lines[i], 5, 5 + i * fm.getHeight() + fm.getAscent());
+        }
+    }
+
+    /**
+     * Paints the grid panel on the screen from cached images.
      * @param g the graphics context
      */    
     @Override
     public void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D g2d = (Graphics2D) image.getGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        
-        g2d.setColor(BACKGROUND_COLOR);
-        g2d.fillRoundRect(0, 0, getWidth(), getHeight(), getWidth()/20, getHeight()/20); // corner radii = 5%
-        g2d.drawRoundRect(0, 0, getWidth(), getHeight(), getWidth()/20, getHeight()/20);
-        
-        for (Tile[] row: grid) {
-            for (Tile tile: row) {
-                tile.draw(g2d);
+        Telemetry.PaintEvent event = new Telemetry.PaintEvent();
+        event.begin();
+        long start = System.nanoTime();
+        if (getWidth() <= 0 || getHeight() <= 0)
+            return;
+        if (background == null || background.getWidth() != getWidth() || background.getHeight() != getHeight()
+                || !getBackground().equals(backgroundColor))
+            background = renderBackground();
+
+        Graphics2D g2d = (Graphics2D) g;
+        g2d.drawImage(background, 0, 0, null);
+        if (animating) {
+            paintAnimation(g2d, start - animationStart);
+        } else {
+            for (Tile[] row: grid) {
+                for (Tile tile: row) {
+                    tile.draw(g2d, sprites);
+                }
             }
         }
-
-        g.drawImage(image, 0, 0, null);
-        g2d.dispose();
+        if (overlay)
+            paintOverlay(g2d);
+        long end = System.nanoTime();
+        telemetry.painted(start, end);
+        if (event.shouldCommit()) {
+            event.animating = animating;
+            event.commit();
+        }
     }
 }
@@ -0,0 +1,119 @@
+/**
+ * This class records times in a log-linear histogram, in the style of HdrHistogram.
+ * Every power of two is split into 32 equal buckets, so any time from a nanosecond to
+ * hours is kept within about 3% in a fixed array, and recording never allocates.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private long[] counts;
+    private long count;
+    private long max;
+
+    /**
+     * Constructs an empty Histogram.
+     */
+    public Histogram() {
+        counts = new long[BUCKETS];
+    }
+
+    /**
+     * Finds the bucket of a time.
+     * @param nanos the time in nanoseconds, not negative
+     * @return index of the bucket
+     */
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) (nanos >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Finds the largest time that falls in a bucket.
+     * @param bucket index of the bucket
+     * @return the time in nanoseconds
+     */
+    private static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = (bucket >> SUB_BITS) - 1;
+        long mantissa = (bucket & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Records one time.
+     * @param nanos the time in nanoseconds
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts[bucket(nanos)]++;
+        count++;
+        max = Math.max(max, nanos);
+    }
+
+    /**
+     * Adds every time recorded by another Histogram, such as one kept by another thread.
+     * @param other the other Histogram
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Gets the number of times recorded.
+     * @return the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the longest time recorded.
+     * @return the time in milliseconds
+     */
+    public double getMax() {
+        return max / 1e6;
+    }
+
+    /**
+     * Gets the time that a share of the recorded times stayed under.
+     * @param percentile the share of times, from 0 to 100
+     * @return the upper bound of the percentile's bucket in milliseconds
+     */
+    public double percentile(double percentile) {
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0)
+                return Math.min(highest(i), max) / 1e6;
+        }
+        return 0;
+    }
+
+    /**
+     * Clears every recorded time.
+     */
+    public void reset() {
+        java.util.Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    /**
+     * Summarizes the recorded times.
+     * @return the count and the 50th, 99th, 99.9th and maximum times
+     */
+    public String toString() {
+        return String.format("%d samples, p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+            count, percentile(50), percentile(99), percentile(99.9), getMax());
+    }
+}
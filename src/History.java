@@ -0,0 +1,114 @@
+/**
+ * This class keeps the states of a game for undo and redo.
+ * States are stored in a fixed ring of primitive arrays, so recording a turn is O(1) and
+ * allocates nothing; once the ring is full the oldest state is dropped.
+ * Each state takes one byte per cell plus 9, so 10,000 4x4 states fit in about 250KB.
+ */
+public class History {
+    private int cellCount;
+    private byte[] cells;
+    private long[] scores;
+    private boolean[] wins;
+    private int capacity;
+    // Slot of the oldest state, number of states stored, and position of the current one from the oldest
+    private int start;
+    private int size;
+    private int current;
+
+    /**
+     * Constructs an empty History.
+     * @param capacity the most states kept, including the current one
+     * @param cellCount number of cells of the board
+     */
+    public History(int capacity, int cellCount) {
+        this.capacity = capacity;
+        this.cellCount = cellCount;
+        cells = new byte[capacity * cellCount];
+        scores = new long[capacity];
+        wins = new boolean[capacity];
+    }
+
+    /**
+     * Records a new current state, dropping any states that could have been redone.
+     * @param engine the game, whose board, score and status are copied
+     */
+    public void push(GameEngine engine) {
+        if (size == 0) {
+            size = 1;
+        } else if (current + 1 < capacity) {
+            current++;
+            size = current + 1;
+        } else {
+            start = (start + 1) % capacity; // full, overwrites the oldest state
+            size = capacity;
+        }
+        int slot = slot(current);
+        engine.copyCells(cells, slot * cellCount);
+        scores[slot] = engine.getScore();
+        wins[slot] = engine.isWon();
+    }
+
+    /**
+     * Steps back to the previous state.
+     * @return true if there was a state to go back to
+     */
+    public boolean undo() {
+        if (current == 0)
+            return false;
+        current--;
+        return true;
+    }
+
+    /**
+     * Steps forward to the state that was last undone.
+     * @return true if there was a state to go forward to
+     */
+    public boolean redo() {
+        if (current + 1 >= size)
+            return false;
+        current++;
+        return true;
+    }
+
+    /**
+     * Clears every state.
+     */
+    public void clear() {
+        start = 0;
+        size = 0;
+        current = 0;
+    }
+
+    /**
+     * Gets the ring slot of a state.
+     * @param position position of the state from the oldest
+     * @return index into the arrays
+     */
+    private int slot(int position) {
+        return (start + position) % capacity;
+    }
+
+    /**
+     * Copies the board of the current state.
+     * @param dest receives the exponent of every cell, in row-major order
+     */
+    public void copyCells(byte[] dest) {
+        System.arraycopy(cells, slot(current) * cellCount, dest, 0, cellCount);
+    }
+
+    /**
+     * Gets the score of the current state.
+     * @return the score
+     */
+    public long getScore() {
+        return scores[slot(current)];
+    }
+
+    /**
+     * Gets if the game was won in the current state.
+     * @return true if the game was won, otherwise false
+     */
+    public boolean isWon() {
+        return wins[slot(current)];
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class is a bounded lock-free queue of commands, each with the time it was issued.
+ * It has a single producer and a single consumer: the Event Dispatch Thread offers commands
+ * and the game logic thread polls them. Neither ever waits for the other; a command offered
+ * to a full queue is dropped and counted.
+ */
+public class InputQueue {
+    private final int[] commands;
+    private final long[] times;
+    private final int mask;
+    // Next position to poll, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+    // Next position to offer, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+
+    private long polledTime;
+    private volatile long drops;
+    private volatile int maxDepth;
+
+    /**
+     * Constructs an empty InputQueue.
+     * @param capacity maximum number of queued commands, rounded up to a power of two
+     */
+    public InputQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        commands = new int[size];
+        times = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Queues a command, called by the producer only.
+     * @param command the command, not negative
+     * @param time value of System.nanoTime when the command was issued
+     * @return true if the command was queued, false if the queue was full
+     */
+    public boolean offer(int command, long time) {
+        long t = tail.get();
+        int depth = (int) (t - head.get());
+        if (depth == commands.length) {
+            drops++;
+            return false;
+        }
+        commands[(int) t & mask] = command;
+        times[(int) t & mask] = time;
+        tail.lazySet(t + 1); // publishes the slot written above
+        if (depth + 1 > maxDepth)
+            maxDepth = depth + 1;
+        return true;
+    }
+
+    /**
+     * Takes the oldest command, called by the consumer only.
+     * @return the command, or -1 if the queue is empty
+     */
+    public int poll() {
+        long h = head.get();
+        if (h == tail.get())
+            return -1;
+        int command = commands[(int) h & mask];
+        polledTime = times[(int) h & mask];
+        head.lazySet(h + 1); // frees the slot for the producer
+        return command;
+    }
+
+    /**
+     * Gets when the command last polled was issued, called by the consumer only.
+     * @return value of System.nanoTime when it was issued
+     */
+    public long getPolledTime() {
+        return polledTime;
+    }
+
+    /**
+     * Gets the number of queued commands, which may change as soon as it is read.
+     * @return the depth
+     */
+    public int depth() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Gets the most commands ever queued at once.
+     * @return the maximum depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Gets the number of commands dropped because the queue was full.
+     * @return the drop count
+     */
+    public long getDrops() {
+        return drops;
+    }
+}
@@ -6,25 +6,45 @@ import javax.swing.*;
 
 /**
  * This class represents the leaderboard frame.
+ * Its store is opened on a background thread, so a large leaderboard never stalls the game,
+ * and it is kept open across games; scores can be added once it has loaded. Scores are added
+ * off the Event Dispatch Thread, through a ScoreIngest, which any number of threads can share.
  */
 public class Leaderboard extends JFrame {
+    private static final long serialVersionUID = 1L;
     private static final int FRAME_SIZE = 600;
     private static final Color FRAME_COLOR = new Color(250,248,239);
     private static final Color TEXT_COLOR = new Color(119,110,101);
 
-    private ArrayList<Score> leaderboard;
-    private ArrayList<String> lines;
+    private static final File REPLAYS = new File("replays");
+
+    private ScoreIngest store;
+    private boolean closed;
+    private Replay replay;
+    private int size;
 
     private ScorePanel score;
     private JPanel leaderboardGrid;
     private JTextField username;
+    private JButton addButton;
 
     /**
-     * Constructs a Leaderboard with a ScorePanel.
+     * Constructs a Leaderboard with a ScorePanel, for 4x4 games.
      * @param score a ScorePanel object
      */
     public Leaderboard(ScorePanel score) {
+        this(score, Board.SIZE);
+    }
+
+    /**
+     * Constructs a Leaderboard with a ScorePanel, for games of the specified board size.
+     * Every board size keeps its own scores; 4x4 games keep the original files.
+     * @param score a ScorePanel object
+     * @param size number of rows and columns
+     */
+    public Leaderboard(ScorePanel score, int size) {
         this.score = score;
+        this.size = size;
 
         setSize(FRAME_SIZE, FRAME_SIZE);
         setResizable(false);
@@ -33,7 +53,7 @@ public class Leaderboard extends JFrame {
         setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         getContentPane().setBackground(FRAME_COLOR);
 
-        JLabel title = new JLabel("Leaderboard");
+        JLabel title = new JLabel(size == Board.SIZE ? "Leaderboard" : "Leaderboard " + size + "x" + size);
         title.setForeground(TEXT_COLOR);
         title.setFont(new Font("Helvetica", Font.BOLD, 46));
         title.setAlignmentX(Component.CENTER_ALIGNMENT);
@@ -67,7 +87,7 @@ public class Leaderboard extends JFrame {
         addPanel.add(username);
         addPanel.add(Box.createHorizontalGlue());
 
-        JButton addButton = new JButton("Add Score");
+        addButton = new JButton("Add Score");
         dimension = new Dimension(FRAME_SIZE*1/2, FRAME_SIZE*1/20);
         addButton.setPreferredSize(dimension);
         addButton.setMinimumSize(dimension);
@@ -82,7 +102,6 @@ public class Leaderboard extends JFrame {
                 if (username.getText().length() > 0) {
                     username.setEditable(false);
                     add(username.getText());
-                    load();
                 }
             }
         });
@@ -99,50 +118,117 @@ public class Leaderboard extends JFrame {
         add(Box.createRigidArea(new Dimension(0, FRAME_SIZE*1/64)));
         add(addButtonPanel);
         add(Box.createVerticalGlue());
+
+        addButton.setEnabled(false);
+        open(size == Board.SIZE ? "leaderboard" : "leaderboard-" + size + "x" + size);
+    }
+
+    /**
+     * Opens the store on a background thread, then shows its scores and allows adding one.
+     * @param name base name of the store's files
+     */
+    private void open(final String name) {
+        final Telemetry.LeaderboardLoadEvent event = new Telemetry.LeaderboardLoadEvent();
+        event.begin();
+        new SwingWorker<ScoreIngest, Void>() {
+            protected ScoreIngest doInBackground() throws IOException {
+                return new ScoreIngest(name);
+            }
+
+            protected void done() {
+                try {
+                    store = get();
+                } catch (Exception e) {
+                    // Leaves the leaderboard empty if its files cannot be opened
+                    return;
+                }
+                if (closed) {
+                    close();
+                    return;
+                }
+                addButton.setEnabled(true);
+                load(event);
+            }
+        }.execute();
     }
 
     /**
-     * Adds the player's score to the leaderboard.
+     * Adds the player's score to the leaderboard on a background thread, as writing it waits
+     * for the disk, then shows the updated scores.
      * @param username player's username
      */
     public void add(String username) {
-        try {
-            FileWriter writer = new FileWriter("leaderboard.txt", true);
-            for (int i = 0; i < username.length(); i++) {
-                if (username.charAt(i) == ',')
-                    username = username.substring(0, i) + "_" + username.substring(i+1);
+        if (store == null)
+            return;
+        final ScoreIngest store = this.store;
+        final String name = username.replace(',', '_');
+        final long points = score.getScore();
+        final boolean won = score.getWon();
+        final Replay replay = this.replay;
+        final Telemetry.LeaderboardAddEvent event = new Telemetry.LeaderboardAddEvent();
+        event.begin();
+        addButton.setEnabled(false);
+        new SwingWorker<Boolean, Void>() {
+            protected Boolean doInBackground() throws IOException {
+                boolean added = store.add(name, points, won);
+                if (added && replay != null) {
+                    // Kept beside the leaderboard so the score can be audited with the Replay tool
+                    REPLAYS.mkdirs();
+                    String prefix = size == Board.SIZE ? "" : size + "x" + size + "-";
+                    try {
+                        replay.write(new File(REPLAYS, prefix + Long.toHexString(replay.getSeed()) + ".replay"));
+                    } catch (IOException e) {
+                        // The score is kept without its replay
+                    }
+                }
+                return added;
             }
-            String text = username + "," + score.getScore() + "," + score.getWon();
-            if (lines == null || !lines.contains(text)) {
-                writer.write(text+"\n");
-                writer.close();
+
+            protected void done() {
+                try {
+                    event.added = get();
+                } catch (Exception e) {
+                    // The score is dropped if the log cannot be written
+                }
+                event.score = points;
+                event.commit();
+                addButton.setEnabled(!closed);
+                load();
             }
-        } catch (IOException e) { 
-            // No leaderboard yet, it will be created automatically
-        }
+        }.execute();
     }
 
     /**
-     * Loads the leaderboard data from a file and updates the leaderboard display.
+     * Prepares for a new game, so its score can be added even if the last one was.
+     * @param replay the new game's replay
      */
-    public void load() {
-        leaderboard = new ArrayList<Score>();
-        try {
-            Scanner s = new Scanner(new File("leaderboard.txt"));
-            lines = new ArrayList<String>();
-            while (s.hasNextLine()) {
-                String line = s.nextLine();
-                String[] v = line.split(","); // username, score, won
-                if (v[2].equals("false"))
-                    leaderboard.add(new Score(v[0], Integer.parseInt(v[1])));
-                else
-                    leaderboard.add(new WinScore(v[0], Integer.parseInt(v[1])));
-                lines.add(line);
-            }
-        } catch (FileNotFoundException e) { }
+    public void reset(Replay replay) {
+        this.replay = replay;
+        username.setEditable(true);
+    }
+
+    /**
+     * Sets the replay of the game being played, saved with its score when one is added.
+     * @param replay the replay
+     */
+    public void setReplay(Replay replay) {
+        this.replay = replay;
+    }
 
-        insertionSort();
+    /**
+     * Loads the top scores from the store and updates the leaderboard display.
+     */
+    public void load() {
+        Telemetry.LeaderboardLoadEvent event = new Telemetry.LeaderboardLoadEvent();
+        event.begin();
+        load(event);
+    }
 
+    /**
+     * Updates the leaderboard display, then commits the load's Flight Recorder event.
+     * @param event the event, begun before the store was read
+     */
+    private void load(Telemetry.LeaderboardLoadEvent event) {
         leaderboardGrid.removeAll();
         leaderboardGrid.revalidate();
         leaderboardGrid.repaint();
@@ -154,24 +240,52 @@ public class Leaderboard extends JFrame {
             leaderboardGrid.add(h);
         }
 
-        for (int i = 0; i < leaderboard.size() && i < 10; i ++) {
-            leaderboard.get(i).createLabels(i+1, leaderboardGrid);
+        if (store != null) {
+            java.util.List<ScoreRecord> top = store.getTop();
+            for (int i = 0; i < top.size(); i ++) {
+                ScoreRecord r = top.get(i);
+                Score s = r.getWon() ? new WinScore(r.getUsername(), r.getScore()) : new Score(r.getUsername(), r.getScore());
+                s.createLabels(i+1, leaderboardGrid);
+            }
+            event.scores = top.size();
         }
+        event.commit();
     }
 
     /**
-     * Performs insertion sort on the leaderboard based on the scores.
+     * Closes the store once the leaderboard is no longer needed.
      */
-    public void insertionSort() {
-        for (int i = 1; i < leaderboard.size(); i++) {
-            Score temp = leaderboard.get(i);
-            int j = i;
-            while (j > 0 && temp.getScore() > leaderboard.get(j-1).getScore()) {
-                leaderboard.set(j, leaderboard.get(j-1));
-                j--;
-            }
-            leaderboard.set(j, temp);
+    public void close() {
+        closed = true; // a store still opening is closed as soon as it opens
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) { }
+            store = null;
+        }
+    }
+
+    /**
+     * Reads every score from a text leaderboard file, the format used before ScoreStore.
+     * @param file the leaderboard file
+     * @param lines list that receives every raw line
+     * @return the scores, in file order
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public static ArrayList<Score> read(File file, ArrayList<String> lines) throws FileNotFoundException {
+        ArrayList<Score> scores = new ArrayList<Score>();
+        Scanner s = new Scanner(file);
+        while (s.hasNextLine()) {
+            String line = s.nextLine();
+            String[] v = line.split(","); // username, score, won
+            if (v[2].equals("false"))
+                scores.add(new Score(v[0], Long.parseLong(v[1])));
+            else
+                scores.add(new WinScore(v[0], Long.parseLong(v[1])));
+            lines.add(line);
         }
+        s.close();
+        return scores;
     }
 }
 
@@ -180,14 +294,14 @@ public class Leaderboard extends JFrame {
  */
 class Score {
     private String username;
-    private int score;
+    private long score;
 
     /**
      * Constructs a Score object with the specified username and score.
      * @param username the player's username
      * @param score the player's score
      */
-    public Score(String username, int score) {
+    public Score(String username, long score) {
         if (username.length() > 10)
             username = username.substring(0, 10);
         this.username = username;
@@ -206,7 +320,7 @@ class Score {
      * Returns the player's score.
      * @return the score
      */
-    public int getScore() {
+    public long getScore() {
         return score;
     }
 
@@ -235,7 +349,7 @@ class WinScore extends Score {
      * @param username player's username
      * @param score player's score
      */
-    public WinScore(String username, int score) {
+    public WinScore(String username, long score) {
         super(username, score);
     }
 
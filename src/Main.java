@@ -1,9 +1,50 @@
 /**
- * Starts a new instance of the 2048 game.
+ * Starts a new instance of the 2048 game, or plays games headless with --simulate.
+ *
+ * Usage: java Main [--size 4] [--repeat 1] [--depth 6] [--rollouts 4096 | --rollout-ms 100]
+ *        java Main --simulate 10000 [--threads cores] [--strategy random|greedy|corner] [--seed 1] [--size 4]
  */
 public class Main {
     public static void main(String[] args) {
-        Game g = new Game();
+        int size = Board.SIZE;
+        int repeat = 1;
+        int depth = 6;
+        int rollouts = 4096;
+        long rolloutMillis = 0;
+        int simulate = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String strategy = Simulation.STRATEGIES[Simulation.RANDOM];
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--size"))
+                size = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--repeat"))
+                repeat = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--depth"))
+                depth = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--rollouts"))
+                rollouts = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--rollout-ms"))
+                rolloutMillis = Long.parseLong(args[++i]);
+            else if (args[i].equals("--simulate"))
+                simulate = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--threads"))
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--strategy"))
+                strategy = args[++i];
+            else if (args[i].equals("--seed"))
+                seed = Long.parseLong(args[++i]);
+        }
+        if (simulate > 0) {
+            Simulation simulation = new Simulation(size, Simulation.parseStrategy(strategy), seed);
+            simulation.run(simulate, threads);
+            simulation.print();
+            return;
+        }
+        Game g = new Game(size);
+        g.setRepeatLimit(repeat);
+        g.setSearchDepth(depth);
+        g.setRolloutBudget(rollouts, rolloutMillis);
         g.setVisible(true);
     }
 }
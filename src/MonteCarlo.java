@@ -0,0 +1,208 @@
+import java.util.concurrent.*;
+
+/**
+ * This class is an AI player that picks moves by random playouts (Monte Carlo rollouts).
+ * Every possible move is played, then many games are played on from it with random moves
+ * until they are lost, and the move with the highest average score is chosen. It plays any
+ * board size, with the moves and spawns of ByteBoard that GameEngine itself uses.
+ *
+ * Rollouts run on a work-stealing ForkJoinPool. Every worker thread keeps its own board
+ * buffers and draws from ThreadLocalRandom, so a rollout allocates nothing and threads
+ * share nothing they write; each task adds up its own scores and the totals are joined.
+ * The budget is a number of rollouts per search, or a time limit.
+ */
+public class MonteCarlo {
+    // Rollouts a task plays itself instead of splitting them
+    private static final int LEAF = 16;
+    // Rollouts of each move between checks of the time limit
+    private static final int ROUND = 256;
+
+    // Board of each size to play rollouts on, one set per thread
+    private static final ThreadLocal<byte[][]> BUFFERS =
+        ThreadLocal.withInitial(() -> new byte[ByteBoard.MAX_SIZE + 1][]);
+
+    private int rollouts;
+    private long time;
+    private ForkJoinPool pool;
+
+    private long played;
+    private long nanos;
+
+    /**
+     * Constructs a MonteCarlo player with a rollout budget, on the common pool.
+     * @param rollouts number of rollouts per search, shared by the possible moves
+     */
+    public MonteCarlo(int rollouts) {
+        this(rollouts, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a MonteCarlo player with a rollout budget, on a pool.
+     * @param rollouts number of rollouts per search, shared by the possible moves
+     * @param pool pool that plays the rollouts
+     */
+    public MonteCarlo(int rollouts, ForkJoinPool pool) {
+        this.rollouts = rollouts;
+        this.pool = pool;
+    }
+
+    /**
+     * Budgets each search by a number of rollouts.
+     * @param rollouts number of rollouts per search, shared by the possible moves
+     */
+    public void setRollouts(int rollouts) {
+        this.rollouts = rollouts;
+        time = 0;
+    }
+
+    /**
+     * Budgets each search by time instead of by count.
+     * @param millis time per search in milliseconds
+     */
+    public void setTime(long millis) {
+        time = millis * 1000000;
+    }
+
+    /**
+     * Gets the number of rollouts played by the last search.
+     * @return the rollout count
+     */
+    public long getPlayed() {
+        return played;
+    }
+
+    /**
+     * Gets the speed of the last search.
+     * @return rollouts played per second
+     */
+    public double getRolloutsPerSecond() {
+        return nanos == 0 ? 0 : played * 1e9 / nanos;
+    }
+
+    /**
+     * Searches for the move with the best average rollout score.
+     * @param cells exponents of the cells, in row-major order
+     * @param size number of rows and columns
+     * @return Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT, or -1 if no move is possible
+     */
+    public int bestMove(byte[] cells, int size) {
+        long start = System.nanoTime();
+        byte[][] after = new byte[4][];
+        long[] gained = new long[4];
+        int moves = 0;
+        for (int d = 0; d < 4; d++) {
+            byte[] next = cells.clone();
+            long result = ByteBoard.move(next, size, d);
+            if ((result & 1) != 0) {
+                after[d] = next;
+                gained[d] = result >>> 1;
+                moves++;
+            }
+        }
+        if (moves == 0)
+            return -1;
+
+        int round = time > 0 ? ROUND : Math.max(1, rollouts / moves);
+        long[] totals = new long[4];
+        long count = 0;
+        Rollouts[] tasks = new Rollouts[4];
+        do {
+            for (int d = 0; d < 4; d++) {
+                if (after[d] != null) {
+                    tasks[d] = new Rollouts(after[d], size, round);
+                    pool.execute(tasks[d]);
+                }
+            }
+            for (int d = 0; d < 4; d++) {
+                if (after[d] != null) {
+                    tasks[d].join();
+                    totals[d] += tasks[d].total;
+                }
+            }
+            count += round;
+        } while (time > 0 && System.nanoTime() - start < time);
+
+        int best = -1;
+        double bestValue = -1;
+        for (int d = 0; d < 4; d++) {
+            double value = gained[d] + (double) totals[d] / count;
+            if (after[d] != null && value > bestValue) {
+                bestValue = value;
+                best = d;
+            }
+        }
+        played = count * moves;
+        nanos = System.nanoTime() - start;
+        return best;
+    }
+
+    /**
+     * Plays a game on from a board with random moves until it is lost.
+     * @param cells exponents of the cells after a move, before its spawn, modified in place
+     * @param size number of rows and columns
+     * @param random the thread's random generator
+     * @return the score of the moves played
+     */
+    static long rollout(byte[] cells, int size, ThreadLocalRandom random) {
+        long score = 0;
+        int empty = ByteBoard.countEmpty(cells); // a move always leaves an empty cell
+        while (true) {
+            ByteBoard.spawn(cells, empty, random);
+            int first = random.nextInt(4);
+            long result = 0;
+            for (int k = 0; k < 4 && (result & 1) == 0; k++) {
+                result = ByteBoard.move(cells, size, (first + k) & 3);
+            }
+            if ((result & 1) == 0)
+                return score;
+            score += result >>> 1;
+            empty = ByteBoard.countEmpty(cells);
+        }
+    }
+
+    /**
+     * This class plays a number of rollouts from one move, splitting them between threads.
+     */
+    private static class Rollouts extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private byte[] board;
+        private int size;
+        private int count;
+        long total;
+
+        /**
+         * Constructs a Rollouts task.
+         * @param board exponents of the cells after the move, not modified
+         * @param size number of rows and columns
+         * @param count number of rollouts to play
+         */
+        Rollouts(byte[] board, int size, int count) {
+            this.board = board;
+            this.size = size;
+            this.count = count;
+        }
+
+        /**
+         * Plays the rollouts on this thread's buffer, or splits them in two.
+         */
+        protected void compute() {
+            if (count > LEAF) {
+                Rollouts left = new Rollouts(board, size, count / 2);
+                Rollouts right = new Rollouts(board, size, count - count / 2);
+                invokeAll(left, right);
+                total = left.total + right.total;
+                return;
+            }
+            byte[][] buffers = BUFFERS.get();
+            if (buffers[size] == null)
+                buffers[size] = new byte[size*size];
+            byte[] cells = buffers[size];
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(board, 0, cells, 0, board.length);
+                total += rollout(cells, size, random);
+            }
+        }
+    }
+}
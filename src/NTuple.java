@@ -0,0 +1,473 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This class is a trainable evaluation function for packed 4x4 boards: an n-tuple network.
+ * Each tuple is a fixed set of six cells, and the exponents in those cells index a flat float
+ * table of 16^6 weights. A board's value is the sum of the weights every tuple picks out on
+ * the board and on its seven rotations and reflections.
+ *
+ * The network learns the value of afterstates, the boards right after a move and before the
+ * spawn, by TD(0) over games it plays against itself. Training runs one game per thread with
+ * no locks on the tables (Hogwild): updates from different threads may race and a few are
+ * lost, which costs far less than any synchronization. Checkpoints are written to a
+ * memory-mapped weights file in native order, which loads as one bulk copy per table.
+ */
+public class NTuple {
+    public static final String FILE = "ntuple.weights";
+    public static final int MAGIC = 0x4E545550; // "NTUP"
+
+    private static final int[][] TUPLES = {
+        {0, 1, 2, 3, 4, 5},
+        {4, 5, 6, 7, 8, 9},
+        {0, 1, 2, 4, 5, 6},
+        {4, 5, 6, 8, 9, 10},
+    };
+    private static final int TUPLE_SIZE = 6;
+    private static final int SYMMETRIES = 8;
+    private static final int FEATURES = TUPLES.length * SYMMETRIES;
+    private static final int HEADER = 128;
+
+    private final float[][] weights;
+    private float alpha = 0.1f;
+
+    /**
+     * Constructs an untrained NTuple network, every weight 0.
+     */
+    public NTuple() {
+        weights = new float[TUPLES.length][1 << 4*TUPLE_SIZE];
+    }
+
+    /**
+     * Loads a network from a weights file written by save.
+     * @param file the file
+     * @return the network
+     * @throws IOException if the file cannot be read or holds a different network
+     */
+    public static NTuple load(File file) throws IOException {
+        NTuple network = new NTuple();
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            if (channel.size() != network.fileSize())
+                throw new IOException(file + " is not a weights file of this network");
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.nativeOrder());
+            if (map.getInt(0) != MAGIC || map.getInt(4) != TUPLES.length || map.getInt(8) != TUPLE_SIZE)
+                throw new IOException(file + " is not a weights file of this network");
+            for (int t = 0; t < TUPLES.length; t++) {
+                for (int k = 0; k < TUPLE_SIZE; k++) {
+                    if (map.getInt(12 + 4*(t*TUPLE_SIZE + k)) != TUPLES[t][k])
+                        throw new IOException(file + " has different tuples");
+                }
+            }
+            map.position(HEADER);
+            FloatBuffer floats = map.asFloatBuffer();
+            for (float[] table: network.weights) {
+                floats.get(table);
+            }
+        }
+        return network;
+    }
+
+    /**
+     * Writes a checkpoint of the weights, replacing the file once it is complete.
+     * Training threads may keep updating the weights while they are copied.
+     * @param file the file
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize());
+            map.order(ByteOrder.nativeOrder());
+            map.putInt(MAGIC).putInt(TUPLES.length).putInt(TUPLE_SIZE);
+            for (int[] tuple: TUPLES) {
+                for (int cell: tuple) {
+                    map.putInt(cell);
+                }
+            }
+            map.position(HEADER);
+            FloatBuffer floats = map.asFloatBuffer();
+            for (float[] table: weights) {
+                floats.put(table);
+            }
+            map.force();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Gets the size of the weights file.
+     * @return the size in bytes
+     */
+    private long fileSize() {
+        return HEADER + 4L * TUPLES.length * weights[0].length;
+    }
+
+    /**
+     * Sets the learning rate, the share of each TD error corrected by one update.
+     * @param alpha the learning rate
+     */
+    public void setAlpha(float alpha) {
+        this.alpha = alpha;
+    }
+
+    /**
+     * Mirrors the columns of a board.
+     * @param board packed board
+     * @return the mirrored board
+     */
+    private static long mirror(long board) {
+        return (board & 0xF000F000F000F000L) >>> 12 | (board & 0x0F000F000F000F00L) >>> 4
+            | (board & 0x00F000F000F000F0L) << 4 | (board & 0x000F000F000F000FL) << 12;
+    }
+
+    /**
+     * Reverses the order of the rows of a board.
+     * @param board packed board
+     * @return the flipped board
+     */
+    private static long flip(long board) {
+        return board >>> 48 | (board >>> 16) & 0xFFFF0000L | (board << 16) & 0xFFFF00000000L | board << 48;
+    }
+
+    /**
+     * Fills in the eight rotations and reflections of a board.
+     * @param board packed board
+     * @param boards receives the boards
+     */
+    private static void symmetries(long board, long[] boards) {
+        long t = Board.transpose(board);
+        boards[0] = board;
+        boards[1] = mirror(board);
+        boards[2] = flip(board);
+        boards[3] = flip(boards[1]);
+        boards[4] = t;
+        boards[5] = mirror(t);
+        boards[6] = flip(t);
+        boards[7] = flip(boards[5]);
+    }
+
+    /**
+     * Finds the weight a tuple picks out on a board.
+     * @param board packed board
+     * @param tuple the tuple's cells
+     * @return the index into the tuple's table
+     */
+    private static int index(long board, int[] tuple) {
+        int index = 0;
+        for (int k = 0; k < TUPLE_SIZE; k++) {
+            index |= (int) (board >>> 4*tuple[k] & 0xF) << 4*k;
+        }
+        return index;
+    }
+
+    /**
+     * Evaluates a board, an estimate of the score still to be gained from it.
+     * @param board packed board, after a move and before its spawn
+     * @return the board's value
+     */
+    public double value(long board) {
+        long t = Board.transpose(board);
+        long m = mirror(board);
+        long mt = mirror(t);
+        return sum(board) + sum(m) + sum(flip(board)) + sum(flip(m))
+            + sum(t) + sum(mt) + sum(flip(t)) + sum(flip(mt));
+    }
+
+    /**
+     * Adds up the weights every tuple picks out on one orientation of a board.
+     * @param board packed board
+     * @return the sum
+     */
+    private float sum(long board) {
+        float sum = 0;
+        for (int t = 0; t < TUPLES.length; t++) {
+            sum += weights[t][index(board, TUPLES[t])];
+        }
+        return sum;
+    }
+
+    /**
+     * Evaluates a board from its symmetries.
+     * @param boards the eight symmetric boards
+     * @return the board's value
+     */
+    private double value(long[] boards) {
+        float sum = 0;
+        for (int t = 0; t < TUPLES.length; t++) {
+            float[] table = weights[t];
+            for (int s = 0; s < SYMMETRIES; s++) {
+                sum += table[index(boards[s], TUPLES[t])];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Moves the value of a board towards a target, without locking the tables.
+     * @param boards the eight symmetric boards
+     * @param target the value the board should have
+     */
+    private void learn(long[] boards, double target) {
+        float step = (float) ((target - value(boards)) * alpha / FEATURES);
+        for (int t = 0; t < TUPLES.length; t++) {
+            float[] table = weights[t];
+            for (int s = 0; s < SYMMETRIES; s++) {
+                table[index(boards[s], TUPLES[t])] += step;
+            }
+        }
+    }
+
+    /**
+     * Picks the move whose score plus the value of its afterstate is highest.
+     * @param board packed board
+     * @return Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT, or -1 if no move is possible
+     */
+    public int bestMove(long board) {
+        int best = -1;
+        double bestValue = 0;
+        for (int d = 0; d < 4; d++) {
+            long next = Board.move(board, d);
+            if (next == board)
+                continue;
+            double value = Board.score(board, d) + value(next);
+            if (best < 0 || value > bestValue) {
+                best = d;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Plays one game greedily and learns from it by TD(0) on afterstates.
+     * @param random the thread's random generator
+     * @param boards scratch space for eight boards
+     * @param next scratch space for eight boards
+     * @return the game's result, see result
+     */
+    long train(SplittableRandom random, long[] boards, long[] next) {
+        long board = Board.spawn(Board.spawn(0, random), random);
+        boolean learning = false; // if boards holds the last afterstate
+        int score = 0;
+        int moves = 0;
+        while (true) {
+            int best = -1;
+            double bestValue = 0;
+            long bestAfter = 0;
+            for (int d = 0; d < 4; d++) {
+                long after = Board.move(board, d);
+                if (after == board)
+                    continue;
+                symmetries(after, next);
+                double value = Board.score(board, d) + value(next);
+                if (best < 0 || value > bestValue) {
+                    best = d;
+                    bestValue = value;
+                    bestAfter = after;
+                }
+            }
+            if (best < 0) {
+                if (learning)
+                    learn(boards, 0); // nothing more can be gained after the last move
+                return result(board, score, moves);
+            }
+            if (learning)
+                learn(boards, bestValue);
+            symmetries(bestAfter, boards);
+            learning = true;
+            score += Board.score(board, best);
+            moves++;
+            board = Board.spawn(bestAfter, random);
+        }
+    }
+
+    /**
+     * Plays one game greedily without learning.
+     * @param random the random generator
+     * @return the game's result, see result
+     */
+    public long play(SplittableRandom random) {
+        long board = Board.spawn(Board.spawn(0, random), random);
+        int score = 0;
+        int moves = 0;
+        while (true) {
+            int d = bestMove(board);
+            if (d < 0)
+                return result(board, score, moves);
+            score += Board.score(board, d);
+            moves++;
+            board = Board.spawn(Board.move(board, d), random);
+        }
+    }
+
+    /**
+     * Packs the result of a finished game.
+     * @param board the final board
+     * @param score the score
+     * @param moves number of moves played
+     * @return the moves in bits 40 and up, the largest tile's exponent in bits 32 to 39 and the score below
+     */
+    private static long result(long board, int score, int moves) {
+        int max = 0;
+        for (int i = 0; i < Board.SIZE*Board.SIZE; i++) {
+            max = Math.max(max, (int) (board >>> 4*i & 0xF));
+        }
+        return (long) moves << 40 | (long) max << 32 | score;
+    }
+
+    /**
+     * Trains a network on every core, or plays it, reporting progress every second.
+     * Training resumes from the weights file if it exists and checkpoints to it.
+     * Usage: java NTuple [--seconds 60] [--threads cores] [--alpha 0.1] [--weights ntuple.weights]
+     *        [--checkpoint 30] [--play games]
+     * @param args the options
+     * @throws IOException if the weights file cannot be read or written
+     * @throws InterruptedException if interrupted while training
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        double seconds = 60;
+        int threads = Runtime.getRuntime().availableProcessors();
+        float alpha = 0.1f;
+        File file = new File(FILE);
+        double checkpoint = 30;
+        int play = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--seconds"))
+                seconds = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--threads"))
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--alpha"))
+                alpha = Float.parseFloat(args[++i]);
+            else if (args[i].equals("--weights"))
+                file = new File(args[++i]);
+            else if (args[i].equals("--checkpoint"))
+                checkpoint = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--play"))
+                play = Integer.parseInt(args[++i]);
+        }
+
+        NTuple network;
+        if (file.exists()) {
+            long start = System.nanoTime();
+            network = load(file);
+            System.out.printf("loaded %s in %.1f ms%n", file, (System.nanoTime() - start) / 1e6);
+        } else {
+            network = new NTuple();
+        }
+        network.setAlpha(alpha);
+        if (play > 0) {
+            evaluate(network, play);
+            return;
+        }
+
+        SplittableRandom seeds = new SplittableRandom();
+        Trainer[] trainers = new Trainer[threads];
+        for (int t = 0; t < threads; t++) {
+            trainers[t] = new Trainer(network, seeds.split());
+            trainers[t].setDaemon(true);
+            trainers[t].start();
+        }
+        long start = System.nanoTime();
+        long lastSave = start;
+        long lastMoves = 0;
+        long lastGames = 0;
+        long lastScores = 0;
+        long lastWins = 0;
+        long last = start;
+        while (System.nanoTime() - start < seconds * 1e9) {
+            Thread.sleep(1000);
+            long moves = 0;
+            long games = 0;
+            long scores = 0;
+            long wins = 0;
+            for (Trainer trainer: trainers) {
+                moves += trainer.moves;
+                games += trainer.games;
+                scores += trainer.scores;
+                wins += trainer.wins;
+            }
+            long now = System.nanoTime();
+            long played = Math.max(1, games - lastGames);
+            System.out.printf("%6.0f s %9d games %12.0f moves/s  mean score %8.0f  2048 rate %5.1f%%%n",
+                (now - start) / 1e9, games, (moves - lastMoves) * 1e9 / (now - last),
+                (double) (scores - lastScores) / played, 100.0 * (wins - lastWins) / played);
+            lastMoves = moves;
+            lastGames = games;
+            lastScores = scores;
+            lastWins = wins;
+            last = now;
+            if (now - lastSave > checkpoint * 1e9) {
+                network.save(file);
+                lastSave = now;
+            }
+        }
+        long save = System.nanoTime();
+        network.save(file);
+        System.out.printf("saved %s in %.1f ms%n", file, (System.nanoTime() - save) / 1e6);
+    }
+
+    /**
+     * Plays games without learning and reports their scores.
+     * @param network the network
+     * @param games number of games
+     */
+    private static void evaluate(NTuple network, int games) {
+        SplittableRandom random = new SplittableRandom();
+        long scores = 0;
+        int wins = 0;
+        long start = System.nanoTime();
+        for (int g = 0; g < games; g++) {
+            long result = network.play(random);
+            scores += (int) result;
+            if ((result >>> 32 & 0xFF) >= 11)
+                wins++;
+        }
+        System.out.printf("%d games: mean score %.0f, 2048 rate %.1f%%, %.1f s%n", games, (double) scores / games,
+            100.0 * wins / games, (System.nanoTime() - start) / 1e9);
+    }
+}
+
+/**
+ * This class is a thread that trains a shared NTuple network, one game after another.
+ * Its totals are only written by itself and summed by the reporting thread.
+ */
+class Trainer extends Thread {
+    private final NTuple network;
+    private final SplittableRandom random;
+    volatile long moves;
+    volatile long games;
+    volatile long scores;
+    volatile long wins;
+
+    /**
+     * Constructs a Trainer.
+     * @param network the shared network
+     * @param random the thread's own random generator
+     */
+    Trainer(NTuple network, SplittableRandom random) {
+        super("ntuple-trainer");
+        this.network = network;
+        this.random = random;
+    }
+
+    /**
+     * Trains until the program exits.
+     */
+    public void run() {
+        long[] boards = new long[8];
+        long[] next = new long[8];
+        while (true) {
+            long result = network.train(random, boards, next);
+            moves += result >>> 40;
+            scores += (int) result;
+            if ((result >>> 32 & 0xFF) >= 11)
+                wins++;
+            games++;
+        }
+    }
+}
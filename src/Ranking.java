@@ -0,0 +1,238 @@
+import java.util.*;
+
+/**
+ * This class ranks a stream of scores.
+ * The best k records are kept in a bounded min-heap, and every score is counted in an
+ * order-statistic treap so the rank of any score can be found in O(log n).
+ * Higher scores rank first, and equal scores keep log order, like the old insertion sort.
+ */
+public class Ranking {
+    private static final Comparator<ScoreRecord> BEST_FIRST = new Comparator<ScoreRecord>() {
+        public int compare(ScoreRecord a, ScoreRecord b) {
+            if (a.getScore() != b.getScore())
+                return Long.compare(b.getScore(), a.getScore());
+            return Long.compare(a.getOffset(), b.getOffset());
+        }
+    };
+
+    private int k;
+    // Min-heap of the best records, the worst of them at index 0
+    private ScoreRecord[] heap;
+    private int heapSize;
+
+    // Treap with one node per distinct score, stored in parallel arrays; node 0 is null
+    private long[] keys;
+    private int[] counts;
+    private int[] sizes;
+    private int[] lefts;
+    private int[] rights;
+    private int[] priorities;
+    private int nodes;
+    private int root;
+    private Random random;
+
+    /**
+     * Constructs an empty Ranking that keeps the best k records.
+     * @param k number of records to keep
+     */
+    public Ranking(int k) {
+        this.k = k;
+        heap = new ScoreRecord[k];
+        keys = new long[16];
+        counts = new int[16];
+        sizes = new int[16];
+        lefts = new int[16];
+        rights = new int[16];
+        priorities = new int[16];
+        nodes = 1;
+        random = new Random(0);
+    }
+
+    /**
+     * Adds a record, counting its score and keeping it if it is among the best k.
+     * @param record the record
+     */
+    public void offer(ScoreRecord record) {
+        count(record.getScore());
+        if (heapSize < k) {
+            heap[heapSize] = record;
+            siftUp(heapSize++);
+        } else if (k > 0 && BEST_FIRST.compare(record, heap[0]) < 0) {
+            heap[0] = record;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Counts a score without keeping its record, for scores that do not qualify.
+     * @param score the score
+     */
+    public void count(long score) {
+        root = insert(root, score);
+    }
+
+    /**
+     * Checks if a record would be kept among the best k, without adding it.
+     * @param score the record's score
+     * @return true if a new record with this score would be kept
+     */
+    public boolean qualifies(long score) {
+        return heapSize < k || score > heap[0].getScore();
+    }
+
+    /**
+     * Gets the best records, highest first.
+     * @return up to k records
+     */
+    public ArrayList<ScoreRecord> getTop() {
+        ArrayList<ScoreRecord> top = new ArrayList<ScoreRecord>(Arrays.asList(heap).subList(0, heapSize));
+        top.sort(BEST_FIRST);
+        return top;
+    }
+
+    /**
+     * Gets the number of scores counted.
+     * @return the count
+     */
+    public int size() {
+        return sizes[root];
+    }
+
+    /**
+     * Finds the rank a score has, which is one more than the number of higher scores.
+     * A new record with this score would rank after the existing ones equal to it.
+     * @param score the score
+     * @return the rank, starting from 1
+     */
+    public int rank(long score) {
+        int higher = 0;
+        int node = root;
+        while (node != 0) {
+            if (score < keys[node]) {
+                higher += sizes[rights[node]] + counts[node];
+                node = lefts[node];
+            } else if (score > keys[node]) {
+                node = rights[node];
+            } else {
+                higher += sizes[rights[node]];
+                break;
+            }
+        }
+        return higher + 1;
+    }
+
+    /**
+     * Orders two heap slots so that the worse record comes first.
+     * @param a index of a slot
+     * @param b index of another slot
+     * @return true if slot a holds the worse record
+     */
+    private boolean worse(int a, int b) {
+        return BEST_FIRST.compare(heap[a], heap[b]) > 0;
+    }
+
+    /**
+     * Swaps two heap slots.
+     * @param a index of a slot
+     * @param b index of another slot
+     */
+    private void swap(int a, int b) {
+        ScoreRecord temp = heap[a];
+        heap[a] = heap[b];
+        heap[b] = temp;
+    }
+
+    /**
+     * Moves a heap slot up until its parent is worse.
+     * @param i index of the slot
+     */
+    private void siftUp(int i) {
+        while (i > 0 && worse(i, (i-1) / 2)) {
+            swap(i, (i-1) / 2);
+            i = (i-1) / 2;
+        }
+    }
+
+    /**
+     * Moves a heap slot down until both children are better.
+     * @param i index of the slot
+     */
+    private void siftDown(int i) {
+        while (2*i + 1 < heapSize) {
+            int child = 2*i + 1;
+            if (child + 1 < heapSize && worse(child + 1, child))
+                child++;
+            if (!worse(child, i))
+                return;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    /**
+     * Allocates a treap node for a new distinct score.
+     * @param score the score
+     * @return index of the node
+     */
+    private int newNode(long score) {
+        if (nodes == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            lefts = Arrays.copyOf(lefts, capacity);
+            rights = Arrays.copyOf(rights, capacity);
+            priorities = Arrays.copyOf(priorities, capacity);
+        }
+        keys[nodes] = score;
+        counts[nodes] = 1;
+        sizes[nodes] = 1;
+        priorities[nodes] = random.nextInt();
+        return nodes++;
+    }
+
+    /**
+     * Recalculates the number of scores below a node.
+     * @param node index of the node
+     */
+    private void update(int node) {
+        sizes[node] = sizes[lefts[node]] + sizes[rights[node]] + counts[node];
+    }
+
+    /**
+     * Counts a score in the subtree of a node, rotating to keep the treap balanced.
+     * @param node index of the subtree's root
+     * @param score the score
+     * @return index of the subtree's new root
+     */
+    private int insert(int node, long score) {
+        if (node == 0)
+            return newNode(score);
+
+        if (score == keys[node]) {
+            counts[node]++;
+        } else if (score < keys[node]) {
+            int child = insert(lefts[node], score);
+            lefts[node] = child;
+            if (priorities[child] > priorities[node]) {
+                lefts[node] = rights[child];
+                rights[child] = node;
+                update(node);
+                update(child);
+                return child;
+            }
+        } else {
+            int child = insert(rights[node], score);
+            rights[node] = child;
+            if (priorities[child] > priorities[node]) {
+                rights[node] = lefts[child];
+                lefts[child] = node;
+                update(node);
+                update(child);
+                return child;
+            }
+        }
+        update(node);
+        return node;
+    }
+}
@@ -0,0 +1,249 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class records a game so that it can be played again exactly.
+ * The engine's generator is seeded, so the seed and the moves are enough to rebuild every spawn.
+ * It can be added as a GameListener to a new engine to record each turn as it is played.
+ * Recording and writing are synchronized, so a game played on one thread can be saved from another.
+ *
+ * A replay file is a header (magic, version, flags, board size, seed and number of moves),
+ * the moves packed 2 bits each, four to a byte, then optionally one spawn byte per move, and
+ * a trailer with the final exponent of every cell and the score. A spawn byte is the cell
+ * index shifted left by one, with the low bit set for a 4, or 0xFF if no tile was spawned;
+ * it lets a replay point at the first turn that no longer matches. Version 1 files had no
+ * board size and ended with a packed 4x4 board, and versions 1 and 2 had a 4-byte score.
+ *
+ * Usage: java Replay file... [--seconds 1]
+ */
+public class Replay implements GameListener {
+    private static final int MAGIC = 0x32303452; // "204R"
+    private static final int VERSION = 3;
+    private static final int FLAG_SPAWNS = 1;
+    private static final int NO_SPAWN = 0xFF;
+
+    private int size;
+    private long seed;
+    private byte[] moves;
+    private byte[] spawns;
+    private int count;
+    private byte[] cells;
+    private long score;
+
+    /**
+     * Constructs an empty Replay of a game started with the specified seed.
+     * @param size number of rows and columns of the board
+     * @param seed the engine's seed
+     * @param verify true to also record every spawn
+     */
+    public Replay(int size, long seed, boolean verify) {
+        this.size = size;
+        this.seed = seed;
+        moves = new byte[64];
+        spawns = verify ? new byte[256] : null;
+        cells = new byte[size*size];
+    }
+
+    /**
+     * Forgets every turn, to record a new game started with the specified seed.
+     * @param seed the engine's new seed
+     */
+    public synchronized void clear(long seed) {
+        Arrays.fill(moves, 0, (count + 3) / 4, (byte) 0); // add ors moves into their bytes
+        this.seed = seed;
+        count = 0;
+    }
+
+    /**
+     * Records the turn that was just played, and remembers the latest board and score.
+     * @param engine the engine that changed
+     */
+    public synchronized void stateChanged(GameEngine engine) {
+        engine.copyCells(cells, 0);
+        score = engine.getScore();
+        int spawn = engine.getLastSpawn();
+        if (engine.getLastMove() >= 0)
+            add(engine.getLastMove(), spawn, spawn < 0 ? 0 : cells[spawn]);
+    }
+
+    /**
+     * Appends a turn.
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @param spawn cell where a tile was spawned, or -1 if none was
+     * @param exponent exponent of the spawned tile
+     */
+    public synchronized void add(int direction, int spawn, int exponent) {
+        if (count / 4 == moves.length)
+            moves = Arrays.copyOf(moves, moves.length * 2);
+        moves[count / 4] |= direction << (count % 4 * 2);
+        if (spawns != null) {
+            if (count == spawns.length)
+                spawns = Arrays.copyOf(spawns, spawns.length * 2);
+            spawns[count] = (byte) (spawn < 0 ? NO_SPAWN : spawn << 1 | (exponent == 2 ? 1 : 0));
+        }
+        count++;
+    }
+
+    /**
+     * Gets the direction of a recorded turn.
+     * @param i index of the turn
+     * @return Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     */
+    public int getMove(int i) {
+        return moves[i / 4] >>> (i % 4 * 2) & 3;
+    }
+
+    /**
+     * Gets the number of recorded turns.
+     * @return the number of moves
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the number of rows and columns of the board.
+     * @return the board size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the seed the game was started with.
+     * @return the seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Gets the score at the end of the recording.
+     * @return the final score
+     */
+    public long getScore() {
+        return score;
+    }
+
+    /**
+     * Plays the recorded turns on an engine, stopping at the first one that does not match.
+     * @param engine an engine with the replay's board size, which is reset with the replay's seed
+     * @return the number of turns that matched, equal to size() if the whole game matched
+     */
+    public int play(GameEngine engine) {
+        engine.reset(seed);
+        for (int i = 0; i < count; i++) {
+            if (!engine.move(getMove(i)))
+                return i;
+            if (spawns != null) {
+                int spawn = engine.getLastSpawn();
+                int expected = spawn < 0 ? NO_SPAWN
+                    : spawn << 1 | (engine.get(spawn / size, spawn % size) == 2 ? 1 : 0);
+                if ((spawns[i] & 0xFF) != expected)
+                    return i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Plays the game again and checks that it ends with the recorded board and score.
+     * @return true if every turn, spawn, and the final board and score match
+     */
+    public boolean verify() {
+        GameEngine engine = new GameEngine(size, seed);
+        if (play(engine) != count || engine.getScore() != score)
+            return false;
+        for (int i = 0; i < cells.length; i++) {
+            if (engine.get(i / size, i % size) != cells[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the replay to a file.
+     * @param file the file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(spawns != null ? FLAG_SPAWNS : 0);
+            out.writeByte(size);
+            out.writeLong(seed);
+            out.writeInt(count);
+            out.write(moves, 0, (count + 3) / 4);
+            if (spawns != null)
+                out.write(spawns, 0, count);
+            out.write(cells);
+            out.writeLong(score);
+        }
+    }
+
+    /**
+     * Reads a replay from a file.
+     * @param file the file
+     * @return the replay
+     * @throws IOException if the file cannot be read or is not a replay
+     */
+    public static Replay read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a replay");
+            int version = in.readUnsignedByte();
+            if (version > VERSION)
+                throw new IOException(file + " needs a newer version of Replay");
+            boolean verify = (in.readUnsignedByte() & FLAG_SPAWNS) != 0;
+            int size = version == 1 ? Board.SIZE : in.readUnsignedByte();
+            Replay replay = new Replay(size, in.readLong(), verify);
+            replay.count = in.readInt();
+            replay.moves = new byte[Math.max(1, (replay.count + 3) / 4)];
+            in.readFully(replay.moves, 0, (replay.count + 3) / 4);
+            if (verify) {
+                replay.spawns = new byte[Math.max(1, replay.count)];
+                in.readFully(replay.spawns, 0, replay.count);
+            }
+            if (version == 1)
+                ByteBoard.unpack(in.readLong(), replay.cells);
+            else
+                in.readFully(replay.cells);
+            replay.score = version < 3 ? in.readInt() : in.readLong();
+            return replay;
+        }
+    }
+
+    /**
+     * Verifies replay files and reports how fast they are played.
+     * @param args replay files, and optionally --seconds followed by the time to spend on each
+     * @throws IOException if a file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        double seconds = 1;
+        ArrayList<File> files = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--seconds"))
+                seconds = Double.parseDouble(args[++i]);
+            else
+                files.add(new File(args[i]));
+        }
+
+        for (File file: files) {
+            Replay replay = read(file);
+            GameEngine engine = new GameEngine(replay.getSize(), replay.getSeed());
+            int matched = replay.play(engine);
+            boolean ok = replay.verify();
+
+            long played = 0;
+            long start = System.nanoTime();
+            long nanos = 0;
+            while (nanos < seconds * 1e9) {
+                played += replay.play(engine);
+                nanos = System.nanoTime() - start;
+            }
+            System.out.printf("%s: %d moves, score %d, %s, %.1fM moves/s%n", file, replay.size(), replay.getScore(),
+                ok ? "verified" : "diverges at move " + matched, played * 1e3 / Math.max(1, nanos));
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * This class lets any number of threads add scores to a ScoreStore at once.
+ * Producers push submissions onto a lock-free multi-producer single-consumer queue, a single
+ * writer thread drains it in batches, and each batch is appended with one write and one
+ * fsync (group commit). Every submission is written exactly once, after duplicates already
+ * stored are skipped, and callers of add and flush return only once their scores are on disk.
+ *
+ * The best scores are published as an immutable list after every batch, so getTop never
+ * takes a lock. Producers more than MAX_PENDING submissions ahead of the writer wait for it.
+ */
+public class ScoreIngest {
+    public static final int MAX_BATCH = 1 << 16;
+    public static final int MAX_PENDING = 1 << 20;
+
+    private ScoreStore store;
+    private Thread writer;
+    private volatile boolean closed;
+
+    // Queue in the style of Vyukov's intrusive MPSC queue: producers swap the tail, the writer owns the head
+    private final AtomicReference<Submission> tail;
+    private Submission head;
+    private volatile boolean sleeping;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private volatile long processed;
+    private volatile long written;
+    private volatile long batches;
+    private volatile List<ScoreRecord> top;
+
+    /**
+     * Opens a store and starts its writer thread.
+     * @param name base name of the store's files, e.g. "leaderboard"
+     * @throws IOException if the store cannot be opened
+     */
+    public ScoreIngest(String name) throws IOException {
+        store = new ScoreStore(name);
+        top = Collections.unmodifiableList(new ArrayList<ScoreRecord>(store.getTop()));
+        head = new Submission(null, 0, false);
+        tail = new AtomicReference<Submission>(head);
+        writer = new Thread(this::run, "score-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Submits a score without waiting for it to be written.
+     * @param username the player's username
+     * @param score the score
+     * @param won true if the game was won
+     */
+    public void submit(String username, long score, boolean won) {
+        enqueue(new Submission(username, score, won));
+    }
+
+    /**
+     * Adds a score and waits until it is on disk.
+     * @param username the player's username
+     * @param score the score
+     * @param won true if the game was won
+     * @return true if the score was added, false if an identical one was already stored
+     * @throws IOException if the store cannot be written or is closed
+     */
+    public boolean add(String username, long score, boolean won) throws IOException {
+        Submission s = new Submission(username, score, won);
+        s.waiter = Thread.currentThread();
+        enqueue(s);
+        await(s);
+        return s.added;
+    }
+
+    /**
+     * Waits until every score submitted before the call is on disk.
+     * @throws IOException if the store cannot be written or is closed
+     */
+    public void flush() throws IOException {
+        Submission marker = new Submission(null, 0, false);
+        marker.waiter = Thread.currentThread();
+        enqueue(marker);
+        await(marker);
+    }
+
+    /**
+     * Gets the best scores as of the last batch written, without locking.
+     * @return up to ScoreStore.TOP records, highest first, not modifiable
+     */
+    public List<ScoreRecord> getTop() {
+        return top;
+    }
+
+    /**
+     * Gets the number of scores submitted.
+     * @return the count
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * Gets the number of scores written, which excludes duplicates.
+     * @return the count
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Gets the number of batches written, each with one fsync.
+     * @return the count
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Writes every score submitted so far, then stops the writer and closes the store.
+     * The writer is stopped and the store closed even if the last scores cannot be written.
+     * Scores must not be submitted once close has been called.
+     * @throws IOException if the store cannot be written or closed
+     */
+    public void close() throws IOException {
+        if (closed)
+            return;
+        try {
+            flush();
+        } finally {
+            closed = true;
+            LockSupport.unpark(writer);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            store.close();
+        }
+    }
+
+    /**
+     * Pushes a submission onto the queue, waiting first if the writer is too far behind.
+     * @param s the submission
+     * @throws IllegalStateException if the store is closed
+     */
+    private void enqueue(Submission s) {
+        if (closed)
+            throw new IllegalStateException("the score store is closed");
+        long sequence = submitted.incrementAndGet();
+        while (sequence - processed > MAX_PENDING) {
+            Thread.yield();
+        }
+        Submission previous = tail.getAndSet(s);
+        previous.next = s; // links the node; the writer sees it once this write lands
+        if (sleeping) {
+            sleeping = false;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Waits until the writer has handled a submission.
+     * @param s the submission
+     * @throws IOException if the batch holding it could not be written
+     */
+    private void await(Submission s) throws IOException {
+        while (!s.done) {
+            LockSupport.park(this);
+        }
+        if (s.failure != null)
+            throw new IOException("the score store failed", s.failure);
+    }
+
+    /**
+     * Drains the queue in batches until the store is closed.
+     */
+    private void run() {
+        ArrayList<Submission> nodes = new ArrayList<Submission>();
+        ArrayList<ScoreRecord> records = new ArrayList<ScoreRecord>();
+        boolean[] added = new boolean[MAX_BATCH];
+        while (true) {
+            nodes.clear();
+            records.clear();
+            Submission next;
+            while (nodes.size() < MAX_BATCH && (next = head.next) != null) {
+                head = next;
+                nodes.add(next);
+                if (next.username != null)
+                    records.add(new ScoreRecord(next.username, next.score, next.won, -1));
+            }
+            if (nodes.isEmpty()) {
+                if (closed)
+                    return;
+                sleeping = true;
+                if (head.next == null && !closed)
+                    LockSupport.park(this);
+                sleeping = false;
+                continue;
+            }
+            write(nodes, records, added);
+        }
+    }
+
+    /**
+     * Appends one batch, publishes the new best scores, then wakes the threads waiting on it.
+     * A batch that cannot be written fails only its own submissions, so the next batch is
+     * tried again, for example once a full disk has room.
+     * @param nodes every submission of the batch, including flush markers
+     * @param records the scores of the batch
+     * @param added receives which scores were added
+     */
+    private void write(ArrayList<Submission> nodes, ArrayList<ScoreRecord> records, boolean[] added) {
+        IOException failure = null;
+        try {
+            if (!records.isEmpty()) {
+                written += store.addAll(records, added, true);
+                batches++;
+                top = Collections.unmodifiableList(new ArrayList<ScoreRecord>(store.getTop()));
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        int r = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            Submission s = nodes.get(i);
+            if (s.username != null)
+                s.added = failure == null && added[r++];
+            s.failure = failure;
+            s.done = true;
+            if (s.waiter != null)
+                LockSupport.unpark(s.waiter);
+        }
+        processed += nodes.size();
+    }
+}
+
+/**
+ * This class is one score waiting in a ScoreIngest queue, or a flush marker if it has no name.
+ */
+class Submission {
+    final String username;
+    final long score;
+    final boolean won;
+    volatile Submission next;
+    Thread waiter;
+    boolean added;
+    IOException failure; // set if its batch could not be written
+    volatile boolean done;
+
+    /**
+     * Constructs a Submission.
+     * @param username the player's username, or null for a flush marker
+     * @param score the score
+     * @param won true if the game was won
+     */
+    Submission(String username, long score, boolean won) {
+        this.username = username;
+        this.score = score;
+        this.won = won;
+    }
+}
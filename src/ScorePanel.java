@@ -4,23 +4,27 @@ import javax.swing.*;
 
 /**
  * This class is a panel displaying the user's current score.
+ * The score itself is kept by the GameEngine, which this panel observes.
  */
-public class ScorePanel extends JPanel {
+public class ScorePanel extends JPanel implements GameListener {
+    private static final long serialVersionUID = 1L;
     private static final Color BACKGROUND_COLOR = new Color(250,248,239);
     private static final Color TITLE_COLOR = new Color(119,110,101);
     private static final Color SCORE_COLOR = new Color(187,173,160);
     
-    private int score;
+    private long score;
     private boolean won;
     private BufferedImage image;
     
     /**
-     * Constructs a ScorePanel with the specified size.
+     * Constructs a ScorePanel with the specified size, displaying a GameEngine.
      * @param size the panel's size
+     * @param engine the game to display
      */
-    public ScorePanel(int size) {
-        score = 0;
-        won = false;
+    public ScorePanel(int size, GameEngine engine) {
+        score = engine.getScore();
+        won = engine.isWon();
+        engine.addListener(this);
         image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
 
         Dimension dimension = new Dimension(size, size);
@@ -33,7 +37,7 @@ public class ScorePanel extends JPanel {
      * Gets the score.
      * @return the current score
      */
-    public int getScore() {
+    public long getScore() {
         return score;
     }
     
@@ -46,19 +50,12 @@ public class ScorePanel extends JPanel {
     }
 
     /**
-     * Sets if the game has been won.
-     * @param b true if the game is won, false otherwise
+     * Copies the score and status from the game and repaints the panel.
+     * @param engine the engine that changed
      */
-    public void setWon(boolean b) {
-        won = b;
-    }
-
-    /**
-     * Adds the specified value to the score and repaints the panel.
-     * @param s the value to add to the score
-     */
-    public void add(int s) {
-        score += s;
+    public void stateChanged(GameEngine engine) {
+        score = engine.getScore();
+        won = engine.isWon();
         repaint();
     }
 
@@ -0,0 +1,55 @@
+/**
+ * This class is one score read from a ScoreStore.
+ */
+public class ScoreRecord {
+    private String username;
+    private long score;
+    private boolean won;
+    private long offset;
+
+    /**
+     * Constructs a ScoreRecord with the specified values.
+     * @param username the player's username
+     * @param score the player's score
+     * @param won true if the game was won
+     * @param offset position of the record in the log
+     */
+    public ScoreRecord(String username, long score, boolean won, long offset) {
+        this.username = username;
+        this.score = score;
+        this.won = won;
+        this.offset = offset;
+    }
+
+    /**
+     * Returns the player's username.
+     * @return the username
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Returns the player's score.
+     * @return the score
+     */
+    public long getScore() {
+        return score;
+    }
+
+    /**
+     * Returns if the game was won.
+     * @return true if the game was won, otherwise false
+     */
+    public boolean getWon() {
+        return won;
+    }
+
+    /**
+     * Returns the position of the record in the log.
+     * @return the offset in bytes
+     */
+    public long getOffset() {
+        return offset;
+    }
+}
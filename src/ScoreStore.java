@@ -0,0 +1,493 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This class stores leaderboard scores in an append-only binary log.
+ * Every score is appended to name.dat, and the best scores are also kept in a small
+ * index file, name.idx, so opening the leaderboard only reads the scores it shows.
+ * A text leaderboard, name.txt, is imported the first time the store is opened.
+ *
+ * A log record is a 2-byte name length, the UTF-8 name, an 8-byte score and a won byte.
+ * Logs from before scores were longs had a 4-byte score, and are rewritten when opened.
+ */
+public class ScoreStore {
+    public static final int TOP = 10;
+
+    private static final int OLD_LOG_MAGIC = 0x32303438; // "2048", 4-byte scores
+    private static final int LOG_MAGIC = 0x3230344C; // "204L"
+    private static final int INDEX_MAGIC = 0x3230344A; // "204J", "204I" held 4-byte scores
+    private static final int HEADER_SIZE = 4;
+    private static final int MAX_NAME = 0xFFFF;
+    // Logs are mapped this many bytes at a time, well below the 2GB limit of a mapping
+    private static final long WINDOW = 1 << 28;
+
+    private File logFile;
+    private File indexFile;
+    private FileChannel log;
+    private long length;
+    private Ranking ranking;
+    // Fingerprints of every record, null until the whole log has been scanned
+    private FingerprintSet fingerprints;
+    // Records of the batch being appended by addAll, reused between batches
+    private ByteBuffer batch = ByteBuffer.allocate(1 << 16);
+
+    /**
+     * This interface is called for every record found by a scan of the log.
+     */
+    interface RecordVisitor {
+        /**
+         * Visits one record.
+         * @param offset position of the record in the log
+         * @param name buffer holding the UTF-8 name, reused between records
+         * @param nameLength number of bytes of the name
+         * @param score the score
+         * @param won true if the game was won
+         * @throws IOException if the visitor fails to write
+         */
+        void visit(long offset, byte[] name, int nameLength, long score, boolean won) throws IOException;
+    }
+
+    /**
+     * Opens the store with the specified base name, creating or importing it if needed.
+     * @param name base name of the files, e.g. "leaderboard"
+     * @throws IOException if the files cannot be read or written
+     */
+    public ScoreStore(String name) throws IOException {
+        logFile = new File(name + ".dat");
+        indexFile = new File(name + ".idx");
+        File textFile = new File(name + ".txt");
+        boolean created = !logFile.exists();
+
+        ranking = new Ranking(TOP);
+        if (created)
+            create(textFile);
+        log = FileChannel.open(logFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (created) {
+            writeIndex();
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        log.read(header, 0);
+        if (header.getInt(0) == OLD_LOG_MAGIC)
+            upgrade();
+        else if (header.getInt(0) != LOG_MAGIC)
+            throw new IOException(logFile + " is not a leaderboard log");
+
+        long size = log.size();
+        if (!readIndex() || length > size) {
+            ranking = new Ranking(TOP);
+            length = HEADER_SIZE;
+            fingerprints = new FingerprintSet();
+        }
+        // Catches up on records appended after the index was last written
+        if (length < size) {
+            length = scan(length, new RecordVisitor() {
+                public void visit(long offset, byte[] name, int nameLength, long score, boolean won) {
+                    index(offset, name, nameLength, score, won);
+                }
+            });
+            log.truncate(length); // drops a record torn by a crash
+            writeIndex();
+        }
+    }
+
+    /**
+     * Reads the top scores from the index file.
+     * @return true if the index was read, false if it is missing or damaged
+     */
+    private boolean readIndex() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC)
+                return false;
+            length = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long offset = in.readLong();
+                byte[] name = new byte[in.readUnsignedShort()];
+                in.readFully(name);
+                long score = in.readLong();
+                boolean won = in.readBoolean();
+                ranking.offer(new ScoreRecord(new String(name, StandardCharsets.UTF_8), score, won, offset));
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the top scores and the covered log length to the index file.
+     * @throws IOException if the index cannot be written
+     */
+    private void writeIndex() throws IOException {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeLong(length);
+            ArrayList<ScoreRecord> top = ranking.getTop();
+            out.writeInt(top.size());
+            for (ScoreRecord r: top) {
+                byte[] name = r.getUsername().getBytes(StandardCharsets.UTF_8);
+                out.writeLong(r.getOffset());
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeLong(r.getScore());
+                out.writeBoolean(r.getWon());
+            }
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes a new log, importing the text leaderboard if there is one, through a temporary
+     * file that takes the log's name once complete. A crash or a failed import leaves no log,
+     * so the text leaderboard is imported again on the next open.
+     * @param textFile the text leaderboard, which may not exist
+     * @throws IOException if the text cannot be read or the log written
+     */
+    private void create(File textFile) throws IOException {
+        File temp = new File(logFile.getPath() + ".tmp");
+        length = HEADER_SIZE;
+        fingerprints = new FingerprintSet();
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(LOG_MAGIC).flip();
+            out.write(header);
+            if (textFile.exists())
+                importText(textFile, out);
+            out.force(true);
+        }
+        Files.move(temp.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Imports every line of a text leaderboard, in "username,score,won" form.
+     * Lines that are too short or whose score is not a number are skipped.
+     * @param textFile the text leaderboard
+     * @param out the new log, written after its header
+     * @throws IOException if the file cannot be read or the log written
+     */
+    private void importText(File textFile, FileChannel out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BufferedReader reader = new BufferedReader(new FileReader(textFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] v = line.split(","); // username, score, won
+                if (v.length < 3)
+                    continue;
+                long score;
+                try {
+                    score = Long.parseLong(v[1]);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                boolean won = v[2].equals("true");
+                byte[] name = encode(v[0]);
+                index(length + bytes.size(), name, name.length, score, won);
+                bytes.write(record(name, score, won).array());
+                if (bytes.size() >= 1 << 20) {
+                    length += out.write(ByteBuffer.wrap(bytes.toByteArray()));
+                    bytes.reset();
+                }
+            }
+        }
+        length += out.write(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    /**
+     * Rewrites a log with 4-byte scores into the current format, through a temporary file
+     * that replaces it once complete. Record offsets change, so the old index is not used.
+     * @throws IOException if the log cannot be read or rewritten
+     */
+    private void upgrade() throws IOException {
+        File temp = new File(logFile.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(LOG_MAGIC).flip();
+            out.write(header);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            scan(HEADER_SIZE, 4, new RecordVisitor() {
+                public void visit(long offset, byte[] name, int nameLength, long score, boolean won) throws IOException {
+                    bytes.write(record(Arrays.copyOf(name, nameLength), score, won).array());
+                    if (bytes.size() >= 1 << 20) {
+                        out.write(ByteBuffer.wrap(bytes.toByteArray()));
+                        bytes.reset();
+                    }
+                }
+            });
+            out.write(ByteBuffer.wrap(bytes.toByteArray()));
+            out.force(true);
+        }
+        log.close();
+        Files.move(temp.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(logFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        indexFile.delete();
+    }
+
+    /**
+     * Encodes a username, cutting it to the longest name a record can hold.
+     * @param username the username
+     * @return the UTF-8 bytes
+     */
+    private static byte[] encode(String username) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        return name.length <= MAX_NAME ? name : Arrays.copyOf(name, MAX_NAME);
+    }
+
+    /**
+     * Builds the bytes of a log record.
+     * @param name UTF-8 name
+     * @param score the score
+     * @param won true if the game was won
+     * @return the record, ready to be written
+     */
+    private static ByteBuffer record(byte[] name, long score, boolean won) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 + name.length + 9);
+        buffer.putShort((short) name.length).put(name).putLong(score).put((byte) (won ? 1 : 0)).flip();
+        return buffer;
+    }
+
+    /**
+     * Reads every record from a position to the end of the log through memory mappings.
+     * @param from position of the first record
+     * @param visitor called for every record
+     * @return position after the last complete record
+     * @throws IOException if the log cannot be read
+     */
+    long scan(long from, RecordVisitor visitor) throws IOException {
+        return scan(from, 8, visitor);
+    }
+
+    /**
+     * Reads every record from a position to the end of the log, with scores of either width.
+     * @param from position of the first record
+     * @param scoreBytes bytes of a record's score, 4 in an old log or 8
+     * @param visitor called for every record
+     * @return position after the last complete record
+     * @throws IOException if the log cannot be read
+     */
+    private long scan(long from, int scoreBytes, RecordVisitor visitor) throws IOException {
+        byte[] name = new byte[MAX_NAME];
+        long end = log.size();
+        long position = from;
+        while (position < end) {
+            MappedByteBuffer map = log.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, end - position));
+            int consumed = 0;
+            while (map.remaining() >= 2) {
+                int nameLength = map.getShort(consumed) & 0xFFFF;
+                int size = 2 + nameLength + scoreBytes + 1;
+                if (map.remaining() < size)
+                    break;
+                map.position(consumed + 2);
+                map.get(name, 0, nameLength);
+                long score = scoreBytes == 8 ? map.getLong() : map.getInt();
+                boolean won = map.get() != 0;
+                visitor.visit(position + consumed, name, nameLength, score, won);
+                consumed += size;
+            }
+            if (consumed == 0)
+                break; // a torn record at the end of the log
+            position += consumed;
+        }
+        return position;
+    }
+
+    /**
+     * Counts a record in the ranking, keeping it if it is among the top scores.
+     * @param offset position of the record in the log
+     * @param name buffer holding the UTF-8 name
+     * @param nameLength number of bytes of the name
+     * @param score the score
+     * @param won true if the game was won
+     */
+    private void offer(long offset, byte[] name, int nameLength, long score, boolean won) {
+        if (ranking.qualifies(score))
+            ranking.offer(new ScoreRecord(new String(name, 0, nameLength, StandardCharsets.UTF_8), score, won, offset));
+        else
+            ranking.count(score);
+    }
+
+    /**
+     * Counts a record in the ranking and, once it covers the whole log, the fingerprints.
+     * @param offset position of the record in the log
+     * @param name buffer holding the UTF-8 name
+     * @param nameLength number of bytes of the name
+     * @param score the score
+     * @param won true if the game was won
+     */
+    private void index(long offset, byte[] name, int nameLength, long score, boolean won) {
+        offer(offset, name, nameLength, score, won);
+        if (fingerprints != null)
+            fingerprints.add(FingerprintSet.fingerprint(name, nameLength, score, won));
+    }
+
+    /**
+     * Scans the whole log once, so the ranking counts and fingerprints cover every record.
+     * Opening from the index skips this until a score is added or ranked.
+     * @throws IOException if the log cannot be read
+     */
+    private void scanAll() throws IOException {
+        if (fingerprints != null)
+            return;
+        ranking = new Ranking(TOP);
+        fingerprints = new FingerprintSet();
+        scan(HEADER_SIZE, new RecordVisitor() {
+            public void visit(long offset, byte[] name, int nameLength, long score, boolean won) {
+                index(offset, name, nameLength, score, won);
+            }
+        });
+    }
+
+    /**
+     * Appends a score, unless an identical one is already stored.
+     * Duplicates are found by fingerprint, so two different records whose 64-bit
+     * fingerprints collide would be treated as one; at a billion records the chance is under 3%.
+     * @param username the player's username
+     * @param score the score
+     * @param won true if the game was won
+     * @return true if the score was added, false if it was a duplicate
+     * @throws IOException if the log cannot be written
+     */
+    public boolean add(String username, long score, boolean won) throws IOException {
+        byte[] name = encode(username);
+        scanAll();
+        long fingerprint = FingerprintSet.fingerprint(name, name.length, score, won);
+        if (fingerprints.contains(fingerprint))
+            return false;
+
+        long offset = length;
+        ByteBuffer record = record(name, score, won);
+        try {
+            while (record.hasRemaining()) {
+                length += log.write(record, length);
+            }
+        } catch (IOException e) {
+            rollback(offset, e);
+            throw e;
+        }
+        // Only indexed once written, so a failed add is not taken for a duplicate when retried
+        fingerprints.add(fingerprint);
+        offer(offset, name, name.length, score, won);
+        writeIndex();
+        return true;
+    }
+
+    /**
+     * Appends a batch of scores with a single write, skipping any already stored or repeated
+     * in the batch, then optionally forces them to disk. The index is rewritten once.
+     * If the write or force fails, none of the batch is kept, in the log or in memory.
+     * @param records the scores; their offsets are ignored
+     * @param added receives, for each record, true if it was added and false if it was a duplicate
+     * @param force true to force the log to disk before returning
+     * @return number of records added
+     * @throws IOException if the log cannot be written
+     */
+    public int addAll(List<ScoreRecord> records, boolean[] added, boolean force) throws IOException {
+        scanAll();
+        batch.clear();
+        int count = 0;
+        for (int i = 0; i < records.size(); i++) {
+            ScoreRecord r = records.get(i);
+            byte[] name = encode(r.getUsername());
+            added[i] = fingerprints.add(FingerprintSet.fingerprint(name, name.length, r.getScore(), r.getWon()));
+            if (!added[i])
+                continue;
+            if (batch.remaining() < 2 + name.length + 9) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.position() + 2 + name.length + 9));
+                batch.flip();
+                batch = larger.put(batch);
+            }
+            batch.putShort((short) name.length).put(name).putLong(r.getScore()).put((byte) (r.getWon() ? 1 : 0));
+            count++;
+        }
+        batch.flip();
+        long offset = length;
+        try {
+            while (batch.hasRemaining()) {
+                length += log.write(batch, length);
+            }
+            if (force)
+                log.force(false);
+        } catch (IOException e) {
+            for (int i = 0; i < records.size(); i++) {
+                if (added[i]) {
+                    ScoreRecord r = records.get(i);
+                    byte[] name = encode(r.getUsername());
+                    fingerprints.remove(FingerprintSet.fingerprint(name, name.length, r.getScore(), r.getWon()));
+                    added[i] = false;
+                }
+            }
+            rollback(offset, e);
+            throw e;
+        }
+        offerBatch(offset);
+        if (count > 0)
+            writeIndex();
+        return count;
+    }
+
+    /**
+     * Counts every record of the written batch in the ranking.
+     * @param offset position of the batch in the log
+     */
+    private void offerBatch(long offset) {
+        byte[] bytes = batch.array();
+        for (int p = 0; p < batch.limit(); ) {
+            int nameLength = batch.getShort(p) & 0xFFFF;
+            long score = batch.getLong(p + 2 + nameLength);
+            boolean won = batch.get(p + 2 + nameLength + 8) != 0;
+            if (ranking.qualifies(score))
+                ranking.offer(new ScoreRecord(new String(bytes, p + 2, nameLength, StandardCharsets.UTF_8), score, won, offset + p));
+            else
+                ranking.count(score);
+            p += 2 + nameLength + 9;
+        }
+    }
+
+    /**
+     * Drops what a failed append wrote, so it is neither counted nor found by the next open.
+     * @param offset length of the log before the append
+     * @param cause the failure, which keeps a failure to truncate as a suppressed exception
+     */
+    private void rollback(long offset, IOException cause) {
+        length = offset;
+        try {
+            log.truncate(offset);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Gets the best scores, highest first.
+     * @return up to TOP records
+     */
+    public List<ScoreRecord> getTop() {
+        return ranking.getTop();
+    }
+
+    /**
+     * Finds the rank a score has among every stored score.
+     * The first call after opening from the index scans the whole log once.
+     * @param score the score
+     * @return the rank, starting from 1
+     * @throws IOException if the log cannot be read
+     */
+    public int rank(long score) throws IOException {
+        scanAll();
+        return ranking.rank(score);
+    }
+
+    /**
+     * Closes the log.
+     * @throws IOException if the log cannot be closed
+     */
+    public void close() throws IOException {
+        log.close();
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * This class generates load on a SessionServer and reports throughput and latency.
+ * Every client keeps a fixed number of commands in flight, playing random moves and starting
+ * a new game whenever one is lost. Clients are multiplexed on a Selector per thread, so
+ * thousands of them need only a few threads.
+ *
+ * Usage: java SessionLoad [--host localhost] [--port 2048] [--clients 10000] [--pipeline 2]
+ *                         [--threads 1] [--seconds 10] [--size 4]
+ */
+public class SessionLoad {
+    private String host = "localhost";
+    private int port = SessionServer.PORT;
+    private int clients = 10000;
+    private int pipeline = 2;
+    private int threads = 1;
+    private double seconds = 10;
+    private int size = Board.SIZE;
+
+    /**
+     * Runs the load with the options given on the command line.
+     * @param args the options, see the class comment
+     * @throws IOException if a client cannot connect
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        SessionLoad load = new SessionLoad();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--host"))
+                load.host = args[++i];
+            else if (args[i].equals("--port"))
+                load.port = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--clients"))
+                load.clients = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--pipeline"))
+                load.pipeline = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--threads"))
+                load.threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--seconds"))
+                load.seconds = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--size"))
+                load.size = Integer.parseInt(args[++i]);
+        }
+        load.run();
+    }
+
+    /**
+     * Connects every client, runs the load, then prints the results.
+     * @throws IOException if a client cannot connect
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    public void run() throws IOException, InterruptedException {
+        Driver[] drivers = new Driver[threads];
+        for (int t = 0; t < threads; t++) {
+            drivers[t] = new Driver(t * 31L + 1);
+        }
+        for (int c = 0; c < clients; c++) {
+            drivers[c % threads].connect();
+        }
+        System.out.println(clients + " clients connected, " + pipeline + " commands in flight each");
+
+        final long end = System.nanoTime() + (long) (seconds * 1e9);
+        Thread[] running = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final Driver driver = drivers[t];
+            running[t] = new Thread(() -> driver.run(end), "session-load-" + t);
+            running[t].start();
+        }
+        long start = System.nanoTime();
+        Histogram latency = new Histogram();
+        long answers = 0;
+        long moves = 0;
+        for (int t = 0; t < threads; t++) {
+            running[t].join();
+            latency.add(drivers[t].latency);
+            answers += drivers[t].answers;
+            moves += drivers[t].moves;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%.0f commands/s, %.0f moves/s%nlatency: %s%n", answers / elapsed, moves / elapsed, latency);
+    }
+
+    /**
+     * This class drives a share of the clients from one thread.
+     */
+    private class Driver {
+        private Selector selector;
+        private SplittableRandom random;
+        private Histogram latency;
+        private byte[] newGame; // asks for a game of the board size under test
+        private long answers;
+        private long moves;
+
+        /**
+         * Constructs a Driver with its own Selector.
+         * @param seed seed of the random moves
+         * @throws IOException if the Selector cannot be opened
+         */
+        Driver(long seed) throws IOException {
+            selector = Selector.open();
+            random = new SplittableRandom(seed);
+            latency = new Histogram();
+            newGame = ("NEW " + size + "\n").getBytes();
+        }
+
+        /**
+         * Connects one client, which sends nothing until the load starts.
+         * @throws IOException if the client cannot connect
+         */
+        void connect() throws IOException {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Client(channel, pipeline));
+        }
+
+        /**
+         * Sends the first commands of every client, then reads answers and sends new commands
+         * until the time is up.
+         * @param end value of System.nanoTime to stop at
+         */
+        void run(long end) {
+            try {
+                for (SelectionKey key: selector.keys()) {
+                    Client client = (Client) key.attachment();
+                    client.send(newGame, System.nanoTime());
+                    client.renewing = true;
+                    for (int i = 1; i < pipeline; i++) {
+                        client.send(MOVES[random.nextInt(4)], System.nanoTime());
+                    }
+                    client.flush();
+                }
+                while (System.nanoTime() < end) {
+                    selector.select(100);
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        answer((Client) key.attachment());
+                    }
+                }
+                for (SelectionKey key: selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Handles every answer a client has received, sending one new command for each.
+         * @param client the client
+         * @throws IOException if the connection fails
+         */
+        private void answer(Client client) throws IOException {
+            if (client.channel.read(client.in) < 0)
+                throw new IOException("server closed a connection");
+            client.in.flip();
+            byte[] bytes = client.in.array();
+            long now = System.nanoTime();
+            while (true) {
+                int start = client.in.position();
+                int end = start;
+                while (end < client.in.limit() && bytes[end] != '\n') {
+                    end++;
+                }
+                if (end == client.in.limit())
+                    break;
+                client.in.position(end + 1);
+
+                latency.record(now - client.sent[client.head]);
+                client.head = (client.head + 1) % client.sent.length;
+                client.count--;
+                answers++;
+                if (bytes[start] == 'S') {
+                    client.renewing = false; // the STATE answer of NEW
+                } else if (bytes[start] == 'O') {
+                    // "OK moved score won lost"
+                    if (bytes[start + 3] == '1')
+                        moves++;
+                    if (bytes[end - 1] == '1' && !client.renewing) {
+                        client.send(newGame, now);
+                        client.renewing = true;
+                        continue;
+                    }
+                } else {
+                    throw new IOException("unexpected answer: " + new String(bytes, start, end - start));
+                }
+                client.send(MOVES[random.nextInt(4)], now);
+            }
+            client.in.compact();
+            client.flush();
+        }
+    }
+
+    private static final byte[][] MOVES = {
+        "MOVE UP\n".getBytes(), "MOVE DOWN\n".getBytes(), "MOVE LEFT\n".getBytes(), "MOVE RIGHT\n".getBytes()
+    };
+
+    /**
+     * This class is one client's connection and the send times of its commands in flight.
+     */
+    private static class Client {
+        private SocketChannel channel;
+        private ByteBuffer in;
+        private ByteBuffer out;
+        private long[] sent;
+        private int head;
+        private int count;
+        private boolean renewing;
+
+        /**
+         * Constructs a Client on a connection.
+         * @param channel the connection
+         * @param pipeline number of commands kept in flight
+         */
+        Client(SocketChannel channel, int pipeline) {
+            this.channel = channel;
+            in = ByteBuffer.allocate(4096);
+            out = ByteBuffer.allocate(4096);
+            sent = new long[pipeline];
+        }
+
+        /**
+         * Queues a command, remembering when it was sent.
+         * @param command the command's bytes
+         * @param now the current System.nanoTime
+         */
+        void send(byte[] command, long now) {
+            out.put(command);
+            sent[(head + count++) % sent.length] = now;
+        }
+
+        /**
+         * Writes the queued commands.
+         * @throws IOException if the connection fails
+         */
+        void flush() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+    }
+}
@@ -0,0 +1,519 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class serves headless games over a line-based TCP protocol.
+ * Every connection owns one Session, and every Session is owned by one event loop thread,
+ * so sessions are never locked. Each loop multiplexes thousands of connections on a Selector.
+ * All the commands that arrive in one read are answered together in a single write.
+ *
+ * Commands, one per line, each answered with one line:
+ *   NEW [size] [seed]  starts a game, answered like STATE
+ *   MOVE dir           plays a turn (UP, DOWN, LEFT, RIGHT or U, D, L, R),
+ *                      answered with "OK moved score won lost" as 0s and 1s
+ *   STATE              answered with "STATE size score won lost" and every exponent, comma separated
+ *   QUIT               answered with "BYE", then the connection is closed
+ * Anything else is answered with "ERR message".
+ *
+ * Usage: java SessionServer [--port 2048] [--threads cores] [--stats]
+ */
+public class SessionServer {
+    public static final int PORT = 2048;
+
+    private ServerSocketChannel server;
+    private Loop[] loops;
+    private volatile boolean running;
+
+    /**
+     * Opens the server on a local port, without accepting yet.
+     * @param port the port, or 0 for any free port
+     * @param threads number of event loop threads
+     * @throws IOException if the port cannot be opened
+     */
+    public SessionServer(int port, int threads) throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+        loops = new Loop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new Loop();
+        }
+    }
+
+    /**
+     * Gets the port the server listens on.
+     * @return the port
+     * @throws IOException if the address cannot be read
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Starts the event loops and accepts connections on a background thread.
+     */
+    public void start() {
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "session-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Thread acceptor = new Thread(() -> accept(), "session-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Accepts connections, handing them to the event loops in turn.
+     */
+    private void accept() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = server.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].add(channel);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                if (!running)
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Stops accepting and closes every connection.
+     * @throws IOException if the server cannot be closed
+     */
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        for (Loop loop: loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    /**
+     * Counts the open sessions of every loop.
+     * @return the number of sessions
+     */
+    public int getSessions() {
+        int sessions = 0;
+        for (Loop loop: loops) {
+            sessions += loop.sessions;
+        }
+        return sessions;
+    }
+
+    /**
+     * Counts the turns played by every loop.
+     * @return the number of moves
+     */
+    public long getMoves() {
+        long moves = 0;
+        for (Loop loop: loops) {
+            moves += loop.moves;
+        }
+        return moves;
+    }
+
+    /**
+     * This class is one event loop thread and the sessions it owns.
+     */
+    private class Loop implements Runnable {
+        private Selector selector;
+        private ConcurrentLinkedQueue<SocketChannel> added;
+        private SplittableRandom seeds;
+        // Written only by the loop thread, read by getSessions and getMoves
+        private volatile int sessions;
+        private volatile long moves;
+
+        /**
+         * Constructs a Loop with its own Selector.
+         * @throws IOException if the Selector cannot be opened
+         */
+        Loop() throws IOException {
+            selector = Selector.open();
+            added = new ConcurrentLinkedQueue<SocketChannel>();
+            seeds = new SplittableRandom();
+        }
+
+        /**
+         * Hands a new connection to this loop.
+         * @param channel the connection, in non-blocking mode
+         */
+        void add(SocketChannel channel) {
+            added.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Runs the loop until the server closes.
+         */
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = added.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ, new Session(channel, seeds.split()));
+                        sessions++;
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                } catch (IOException e) {
+                    // A failure of the selector itself ends the loop
+                    return;
+                }
+            }
+            for (SelectionKey key: selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) { }
+            }
+        }
+
+        /**
+         * Reads, answers and writes for one ready connection.
+         * @param key the connection's key
+         */
+        private void handle(SelectionKey key) {
+            Session session = (Session) key.attachment();
+            try {
+                if (key.isReadable() && session.read() < 0) {
+                    close(key);
+                    return;
+                }
+                moves += session.process();
+                while (session.flush()) {
+                    if (session.isClosing()) {
+                        close(key);
+                        return;
+                    }
+                    if (!session.isStalled()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                    moves += session.process();
+                }
+                key.interestOps(SelectionKey.OP_WRITE); // reads wait until the answers are sent
+            } catch (IOException e) {
+                close(key);
+            }
+        }
+
+        /**
+         * Closes a connection and forgets its session.
+         * @param key the connection's key
+         */
+        private void close(SelectionKey key) {
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException e) { }
+            sessions--;
+        }
+    }
+
+    /**
+     * Runs a server until the process is stopped.
+     * @param args --port followed by the port, --threads followed by the number of loops,
+     *             and --stats to print the sessions and moves every second
+     * @throws IOException if the port cannot be opened
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean stats = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port"))
+                port = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--threads"))
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--stats"))
+                stats = true;
+        }
+
+        SessionServer server = new SessionServer(port, threads);
+        server.start();
+        System.out.println("Serving on port " + server.getPort() + " with " + threads + " loops");
+        long last = 0;
+        while (true) {
+            Thread.sleep(1000);
+            if (stats) {
+                long moves = server.getMoves();
+                System.out.println(server.getSessions() + " sessions, " + (moves - last) + " moves/s");
+                last = moves;
+            }
+        }
+    }
+}
+
+/**
+ * This class is one client's connection and game on a SessionServer.
+ * It is only used by the loop thread that owns it, so it is not synchronized.
+ */
+class Session {
+    private static final int BUFFER_SIZE = 8192;
+    // Room kept free in the output for one answer, the longest being STATE on an 8x8 board
+    private static final int MAX_ANSWER = 256;
+
+    private SocketChannel channel;
+    private SplittableRandom seeds;
+    private ByteBuffer in;
+    private ByteBuffer out;
+    private GameEngine engine;
+    private boolean closing;
+    // Set when answering stopped because the output was full
+    private boolean stalled;
+
+    /**
+     * Constructs a Session for a connection.
+     * @param channel the connection
+     * @param seeds generator of the seeds of new games
+     */
+    Session(SocketChannel channel, SplittableRandom seeds) {
+        this.channel = channel;
+        this.seeds = seeds;
+        in = ByteBuffer.allocate(BUFFER_SIZE);
+        out = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Reads whatever the client has sent.
+     * @return the number of bytes read, or -1 if the client closed the connection
+     * @throws IOException if the connection fails
+     */
+    int read() throws IOException {
+        if (!in.hasRemaining())
+            throw new IOException("command too long");
+        return channel.read(in);
+    }
+
+    /**
+     * Answers every complete command read so far, while the output has room.
+     * @return the number of turns played
+     */
+    int process() {
+        in.flip();
+        int moves = 0;
+        byte[] bytes = in.array();
+        stalled = false;
+        while (!closing) {
+            if (out.remaining() < MAX_ANSWER) {
+                stalled = true;
+                break;
+            }
+            int start = in.position();
+            int end = start;
+            while (end < in.limit() && bytes[end] != '\n') {
+                end++;
+            }
+            if (end == in.limit())
+                break; // the rest of the line has not arrived yet
+            in.position(end + 1);
+            if (end > start && bytes[end - 1] == '\r')
+                end--;
+            moves += answer(bytes, start, end);
+        }
+        in.compact();
+        return moves;
+    }
+
+    /**
+     * Writes as much of the pending answers as the connection accepts.
+     * @return true if everything was written
+     * @throws IOException if the connection fails
+     */
+    boolean flush() throws IOException {
+        out.flip();
+        channel.write(out);
+        boolean done = !out.hasRemaining();
+        out.compact();
+        return done;
+    }
+
+    /**
+     * Checks if commands are waiting for room in the output.
+     * @return true if process stopped before answering every complete command
+     */
+    boolean isStalled() {
+        return stalled;
+    }
+
+    /**
+     * Checks if the client has quit.
+     * @return true once QUIT has been answered
+     */
+    boolean isClosing() {
+        return closing;
+    }
+
+    /**
+     * Answers one command.
+     * @param bytes buffer holding the command
+     * @param start index of its first byte
+     * @param end index after its last byte
+     * @return 1 if a turn was played, otherwise 0
+     */
+    private int answer(byte[] bytes, int start, int end) {
+        int space = start;
+        while (space < end && bytes[space] != ' ') {
+            space++;
+        }
+        if (is(bytes, start, space, "MOVE")) {
+            if (engine == null) {
+                put("ERR no game, send NEW first\n");
+                return 0;
+            }
+            int direction = space + 1 < end ? direction(bytes[space + 1]) : -1;
+            if (direction < 0) {
+                put("ERR unknown direction\n");
+                return 0;
+            }
+            boolean moved = engine.move(direction);
+            put("OK ");
+            put(moved ? '1' : '0');
+            put(' ');
+            put(engine.getScore());
+            put(engine.isWon() ? " 1" : " 0");
+            put(engine.isLost() ? " 1\n" : " 0\n");
+            return moved ? 1 : 0;
+        } else if (is(bytes, start, space, "STATE")) {
+            if (engine == null)
+                put("ERR no game, send NEW first\n");
+            else
+                putState();
+        } else if (is(bytes, start, space, "NEW")) {
+            newGame(new String(bytes, start, end - start, java.nio.charset.StandardCharsets.US_ASCII));
+        } else if (is(bytes, start, space, "QUIT")) {
+            put("BYE\n");
+            closing = true;
+        } else {
+            put("ERR unknown command\n");
+        }
+        return 0;
+    }
+
+    /**
+     * Starts a new game, reusing the engine when the board size is unchanged.
+     * @param line the NEW command
+     */
+    private void newGame(String line) {
+        String[] v = line.split(" "); // NEW, size, seed
+        int size = Board.SIZE;
+        long seed;
+        try {
+            if (v.length > 1)
+                size = Integer.parseInt(v[1]);
+            seed = v.length > 2 ? Long.parseLong(v[2]) : seeds.nextLong();
+        } catch (NumberFormatException e) {
+            put("ERR bad number\n");
+            return;
+        }
+        if (size < ByteBoard.MIN_SIZE || size > ByteBoard.MAX_SIZE) {
+            put("ERR bad size\n");
+            return;
+        }
+        if (engine != null && engine.getSize() == size)
+            engine.reset(seed);
+        else
+            engine = new GameEngine(size, seed);
+        putState();
+    }
+
+    /**
+     * Checks if a token is a command name.
+     * @param bytes buffer holding the token
+     * @param start index of its first byte
+     * @param end index after its last byte
+     * @param name the command name
+     * @return true if they match
+     */
+    private static boolean is(byte[] bytes, int start, int end, String name) {
+        if (end - start != name.length())
+            return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (bytes[start + i] != name.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Converts the first letter of a direction to its Board constant.
+     * @param letter 'U', 'D', 'L' or 'R'
+     * @return Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT, or -1 if unknown
+     */
+    private static int direction(byte letter) {
+        switch (letter) {
+            case 'U':
+                return Board.UP;
+            case 'D':
+                return Board.DOWN;
+            case 'L':
+                return Board.LEFT;
+            case 'R':
+                return Board.RIGHT;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Appends the STATE answer for the current game.
+     */
+    private void putState() {
+        int size = engine.getSize();
+        put("STATE ");
+        put(size);
+        put(' ');
+        put(engine.getScore());
+        put(engine.isWon() ? " 1" : " 0");
+        put(engine.isLost() ? " 1 " : " 0 ");
+        for (int i = 0; i < size*size; i++) {
+            if (i > 0)
+                put(',');
+            put(engine.get(i / size, i % size));
+        }
+        put('\n');
+    }
+
+    /**
+     * Appends ASCII text to the output.
+     * @param text the text
+     */
+    private void put(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            out.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * Appends one ASCII character to the output.
+     * @param c the character
+     */
+    private void put(char c) {
+        out.put((byte) c);
+    }
+
+    /**
+     * Appends a non-negative number to the output in decimal, without allocating.
+     * @param n the number
+     */
+    private void put(long n) {
+        if (n >= 10)
+            put(n / 10);
+        out.put((byte) ('0' + n % 10));
+    }
+}
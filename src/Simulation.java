@@ -0,0 +1,274 @@
+import java.util.*;
+
+/**
+ * This class plays many headless games at once with a simple strategy, then reports how fast
+ * they were played and how they ended: score percentiles, how often each tile was the largest,
+ * and how many games were won.
+ *
+ * Each thread plays every threads-th game into tallies of its own, which are merged once every
+ * thread has finished, so threads share nothing while they play. Game i is always played with
+ * seed+i, so a run ends with the same results on any number of threads.
+ */
+public class Simulation {
+    public static final String[] STRATEGIES = {"random", "greedy", "corner"};
+    public static final int RANDOM = 0;
+    public static final int GREEDY = 1;
+    public static final int CORNER = 2;
+
+    // Moves the corner strategy tries in order, which keeps the largest tiles in the bottom left
+    private static final int[] CORNER_ORDER = {Board.DOWN, Board.LEFT, Board.RIGHT, Board.UP};
+
+    private int size;
+    private int strategy;
+    private long seed;
+
+    private long[] scores;
+    private long[] largest;
+    private long wins;
+    private long moves;
+    private int threads;
+    private long nanos;
+
+    /**
+     * Constructs a Simulation.
+     * @param size number of rows and columns of every board
+     * @param strategy RANDOM, GREEDY or CORNER
+     * @param seed seed of the first game
+     */
+    public Simulation(int size, int strategy, long seed) {
+        if (size < ByteBoard.MIN_SIZE || size > ByteBoard.MAX_SIZE)
+            throw new IllegalArgumentException("board size " + size + " is not between "
+                + ByteBoard.MIN_SIZE + " and " + ByteBoard.MAX_SIZE);
+        if (strategy < 0 || strategy >= STRATEGIES.length)
+            throw new IllegalArgumentException("unknown strategy " + strategy);
+        this.size = size;
+        this.strategy = strategy;
+        this.seed = seed;
+    }
+
+    /**
+     * Finds a strategy by name.
+     * @param name "random", "greedy" or "corner"
+     * @return RANDOM, GREEDY or CORNER
+     * @throws IllegalArgumentException if there is no such strategy
+     */
+    public static int parseStrategy(String name) {
+        for (int i = 0; i < STRATEGIES.length; i++) {
+            if (STRATEGIES[i].equalsIgnoreCase(name))
+                return i;
+        }
+        throw new IllegalArgumentException("unknown strategy " + name + ", expected one of " + Arrays.toString(STRATEGIES));
+    }
+
+    /**
+     * Plays games on several threads and merges what each thread tallied.
+     * @param games number of games
+     * @param threads number of threads
+     */
+    public void run(int games, int threads) {
+        threads = Math.max(1, Math.min(threads, games));
+        Simulator[] simulators = new Simulator[threads];
+        for (int t = 0; t < threads; t++) {
+            simulators[t] = new Simulator(this, t, threads, games);
+        }
+        long start = System.nanoTime();
+        for (Simulator simulator: simulators) {
+            simulator.start();
+        }
+        try {
+            for (Simulator simulator: simulators) {
+                simulator.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while simulating", e);
+        }
+        nanos = System.nanoTime() - start;
+        this.threads = threads;
+
+        scores = new long[games];
+        largest = new long[ByteBoard.MAX_EXPONENT + 1];
+        wins = 0;
+        moves = 0;
+        int n = 0;
+        for (Simulator simulator: simulators) {
+            System.arraycopy(simulator.scores, 0, scores, n, simulator.count);
+            n += simulator.count;
+            for (int e = 0; e < largest.length; e++) {
+                largest[e] += simulator.largest[e];
+            }
+            wins += simulator.wins;
+            moves += simulator.moves;
+        }
+        Arrays.sort(scores);
+    }
+
+    /**
+     * Plays one game to its end.
+     * @param engine engine to play on, reset to the game's seed
+     * @param random generator of the random strategy
+     * @param cells buffer of size*size exponents
+     * @return the number of moves played
+     */
+    int play(GameEngine engine, SplittableRandom random, byte[] cells) {
+        int played = 0;
+        while (engine.canMove()) {
+            switch (strategy) {
+                case RANDOM:
+                    int first = random.nextInt(4);
+                    for (int k = 0; k < 4; k++) {
+                        if (engine.move((first + k) & 3))
+                            break;
+                    }
+                    break;
+                case GREEDY:
+                    engine.move(greedyMove(engine, cells));
+                    break;
+                default:
+                    for (int d: CORNER_ORDER) {
+                        if (engine.move(d))
+                            break;
+                    }
+            }
+            played++;
+        }
+        return played;
+    }
+
+    /**
+     * Finds the move that scores the most, preferring moves in the corner strategy's order.
+     * @param engine the engine, which can move
+     * @param cells buffer of size*size exponents
+     * @return Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     */
+    private int greedyMove(GameEngine engine, byte[] cells) {
+        int best = -1;
+        long bestScore = -1;
+        for (int d: CORNER_ORDER) {
+            engine.copyCells(cells, 0);
+            long result = ByteBoard.move(cells, size, d);
+            if (GameEngine.moved(result) && result >>> 1 > bestScore) {
+                bestScore = result >>> 1;
+                best = d;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Gets the number of rows and columns of every board.
+     * @return the board size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the seed of the first game.
+     * @return the seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Gets the score that a share of the games reached, by the nearest rank.
+     * @param percentile the share of games, from 0 to 100
+     * @return the score
+     */
+    public long percentile(double percentile) {
+        int rank = (int) Math.ceil(scores.length * percentile / 100);
+        return scores[Math.max(0, Math.min(scores.length - 1, rank - 1))];
+    }
+
+    /**
+     * Gets the mean score.
+     * @return the mean
+     */
+    public double getMeanScore() {
+        double total = 0; // a sum of long scores could overflow a long
+        for (long score: scores) {
+            total += score;
+        }
+        return total / scores.length;
+    }
+
+    /**
+     * Gets the share of games that were won.
+     * @return the win rate, from 0 to 1
+     */
+    public double getWinRate() {
+        return (double) wins / scores.length;
+    }
+
+    /**
+     * Prints how fast the games were played and how they ended.
+     */
+    public void print() {
+        int games = scores.length;
+        System.out.printf("%dx%d %s: %d games on %d threads in %.2f s, %.1f games/s, %.2fM moves/s, seed %d%n",
+            size, size, STRATEGIES[strategy], games, threads, nanos / 1e9, games * 1e9 / nanos, moves * 1e3 / nanos, seed);
+        System.out.printf("score: mean %.1f, p10 %d, p50 %d, p90 %d, p99 %d, max %d%n", getMeanScore(),
+            percentile(10), percentile(50), percentile(90), percentile(99), scores[games - 1]);
+        System.out.println("largest tile:");
+        for (int e = 0; e < largest.length; e++) {
+            if (largest[e] > 0)
+                System.out.printf("%12d %7.2f%%%n", 1L << e, largest[e] * 100.0 / games);
+        }
+        System.out.printf("won (%d): %.2f%%%n", GameEngine.WIN_SCORE, getWinRate() * 100);
+    }
+}
+
+/**
+ * This class plays one thread's share of a Simulation and tallies how its games ended.
+ */
+class Simulator extends Thread {
+    private final Simulation simulation;
+    private final int first;
+    private final int step;
+    private final int games;
+    final long[] scores;
+    final long[] largest = new long[ByteBoard.MAX_EXPONENT + 1];
+    int count;
+    long wins;
+    long moves;
+
+    /**
+     * Constructs a Simulator.
+     * @param simulation the simulation
+     * @param first index of the first game it plays
+     * @param step distance between the games it plays
+     * @param games number of games of the whole simulation
+     */
+    Simulator(Simulation simulation, int first, int step, int games) {
+        super("simulator-" + first);
+        this.simulation = simulation;
+        this.first = first;
+        this.step = step;
+        this.games = games;
+        scores = new long[(games - first + step - 1) / step];
+    }
+
+    /**
+     * Plays every step-th game, starting from the first.
+     */
+    public void run() {
+        int size = simulation.getSize();
+        GameEngine engine = new GameEngine(size, simulation.getSeed() + first);
+        byte[] cells = new byte[size*size];
+        for (int g = first; g < games; g += step) {
+            long seed = simulation.getSeed() + g;
+            engine.reset(seed);
+            moves += simulation.play(engine, new SplittableRandom(~seed), cells);
+            engine.copyCells(cells, 0);
+            int max = 0;
+            for (byte exponent: cells) {
+                max = Math.max(max, exponent);
+            }
+            largest[max]++;
+            if (engine.isWon())
+                wins++;
+            scores[count++] = engine.getScore();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * This class is an immutable state of a GameLoop, handed from the logic thread to the view.
+ */
+class Snapshot {
+    private final GameState state;
+    private final long pressed;
+    private final int games;
+    private final boolean undone;
+
+    /**
+     * Constructs a Snapshot.
+     * @param state the engine's state
+     * @param pressed when the oldest command it shows was issued
+     * @param games number of new games started before this one
+     * @param undone true if a turn of this game has been undone
+     */
+    Snapshot(GameState state, long pressed, int games, boolean undone) {
+        this.state = state;
+        this.pressed = pressed;
+        this.games = games;
+        this.undone = undone;
+    }
+
+    /**
+     * Gets the engine's state.
+     * @return the state
+     */
+    public GameState getState() {
+        return state;
+    }
+
+    /**
+     * Gets when the oldest command shown by this snapshot was issued.
+     * @return value of System.nanoTime when it was issued
+     */
+    public long getPressed() {
+        return pressed;
+    }
+
+    /**
+     * Gets the number of new games started, which changes when the game is reset.
+     * @return the count
+     */
+    public int getGames() {
+        return games;
+    }
+
+    /**
+     * Gets if a turn of this game has been undone, so it no longer follows its seed.
+     * @return true if undone, otherwise false
+     */
+    public boolean isUndone() {
+        return undone;
+    }
+}
@@ -0,0 +1,956 @@
+import java.io.*;
+import java.lang.management.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/**
+ * This class is an exact solution of 2x2 and 3x3 games, read from a memory-mapped file.
+ * For every reachable position it holds the move that maximizes the expected final score,
+ * or the chance of reaching a target tile, and that optimal value.
+ *
+ * Positions are solved by retrograde analysis. Every turn adds a 2 or a 4 to the sum of the
+ * tiles, so positions fall into layers by tile sum and a position's value only depends on the
+ * two layers above it. The generator enumerates the layers forward from the starting
+ * positions, then solves them from the last layer back, in parallel within each layer.
+ * The eight rotations and reflections of a board share one entry.
+ *
+ * Each layer of the file is indexed by a perfect hash (hash and displace), so a lookup reads
+ * one displacement and one entry whatever the size of the table.
+ */
+public class Tablebase {
+    public static final int MIN_SIZE = 2;
+    public static final int MAX_SIZE = 3;
+    public static final int MAGIC = 0x32303438; // "2048"
+
+    private static final double SPAWN_2 = 0.9;
+    private static final double SPAWN_4 = 0.1;
+    private static final int HEADER = 16;
+    private static final int LAYER_HEADER = 20;
+    private static final int CHUNK = 1024;
+
+    // An entry is the canonical board in the low bits and its best move plus one above it
+    static final long KEY_MASK = (1L << 60) - 1;
+    static final int MOVE_SHIFT = 60;
+
+    private int size;
+    private int target;
+    private SmallBoard rules;
+    private MappedByteBuffer map;
+    private int[] entries;
+    private int[] values;
+    private int[] displacements;
+    private int[] slots;
+    private int[] buckets;
+    private long states;
+
+    /**
+     * Opens a tablebase file written by generate.
+     * @param file the file
+     * @throws IOException if the file cannot be read or is not a tablebase
+     */
+    public Tablebase(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large to map");
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (map.capacity() < HEADER || map.getInt(0) != MAGIC)
+            throw new IOException(file + " is not a tablebase");
+        size = map.getInt(4);
+        target = map.getInt(8);
+        int layers = map.getInt(12);
+        if (size < MIN_SIZE || size > MAX_SIZE || layers < 0 || HEADER + (long) layers*LAYER_HEADER > map.capacity())
+            throw new IOException(file + " is corrupt");
+        rules = new SmallBoard(size);
+
+        entries = new int[layers];
+        values = new int[layers];
+        displacements = new int[layers];
+        slots = new int[layers];
+        buckets = new int[layers];
+        for (int i = 0; i < layers; i++) {
+            int header = HEADER + i*LAYER_HEADER;
+            long offset = map.getLong(header);
+            states += map.getInt(header + 8);
+            slots[i] = map.getInt(header + 12);
+            buckets[i] = map.getInt(header + 16);
+            if (offset + sectionSize(slots[i], buckets[i]) > map.capacity())
+                throw new IOException(file + " is corrupt");
+            entries[i] = (int) offset;
+            values[i] = entries[i] + 8*slots[i];
+            displacements[i] = values[i] + 4*slots[i];
+        }
+    }
+
+    /**
+     * Gets the number of rows and columns of the boards solved.
+     * @return the board size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the tile whose chance of being reached is maximized, if any.
+     * @return the tile's exponent, or 0 if the expected score is maximized
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Gets the number of positions solved, counting each set of symmetric boards once.
+     * @return the count
+     */
+    public long getStates() {
+        return states;
+    }
+
+    /**
+     * Looks up the best move of a position.
+     * @param cells exponents of the cells, in row-major order
+     * @return Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT, or -1 if no move is left,
+     *         the target tile is reached or the position is not in the table
+     */
+    public int bestMove(byte[] cells) {
+        long board = pack(cells);
+        if (board < 0)
+            return -1;
+        int transform = rules.canonicalTransform(board);
+        int layer = rules.tileSum(board) / 2;
+        int slot = find(rules.transform(board, transform), layer);
+        if (slot < 0)
+            return -1;
+        int move = (int) (map.getLong(entries[layer] + 8*slot) >>> MOVE_SHIFT);
+        return move == 0 ? -1 : rules.inverseDirection(transform, move - 1);
+    }
+
+    /**
+     * Looks up the value of a position with optimal play.
+     * @param cells exponents of the cells, in row-major order
+     * @return the expected score still to be gained, or the chance of reaching the target tile,
+     *         or NaN if the position is not in the table
+     */
+    public double value(byte[] cells) {
+        long board = pack(cells);
+        if (board < 0)
+            return Double.NaN;
+        int layer = rules.tileSum(board) / 2;
+        int slot = find(rules.canonical(board), layer);
+        return slot < 0 ? Double.NaN : map.getFloat(values[layer] + 4*slot);
+    }
+
+    /**
+     * Packs the cells of a game into a board of 4-bit exponents.
+     * @param cells exponents of the cells
+     * @return the board, or -1 if the size does not match or a tile is too large to be solved
+     */
+    private long pack(byte[] cells) {
+        if (cells.length != size*size)
+            return -1;
+        long board = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] > SmallBoard.MAX_EXPONENT)
+                return -1;
+            board |= (long) cells[i] << 4*i;
+        }
+        return board;
+    }
+
+    /**
+     * Finds the slot of a canonical board.
+     * @param key the canonical board
+     * @param layer its layer, half the sum of its tiles
+     * @return the slot, or -1 if the board is not in the table
+     */
+    private int find(long key, int layer) {
+        if (layer >= slots.length || slots[layer] == 0)
+            return -1;
+        int displacement = map.getInt(displacements[layer] + 4*bucket(key, buckets[layer]));
+        int slot = slot(key, displacement, slots[layer]);
+        return (map.getLong(entries[layer] + 8*slot) & KEY_MASK) == key ? slot : -1;
+    }
+
+    /**
+     * Mixes the bits of a board, with the finalizer of MurmurHash3.
+     * @param x the board
+     * @return the hash
+     */
+    static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB9FE1A85EC53L;
+        return x ^ (x >>> 33);
+    }
+
+    /**
+     * Finds the bucket of a board in the perfect hash of its layer.
+     * @param key the canonical board
+     * @param buckets number of buckets
+     * @return the bucket
+     */
+    static int bucket(long key, int buckets) {
+        return (int) (((mix(key) >>> 32) * buckets) >>> 32);
+    }
+
+    /**
+     * Finds the slot of a board in the perfect hash of its layer.
+     * @param key the canonical board
+     * @param displacement the displacement of its bucket
+     * @param slots number of slots
+     * @return the slot
+     */
+    static int slot(long key, int displacement, int slots) {
+        long h = mix(key + displacement * 0x9E3779B97F4A7C15L);
+        return (int) (((h & 0xFFFFFFFFL) * slots) >>> 32);
+    }
+
+    /**
+     * Finds the bytes a layer takes in the file: its entries, values and displacements.
+     * @param slots number of slots
+     * @param buckets number of buckets
+     * @return the size in bytes, a multiple of 8
+     */
+    private static long sectionSize(int slots, int buckets) {
+        return ((12L*slots + 4L*buckets) + 7) & ~7L;
+    }
+
+    /**
+     * Solves every reachable position of a board size and writes the tablebase file.
+     * @param size number of rows and columns, from MIN_SIZE to MAX_SIZE
+     * @param target exponent of the tile whose chance of being reached is maximized,
+     *               or 0 to maximize the expected score
+     * @param file the file to write
+     * @param pool pool that expands and solves each layer in parallel
+     * @return the number of positions solved
+     * @throws IOException if the file cannot be written
+     */
+    public static long generate(int size, int target, File file, ForkJoinPool pool) throws IOException {
+        if (size < MIN_SIZE || size > MAX_SIZE)
+            throw new IllegalArgumentException("size must be between " + MIN_SIZE + " and " + MAX_SIZE);
+        SmallBoard rules = new SmallBoard(size);
+        int cells = size*size;
+
+        // Forward: every layer's canonical boards, from the starting positions
+        ArrayList<ArrayList<long[]>> pending = new ArrayList<ArrayList<long[]>>();
+        ArrayList<long[]> layers = new ArrayList<long[]>();
+        for (int i = 0; i < cells; i++) {
+            for (int j = 0; j < cells; j++) {
+                for (int a = 1; a <= 2 && i != j; a++) {
+                    for (int b = 1; b <= 2; b++) {
+                        long board = (long) a << 4*i | (long) b << 4*j;
+                        add(pending, rules.tileSum(board) / 2, new long[] {rules.canonical(board)});
+                    }
+                }
+            }
+        }
+        long states = 0;
+        for (int layer = 0; layer < pending.size(); layer++) {
+            long[] keys = distinct(pending.get(layer));
+            pending.set(layer, null);
+            layers.add(keys);
+            states += keys.length;
+            long[][][] children = pool.submit(() -> IntStream.range(0, (keys.length + CHUNK-1) / CHUNK).parallel()
+                    .mapToObj(chunk -> expand(rules, keys, chunk*CHUNK, Math.min(keys.length, (chunk+1)*CHUNK), target))
+                    .toArray(long[][][]::new)).join();
+            for (long[][] c: children) {
+                add(pending, layer + 1, c[0]);
+                add(pending, layer + 2, c[1]);
+            }
+        }
+
+        // Layout: every layer's section follows the headers, in order
+        int count = layers.size();
+        long[] offsets = new long[count];
+        long offset = (HEADER + (long) count*LAYER_HEADER + 7) & ~7L;
+        for (int layer = 0; layer < count; layer++) {
+            int n = layers.get(layer).length;
+            offsets[layer] = offset;
+            offset += n == 0 ? 0 : sectionSize(SolvedLayer.slots(n), SolvedLayer.buckets(n));
+        }
+
+        // Backward: each layer from the values of the two above it
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate((int) offsets[0]);
+            header.putInt(MAGIC).putInt(size).putInt(target).putInt(count);
+            SolvedLayer[] solved = new SolvedLayer[count + 2];
+            for (int layer = count-1; layer >= 0; layer--) {
+                long[] keys = layers.get(layer);
+                layers.set(layer, null);
+                byte[] moves = new byte[keys.length];
+                float[] value = new float[keys.length];
+                SolvedLayer twoUp = solved[layer + 1];
+                SolvedLayer fourUp = solved[layer + 2];
+                pool.submit(() -> IntStream.range(0, keys.length).parallel()
+                        .forEach(i -> solve(rules, keys[i], twoUp, fourUp, target, moves, value, i))).join();
+                solved[layer] = keys.length == 0 ? null : new SolvedLayer(keys, moves, value);
+                solved[layer + 2] = null;
+
+                int slots = solved[layer] == null ? 0 : solved[layer].values.length;
+                int buckets = solved[layer] == null ? 0 : solved[layer].displacements.length;
+                header.position(HEADER + layer*LAYER_HEADER);
+                header.putLong(offsets[layer]).putInt(keys.length).putInt(slots).putInt(buckets);
+                if (solved[layer] != null)
+                    write(channel, solved[layer].toBuffer(), offsets[layer]);
+            }
+            header.clear();
+            write(channel, header, 0);
+        }
+        return states;
+    }
+
+    /**
+     * Adds boards to a layer that is still being enumerated.
+     * @param pending boards found for each layer so far
+     * @param layer the layer
+     * @param boards the boards
+     */
+    private static void add(ArrayList<ArrayList<long[]>> pending, int layer, long[] boards) {
+        while (pending.size() <= layer) {
+            pending.add(new ArrayList<long[]>());
+        }
+        if (boards.length > 0)
+            pending.get(layer).add(boards);
+    }
+
+    /**
+     * Merges the boards found for a layer into one sorted array without duplicates.
+     * @param parts the boards
+     * @return the distinct boards, sorted
+     */
+    private static long[] distinct(ArrayList<long[]> parts) {
+        int length = 0;
+        for (long[] part: parts) {
+            length += part.length;
+        }
+        long[] boards = new long[length];
+        int n = 0;
+        for (long[] part: parts) {
+            System.arraycopy(part, 0, boards, n, part.length);
+            n += part.length;
+        }
+        Arrays.parallelSort(boards);
+        return unique(boards, length);
+    }
+
+    /**
+     * Removes the duplicates of a sorted array.
+     * @param boards the boards, sorted
+     * @param length number of boards used
+     * @return a new array of the distinct boards
+     */
+    private static long[] unique(long[] boards, int length) {
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            if (n == 0 || boards[i] != boards[n-1])
+                boards[n++] = boards[i];
+        }
+        return Arrays.copyOf(boards, n);
+    }
+
+    /**
+     * Finds the positions following a range of boards, after every move and spawn.
+     * @param rules the board size's move tables
+     * @param keys the canonical boards of a layer
+     * @param from index of the first board
+     * @param to index after the last board
+     * @param target exponent of the target tile, or 0; boards that reached it are not expanded
+     * @return the distinct canonical boards after a 2 spawned, then after a 4 spawned
+     */
+    private static long[][] expand(SmallBoard rules, long[] keys, int from, int to, int target) {
+        int cells = rules.size*rules.size;
+        long[] twos = new long[(to - from)*4*cells];
+        long[] fours = new long[twos.length];
+        int n = 0;
+        for (int k = from; k < to; k++) {
+            long board = keys[k];
+            if (target > 0 && rules.maxExponent(board) >= target)
+                continue;
+            for (int d = 0; d < 4; d++) {
+                long moved = rules.move(board, d);
+                if (moved == board)
+                    continue;
+                for (int i = 0; i < cells; i++) {
+                    if ((moved >>> 4*i & 15) == 0) {
+                        twos[n] = rules.canonical(moved | 1L << 4*i);
+                        fours[n++] = rules.canonical(moved | 2L << 4*i);
+                    }
+                }
+            }
+        }
+        Arrays.sort(twos, 0, n);
+        Arrays.sort(fours, 0, n);
+        return new long[][] {unique(twos, n), unique(fours, n)};
+    }
+
+    /**
+     * Solves one position from the solved layers above it.
+     * @param rules the board size's move tables
+     * @param board the canonical board
+     * @param twoUp the layer after a 2 spawns, null if empty
+     * @param fourUp the layer after a 4 spawns, null if empty
+     * @param target exponent of the target tile, or 0
+     * @param moves receives the best move plus one, or 0 if there is none
+     * @param values receives the value
+     * @param i index of the board in its layer
+     */
+    private static void solve(SmallBoard rules, long board, SolvedLayer twoUp, SolvedLayer fourUp, int target,
+            byte[] moves, float[] values, int i) {
+        if (target > 0 && rules.maxExponent(board) >= target) {
+            values[i] = 1;
+            return;
+        }
+        int cells = rules.size*rules.size;
+        double best = 0;
+        int move = -1;
+        for (int d = 0; d < 4; d++) {
+            long moved = rules.move(board, d);
+            if (moved == board)
+                continue;
+            double expected = 0;
+            int empty = 0;
+            for (int c = 0; c < cells; c++) {
+                if ((moved >>> 4*c & 15) == 0) {
+                    expected += SPAWN_2 * twoUp.value(rules.canonical(moved | 1L << 4*c))
+                            + SPAWN_4 * fourUp.value(rules.canonical(moved | 2L << 4*c));
+                    empty++;
+                }
+            }
+            double value = expected / empty + (target > 0 ? 0 : rules.score(board, d));
+            if (move < 0 || value > best) {
+                best = value;
+                move = d;
+            }
+        }
+        moves[i] = (byte) (move + 1);
+        values[i] = (float) best;
+    }
+
+    /**
+     * Writes a whole buffer at a position of a file.
+     * @param channel the file
+     * @param buffer the bytes, from its position to its limit
+     * @param position where to write them
+     * @throws IOException if the file cannot be written
+     */
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Finds the value of a new game with optimal play, over every starting position.
+     * @return the expected score, or the chance of reaching the target tile
+     */
+    public double newGameValue() {
+        int cells = size*size;
+        byte[] board = new byte[cells];
+        double total = 0;
+        for (int i = 0; i < cells; i++) {
+            for (int j = 0; j < cells; j++) {
+                for (int a = 1; a <= 2 && i != j; a++) {
+                    for (int b = 1; b <= 2; b++) {
+                        board[i] = (byte) a;
+                        board[j] = (byte) b;
+                        total += (a == 1 ? SPAWN_2 : SPAWN_4) * (b == 1 ? SPAWN_2 : SPAWN_4) * value(board);
+                        board[i] = 0;
+                        board[j] = 0;
+                    }
+                }
+            }
+        }
+        return total / (cells * (cells-1));
+    }
+
+    /**
+     * Finds the most heap used at once since the JVM started, over every heap pool.
+     * @return the peak in bytes
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    /**
+     * Generates a tablebase and reports its size and how fast it was solved.
+     * Usage: java Tablebase [--size 3] [--target 1024] [--threads cores] [--out tablebase-3x3.tb]
+     * @param args the options
+     * @throws IOException if the file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        int size = MAX_SIZE;
+        int target = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String out = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--size"))
+                size = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--target"))
+                target = Integer.numberOfTrailingZeros(Integer.parseInt(args[++i]));
+            else if (args[i].equals("--threads"))
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--out"))
+                out = args[++i];
+        }
+        File file = new File(out != null ? out : fileName(size));
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        long states = generate(size, target, file, pool);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        Tablebase tablebase = new Tablebase(file);
+        System.out.printf("%dx%d: %d positions in %.1f s, %.0f positions/s on %d threads%n", size, size, states,
+                seconds, states / seconds, threads);
+        System.out.printf("peak heap %.1f MB, %s %.1f MB%n", peakHeap() / 1048576.0, file, file.length() / 1048576.0);
+        if (target > 0)
+            System.out.printf("chance of reaching %d from a new game: %.4f%n", 1 << target, tablebase.newGameValue());
+        else
+            System.out.printf("expected score of a new game: %.1f%n", tablebase.newGameValue());
+    }
+
+    /**
+     * Gets the default file name of a board size's tablebase.
+     * @param size number of rows and columns
+     * @return the file name, e.g. "tablebase-3x3.tb"
+     */
+    public static String fileName(int size) {
+        return "tablebase-" + size + "x" + size + ".tb";
+    }
+}
+
+/**
+ * This class is a solved layer of a tablebase being generated, indexed by a perfect hash.
+ * Buckets of about BUCKET_KEYS boards are placed largest first, each with the first
+ * displacement that sends all of its boards to free slots.
+ */
+class SolvedLayer {
+    private static final int BUCKET_KEYS = 4;
+    private static final int MAX_DISPLACEMENT = 1 << 24;
+
+    final long[] entries;
+    final float[] values;
+    final int[] displacements;
+
+    /**
+     * Gets the number of slots of a layer, a little more than its boards so placing them is fast.
+     * @param n number of boards
+     * @return the number of slots
+     */
+    static int slots(int n) {
+        return n + n/16 + 1;
+    }
+
+    /**
+     * Gets the number of buckets of a layer.
+     * @param n number of boards
+     * @return the number of buckets
+     */
+    static int buckets(int n) {
+        return n / BUCKET_KEYS + 1;
+    }
+
+    /**
+     * Constructs a SolvedLayer, building its perfect hash.
+     * @param keys the canonical boards, distinct
+     * @param moves the best move of each board plus one, or 0 if there is none
+     * @param values the value of each board
+     * @throws IllegalStateException if no displacement places a bucket
+     */
+    SolvedLayer(long[] keys, byte[] moves, float[] values) {
+        int n = keys.length;
+        int slotCount = slots(n);
+        int bucketCount = buckets(n);
+        entries = new long[slotCount];
+        this.values = new float[slotCount];
+        displacements = new int[bucketCount];
+
+        // Groups the boards by bucket
+        int[] bucketOf = new int[n];
+        int[] start = new int[bucketCount + 1];
+        int largest = 0;
+        for (int i = 0; i < n; i++) {
+            bucketOf[i] = Tablebase.bucket(keys[i], bucketCount);
+            start[bucketOf[i] + 1]++;
+        }
+        for (int b = 0; b < bucketCount; b++) {
+            largest = Math.max(largest, start[b + 1]);
+            start[b + 1] += start[b];
+        }
+        int[] order = new int[n];
+        int[] next = Arrays.copyOf(start, bucketCount);
+        for (int i = 0; i < n; i++) {
+            order[next[bucketOf[i]]++] = i;
+        }
+
+        // Orders the buckets by size, largest first
+        int[] bySize = new int[largest + 2];
+        for (int b = 0; b < bucketCount; b++) {
+            bySize[largest - (start[b + 1] - start[b]) + 1]++;
+        }
+        for (int s = 0; s <= largest; s++) {
+            bySize[s + 1] += bySize[s];
+        }
+        int[] sorted = new int[bucketCount];
+        for (int b = 0; b < bucketCount; b++) {
+            sorted[bySize[largest - (start[b + 1] - start[b])]++] = b;
+        }
+
+        boolean[] taken = new boolean[slotCount];
+        int[] placed = new int[largest];
+        for (int b: sorted) {
+            int count = start[b + 1] - start[b];
+            if (count == 0)
+                break;
+            int displacement = 0;
+            while (!fits(keys, order, start[b], count, displacement, taken, placed)) {
+                if (++displacement == MAX_DISPLACEMENT)
+                    throw new IllegalStateException("no displacement places bucket " + b + " of " + bucketCount);
+            }
+            displacements[b] = displacement;
+            for (int j = 0; j < count; j++) {
+                int i = order[start[b] + j];
+                taken[placed[j]] = true;
+                entries[placed[j]] = keys[i] | (long) moves[i] << Tablebase.MOVE_SHIFT;
+                this.values[placed[j]] = values[i];
+            }
+        }
+    }
+
+    /**
+     * Checks if a displacement sends every board of a bucket to a different free slot.
+     * @param keys the canonical boards
+     * @param order indices of the boards, grouped by bucket
+     * @param first index in order of the bucket's first board
+     * @param count number of boards in the bucket
+     * @param displacement the displacement
+     * @param taken which slots are used
+     * @param placed receives the slot of each board
+     * @return true if every board has a slot of its own
+     */
+    private boolean fits(long[] keys, int[] order, int first, int count, int displacement, boolean[] taken, int[] placed) {
+        for (int j = 0; j < count; j++) {
+            int s = Tablebase.slot(keys[order[first + j]], displacement, entries.length);
+            if (taken[s])
+                return false;
+            for (int k = 0; k < j; k++) {
+                if (placed[k] == s)
+                    return false;
+            }
+            placed[j] = s;
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the value of a board of this layer.
+     * @param key the canonical board
+     * @return the value
+     * @throws IllegalStateException if the board was not enumerated
+     */
+    float value(long key) {
+        int s = Tablebase.slot(key, displacements[Tablebase.bucket(key, displacements.length)], entries.length);
+        if ((entries[s] & Tablebase.KEY_MASK) != key)
+            throw new IllegalStateException("board " + Long.toHexString(key) + " was not enumerated");
+        return values[s];
+    }
+
+    /**
+     * Encodes the layer as it is stored in the file: entries, values, then displacements,
+     * padded to a multiple of 8 bytes.
+     * @return a buffer ready to be written
+     */
+    ByteBuffer toBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate((12*entries.length + 4*displacements.length + 7) & ~7);
+        buffer.asLongBuffer().put(entries);
+        buffer.position(8*entries.length);
+        buffer.asFloatBuffer().put(values);
+        buffer.position(12*entries.length);
+        buffer.asIntBuffer().put(displacements);
+        buffer.position(0);
+        return buffer;
+    }
+}
+
+/**
+ * This class holds the move tables of a 2x2 or 3x3 board packed as 4-bit exponents,
+ * cell (r, c) at bits 4*(r*size + c), and its eight symmetries.
+ * Transform t transposes the board if bit 0 is set, then mirrors its columns if bit 1 is set,
+ * then mirrors its rows if bit 2 is set.
+ */
+class SmallBoard {
+    // Tiles on these boards stay far below 2^15, so a merge never overflows a cell
+    static final int MAX_EXPONENT = 15;
+    private static final int[] ROW_STEP = {-1, 1, 0, 0};
+    private static final int[] COLUMN_STEP = {0, 0, -1, 1};
+
+    final int size;
+    private final int rowBits;
+    private final int rowMask;
+    private final int[] left;
+    private final int[] right;
+    private final int[] leftScore;
+    private final int[] rightScore;
+    private final int[] reversed;
+    private final long[] transposed;
+    private final int[] inverse;
+
+    /**
+     * Constructs the tables of a board size, following the rules of ByteBoard.move.
+     * @param size number of rows and columns
+     */
+    SmallBoard(int size) {
+        this.size = size;
+        rowBits = 4*size;
+        rowMask = (1 << rowBits) - 1;
+        left = new int[1 << rowBits];
+        right = new int[1 << rowBits];
+        leftScore = new int[1 << rowBits];
+        rightScore = new int[1 << rowBits];
+        reversed = new int[1 << rowBits];
+        transposed = new long[size << rowBits];
+        byte[] cells = new byte[size*size];
+        for (int row = 0; row <= rowMask; row++) {
+            for (int c = 0; c < size; c++) {
+                int exponent = row >>> 4*c & 15;
+                reversed[row] |= exponent << 4*(size-1 - c);
+                for (int r = 0; r < size; r++) {
+                    transposed[r << rowBits | row] |= (long) exponent << 4*(c*size + r);
+                }
+            }
+            leftScore[row] = shift(cells, row, Board.LEFT);
+            left[row] = packRow(cells);
+            rightScore[row] = shift(cells, row, Board.RIGHT);
+            right[row] = packRow(cells);
+        }
+
+        inverse = new int[8*4];
+        for (int t = 0; t < 8; t++) {
+            for (int d = 0; d < 4; d++) {
+                inverse[t*4 + direction(t, d)] = d;
+            }
+        }
+    }
+
+    /**
+     * Shifts a single row with ByteBoard.move, in the first row of a board.
+     * @param cells receives the board after the move
+     * @param row the row
+     * @param direction Board.LEFT or Board.RIGHT
+     * @return the score of the move
+     */
+    private int shift(byte[] cells, int row, int direction) {
+        Arrays.fill(cells, (byte) 0);
+        for (int c = 0; c < size; c++) {
+            cells[c] = (byte) (row >>> 4*c & 15);
+        }
+        return (int) (ByteBoard.move(cells, size, direction) >>> 1);
+    }
+
+    /**
+     * Packs the first row of a board.
+     * @param cells the board
+     * @return the row
+     */
+    private int packRow(byte[] cells) {
+        int row = 0;
+        for (int c = 0; c < size; c++) {
+            row |= (cells[c] & 15) << 4*c;
+        }
+        return row;
+    }
+
+    /**
+     * Finds the direction a move becomes on a transformed board.
+     * @param t the transform
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @return the direction on the transformed board
+     */
+    private static int direction(int t, int direction) {
+        int dr = ROW_STEP[direction];
+        int dc = COLUMN_STEP[direction];
+        if ((t & 1) != 0) {
+            int swap = dr;
+            dr = dc;
+            dc = swap;
+        }
+        if ((t & 2) != 0)
+            dc = -dc;
+        if ((t & 4) != 0)
+            dr = -dr;
+        for (int d = 0; d < 4; d++) {
+            if (ROW_STEP[d] == dr && COLUMN_STEP[d] == dc)
+                return d;
+        }
+        throw new IllegalArgumentException("direction " + direction);
+    }
+
+    /**
+     * Finds the move on a board that becomes a given move on its transformed board.
+     * @param t the transform
+     * @param direction the direction on the transformed board
+     * @return the direction on the board
+     */
+    int inverseDirection(int t, int direction) {
+        return inverse[t*4 + direction];
+    }
+
+    /**
+     * Applies a table to every row of a board.
+     * @param board the board
+     * @param table result of each row
+     * @return the new board
+     */
+    private long rows(long board, int[] table) {
+        long result = 0;
+        for (int r = 0; r < size; r++) {
+            result |= (long) table[(int) (board >>> r*rowBits) & rowMask] << r*rowBits;
+        }
+        return result;
+    }
+
+    /**
+     * Swaps the rows and columns of a board.
+     * @param board the board
+     * @return the transposed board
+     */
+    long transpose(long board) {
+        long result = 0;
+        for (int r = 0; r < size; r++) {
+            result |= transposed[r << rowBits | (int) (board >>> r*rowBits) & rowMask];
+        }
+        return result;
+    }
+
+    /**
+     * Reverses the order of the rows of a board.
+     * @param board the board
+     * @return the flipped board
+     */
+    private long flip(long board) {
+        long result = 0;
+        for (int r = 0; r < size; r++) {
+            result |= (board >>> r*rowBits & rowMask) << (size-1 - r)*rowBits;
+        }
+        return result;
+    }
+
+    /**
+     * Applies one of the eight symmetries to a board.
+     * @param board the board
+     * @param t the transform
+     * @return the transformed board
+     */
+    long transform(long board, int t) {
+        if ((t & 1) != 0)
+            board = transpose(board);
+        if ((t & 2) != 0)
+            board = rows(board, reversed);
+        if ((t & 4) != 0)
+            board = flip(board);
+        return board;
+    }
+
+    /**
+     * Finds the smallest of the eight symmetric boards, which stands for all of them.
+     * @param board the board
+     * @return the canonical board
+     */
+    long canonical(long board) {
+        long transposed = transpose(board);
+        long mirrored = rows(board, reversed);
+        long both = rows(transposed, reversed);
+        long min = Math.min(Math.min(board, flip(board)), Math.min(mirrored, flip(mirrored)));
+        return Math.min(min, Math.min(Math.min(transposed, flip(transposed)), Math.min(both, flip(both))));
+    }
+
+    /**
+     * Finds a transform that turns a board into its canonical board.
+     * @param board the board
+     * @return the transform
+     */
+    int canonicalTransform(long board) {
+        long min = canonical(board);
+        for (int t = 0; t < 8; t++) {
+            if (transform(board, t) == min)
+                return t;
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Shifts the tiles of a board.
+     * @param board the board
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @return the new board, the same if no tile moved
+     */
+    long move(long board, int direction) {
+        switch (direction) {
+            case Board.UP:
+                return transpose(rows(transpose(board), left));
+            case Board.DOWN:
+                return transpose(rows(transpose(board), right));
+            case Board.LEFT:
+                return rows(board, left);
+            default:
+                return rows(board, right);
+        }
+    }
+
+    /**
+     * Finds the score of a move.
+     * @param board the board
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @return the sum of the merged tiles
+     */
+    int score(long board, int direction) {
+        if (direction == Board.UP || direction == Board.DOWN)
+            board = transpose(board);
+        int[] table = direction == Board.UP || direction == Board.LEFT ? leftScore : rightScore;
+        int score = 0;
+        for (int r = 0; r < size; r++) {
+            score += table[(int) (board >>> r*rowBits) & rowMask];
+        }
+        return score;
+    }
+
+    /**
+     * Adds up the tiles of a board.
+     * @param board the board
+     * @return the sum of the tiles
+     */
+    int tileSum(long board) {
+        int sum = 0;
+        for (int i = 0; i < size*size; i++) {
+            int exponent = (int) (board >>> 4*i & 15);
+            if (exponent != 0)
+                sum += 1 << exponent;
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the largest tile of a board.
+     * @param board the board
+     * @return its exponent
+     */
+    int maxExponent(long board) {
+        int max = 0;
+        for (int i = 0; i < size*size; i++) {
+            max = Math.max(max, (int) (board >>> 4*i & 15));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,210 @@
+import jdk.jfr.*;
+
+/**
+ * This class measures the game as it is played: frames and paint times, moves per second and
+ * the latency from a key press to the end of the first frame that shows its move.
+ * It also keeps the time the last new game took and the input queue's metrics.
+ * Recording is a few field updates per frame; the summary shown by the overlay is only
+ * rebuilt when roll is called, once a second while the overlay is visible.
+ *
+ * It also defines the custom Flight Recorder events of the game, which cost a disabled
+ * check when no recording is running. Move and spawn events are off by default, since
+ * headless games play millions of moves a second; game.jfc turns them on:
+ * java -XX:StartFlightRecording=filename=game.jfr,settings=default,settings=game.jfc -cp out Main
+ */
+public class Telemetry implements GameListener {
+    private Histogram paint;
+    private Histogram latency;
+    private long inputStart;
+    private int frames;
+    private int moves;
+    private long windowStart;
+    private long newGame;
+    private GameLoop loop;
+    private String[] lines;
+
+    /**
+     * Constructs a Telemetry with nothing recorded yet.
+     */
+    public Telemetry() {
+        paint = new Histogram();
+        latency = new Histogram();
+        windowStart = System.nanoTime();
+        lines = new String[] {"FPS -", "paint p50 - p99 -", "moves/s -", "input to pixel p50 - p99 -", "new game -", "queue -"};
+    }
+
+    /**
+     * Counts every turn played.
+     * @param engine the engine that changed
+     */
+    public void stateChanged(GameEngine engine) {
+        if (engine.getLastMove() >= 0)
+            moves++;
+    }
+
+    /**
+     * Marks that a move pressed at some time has been played, so the next frame shows it.
+     * If an earlier move has not been painted yet, its older time is kept.
+     * @param pressed value of System.nanoTime when the key was pressed
+     */
+    public void input(long pressed) {
+        if (inputStart == 0)
+            inputStart = pressed;
+    }
+
+    /**
+     * Records how long starting a new game took.
+     * @param nanos the time in nanoseconds
+     */
+    public void newGame(long nanos) {
+        newGame = nanos;
+    }
+
+    /**
+     * Sets the game loop whose queue depth, drops and coalesced repeats are summarized.
+     * @param loop the game loop
+     */
+    public void setLoop(GameLoop loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * Records a painted frame, and the latency of the move it shows if any.
+     * @param start value of System.nanoTime when painting started
+     * @param end value of System.nanoTime when painting ended
+     */
+    public void painted(long start, long end) {
+        paint.record(end - start);
+        frames++;
+        if (inputStart != 0) {
+            latency.record(end - inputStart);
+            inputStart = 0;
+        }
+    }
+
+    /**
+     * Gets the paint time of every frame since the last roll.
+     * @return the paint time histogram
+     */
+    public Histogram getPaint() {
+        return paint;
+    }
+
+    /**
+     * Gets the latency from key presses to the frames showing their moves, since the game started.
+     * @return the latency histogram
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Summarizes the window since the last call and starts a new one.
+     * Paint times are per window; input latency covers the whole game.
+     */
+    public void roll() {
+        long now = System.nanoTime();
+        double seconds = (now - windowStart) / 1e9;
+        lines[0] = String.format("FPS %.0f", frames / seconds);
+        lines[1] = String.format("paint p50 %.2f ms p99 %.2f ms", paint.percentile(50), paint.percentile(99));
+        lines[2] = String.format("moves/s %.1f", moves / seconds);
+        lines[3] = String.format("input to pixel p50 %.1f ms p99 %.1f ms", latency.percentile(50), latency.percentile(99));
+        lines[4] = newGame == 0 ? "new game -" : String.format("new game %.2f ms", newGame / 1e6);
+        if (loop != null) {
+            InputQueue queue = loop.getQueue();
+            lines[5] = String.format("queue %d max %d dropped %d coalesced %d skipped %d", queue.depth(),
+                queue.getMaxDepth(), queue.getDrops(), loop.getCoalesced(), loop.getSuperseded());
+        }
+        paint.reset();
+        frames = 0;
+        moves = 0;
+        windowStart = now;
+    }
+
+    /**
+     * Gets the summary built by the last roll, one line per statistic.
+     * @return the lines, not to be modified
+     */
+    public String[] getLines() {
+        return lines;
+    }
+
+    /**
+     * This event is one turn played by a GameEngine, timed without its listeners.
+     */
+    @Name("game.Move")
+    @Label("Move")
+    @Category("2048")
+    @Enabled(false)
+    @StackTrace(false)
+    static class MoveEvent extends Event {
+        @Label("Direction")
+        int direction;
+        @Label("Moved")
+        boolean moved;
+        @Label("Score Gained")
+        long gained;
+    }
+
+    /**
+     * This event is one tile spawned by a GameEngine.
+     */
+    @Name("game.Spawn")
+    @Label("Spawn")
+    @Category("2048")
+    @Enabled(false)
+    @StackTrace(false)
+    static class SpawnEvent extends Event {
+        @Label("Cell")
+        int cell;
+        @Label("Exponent")
+        int exponent;
+    }
+
+    /**
+     * This event is a new game started in place by a GameLoop.
+     */
+    @Name("game.NewGame")
+    @Label("New Game")
+    @Category("2048")
+    static class NewGameEvent extends Event {
+        @Label("Seed")
+        long seed;
+    }
+
+    /**
+     * This event is one frame painted by a GridPanel.
+     */
+    @Name("game.Paint")
+    @Label("Paint")
+    @Category("2048")
+    @StackTrace(false)
+    static class PaintEvent extends Event {
+        @Label("Animating")
+        boolean animating;
+    }
+
+    /**
+     * This event is the leaderboard reading its top scores, including opening its store.
+     */
+    @Name("game.LeaderboardLoad")
+    @Label("Leaderboard Load")
+    @Category("2048")
+    static class LeaderboardLoadEvent extends Event {
+        @Label("Scores")
+        int scores;
+    }
+
+    /**
+     * This event is a score added to the leaderboard, including saving its replay.
+     */
+    @Name("game.LeaderboardAdd")
+    @Label("Leaderboard Add")
+    @Category("2048")
+    static class LeaderboardAddEvent extends Event {
+        @Label("Score")
+        long score;
+        @Label("Added")
+        boolean added;
+    }
+}
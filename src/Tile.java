@@ -25,13 +25,11 @@ public class Tile {
     };
     
     private int value;
+    private int exponent;
     
     private int x;
     private int y;
     private int size;
-
-    private Color color;
-    private Color textColor;
     
     /**
      * Recursively calculuates the logarithm base 2 of the specified value.
@@ -75,13 +73,23 @@ public class Tile {
         setColor();
     }
     
+    /**
+     * Sets the value of the Tile from its exponent, skipping the logarithm.
+     * Values past 2^30 do not fit in an int, so getValue reads them as Integer.MAX_VALUE.
+     * @param exponent the exponent of the Tile's new value, 0 for an empty Tile
+     */
+    public void setExponent(int exponent) {
+        if (exponent == this.exponent)
+            return;
+        this.exponent = exponent;
+        value = exponent == 0 ? 0 : exponent < 31 ? 1 << exponent : Integer.MAX_VALUE;
+    }
+
     /**
      * Sets the Tile color based on value.
      */
     public void setColor() {
-        int power = logBase2(value);
-        color = power < TILE_COLORS.length ? TILE_COLORS[power] : TILE_COLORS[TILE_COLORS.length-1];
-        textColor = power <= 2 ? TEXT_COLORS[0] : TEXT_COLORS[1];
+        exponent = logBase2(value); // the color is looked up by exponent when painting
     }
 
     /**
@@ -103,22 +111,66 @@ public class Tile {
         t.setValue(0);
     }
     
+    /**
+     * Retrieves the exponent of the Tile's value.
+     * @return the exponent, 0 for an empty Tile
+     */
+    public int getExponent() {
+        return exponent;
+    }
+
     /**
      * Draws the Tile on the graphics context.
      * @param g2d graphics context to draw on
      */
     public void draw(Graphics2D g2d) {
-        g2d.setColor(color);
+        paint(g2d, exponent, x, y, size);
+    }
+
+    /**
+     * Draws the Tile as a pre-rendered sprite.
+     * @param g2d graphics context to draw on
+     * @param sprites cache of rendered Tiles
+     */
+    public void draw(Graphics2D g2d, TileSprites sprites) {
+        g2d.drawImage(sprites.get(exponent, size, g2d.getDeviceConfiguration()), x, y, null);
+    }
+
+    /**
+     * Paints a Tile with the specified exponent on the graphics context.
+     * @param g2d graphics context to draw on
+     * @param exponent exponent of the Tile's value, 0 for an empty Tile
+     * @param x the Tile's x-coordinate
+     * @param y the Tile's y-coordinate
+     * @param size the Tile's size
+     */
+    public static void paint(Graphics2D g2d, int exponent, int x, int y, int size) {
+        g2d.setColor(exponent < TILE_COLORS.length ? TILE_COLORS[exponent] : TILE_COLORS[TILE_COLORS.length-1]);
         g2d.fillRoundRect(x, y, size, size, size / 5, size / 5); // corner radii = 20%
         g2d.drawRoundRect(x, y, size, size, size / 5, size / 5);
         
-        if (value > 0) {
-            String text = toString();
-            Font f = new Font("Helvetica", Font.BOLD, size * 1 / 2 - (text.length() - 1) * 3); // smaller font for larger numbers
+        if (exponent > 0) {
+            String text = "" + (1L << exponent);
+            // Small Tiles on large boards shrink the font until the number fits, then write it as a power
+            int minimum = Math.max(6, size / 5);
+            int fontSize = Math.max(minimum, size * 1 / 2 - (text.length() - 1) * 3); // smaller font for larger numbers
+            Font f = new Font("Helvetica", Font.BOLD, fontSize);
             FontMetrics fm = g2d.getFontMetrics(f);
+            while (fm.stringWidth(text) > size * 9 / 10) {
+                if (fontSize <= minimum) {
+                    if (text.startsWith("2^"))
+                        break;
+                    text = "2^" + exponent;
+                    fontSize = Math.max(minimum, size * 1 / 2 - (text.length() - 1) * 3);
+                } else {
+                    fontSize = Math.max(minimum, fontSize * 9 / 10);
+                }
+                f = new Font("Helvetica", Font.BOLD, fontSize);
+                fm = g2d.getFontMetrics(f);
+            }
             
             g2d.setFont(f);
-            g2d.setColor(textColor);
+            g2d.setColor(exponent <= 2 ? TEXT_COLORS[0] : TEXT_COLORS[1]);
             g2d.drawString(text, x + (size - fm.stringWidth(text)) / 2, fm.getAscent() + y + (size - fm.getHeight()) / 2);
         }
     }
@@ -0,0 +1,125 @@
+import java.awt.*;
+import java.awt.image.*;
+
+/**
+ * This class caches a pre-rendered image of every Tile exponent at one Tile size.
+ * Images are created compatible with the screen, so Java2D can keep them as managed
+ * images in video memory and painting a Tile becomes a single drawImage call.
+ * The cache is cleared whenever the Tile size or screen changes.
+ */
+public class TileSprites {
+    private static final int MAX_EXPONENT = 63;
+    // Scaled images are cached in steps of 1/STEPS of the Tile size, up to MAX_STEP steps
+    public static final int STEPS = 16;
+    public static final int MAX_STEP = 20;
+
+    private Image[] sprites;
+    private Image[][] scaled;
+    private int size;
+    private GraphicsConfiguration config;
+
+    /**
+     * Constructs an empty TileSprites cache.
+     */
+    public TileSprites() {
+        sprites = new Image[MAX_EXPONENT + 1];
+        scaled = new Image[MAX_EXPONENT + 1][];
+        size = -1;
+    }
+
+    /**
+     * Gets the image of a Tile, rendering it on first use.
+     * @param exponent exponent of the Tile's value, 0 for an empty Tile
+     * @param size the Tile's size
+     * @param config configuration of the destination, or null if unknown
+     * @return the Tile's image
+     */
+    public Image get(int exponent, int size, GraphicsConfiguration config) {
+        if (size != this.size || config != this.config) {
+            invalidate();
+            this.size = size;
+            this.config = config;
+        }
+        if (sprites[exponent] == null)
+            sprites[exponent] = render(exponent);
+        return sprites[exponent];
+    }
+
+    /**
+     * Gets the image of a Tile scaled by a number of steps, rendering it on first use.
+     * Animations draw these instead of scaling a sprite, as a scaled drawImage allocates.
+     * @param exponent exponent of the Tile's value, 0 for an empty Tile
+     * @param step the scale in steps of 1/STEPS, from 1 to MAX_STEP
+     * @param size the Tile's unscaled size
+     * @param config configuration of the destination, or null if unknown
+     * @return the scaled image, step*size/STEPS + 1 pixels wide
+     */
+    public Image getScaled(int exponent, int step, int size, GraphicsConfiguration config) {
+        Image sprite = get(exponent, size, config);
+        if (scaled[exponent] == null)
+            scaled[exponent] = new Image[MAX_STEP + 1];
+        if (scaled[exponent][step] == null)
+            scaled[exponent][step] = render(sprite, step * size / STEPS);
+        return scaled[exponent][step];
+    }
+
+    /**
+     * Releases every cached image.
+     */
+    public void invalidate() {
+        for (int i = 0; i < sprites.length; i++) {
+            if (sprites[i] != null) {
+                sprites[i].flush();
+                sprites[i] = null;
+            }
+            if (scaled[i] != null) {
+                for (Image image: scaled[i]) {
+                    if (image != null)
+                        image.flush();
+                }
+                scaled[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Creates an empty image for a Tile, with one pixel of margin, as drawRoundRect strokes
+     * just past the Tile's size.
+     * @param size the Tile's size
+     * @return the image
+     */
+    private BufferedImage create(int size) {
+        if (config != null)
+            return config.createCompatibleImage(size + 1, size + 1, Transparency.TRANSLUCENT);
+        return new BufferedImage(size + 1, size + 1, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    /**
+     * Renders the image of a Tile at the current size.
+     * @param exponent exponent of the Tile's value, 0 for an empty Tile
+     * @return the rendered image
+     */
+    private Image render(int exponent) {
+        BufferedImage image = create(size);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Tile.paint(g2d, exponent, 0, 0, size);
+        g2d.dispose();
+        return image;
+    }
+
+    /**
+     * Renders a scaled copy of a sprite.
+     * @param sprite the sprite at the current size
+     * @param scaledSize size of the scaled Tile
+     * @return the scaled image
+     */
+    private Image render(Image sprite, int scaledSize) {
+        BufferedImage image = create(scaledSize);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(sprite, 0, 0, scaledSize + 1, scaledSize + 1, null);
+        g2d.dispose();
+        return image;
+    }
+}
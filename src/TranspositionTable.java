@@ -0,0 +1,83 @@
+/**
+ * This class is a bounded cache of searched board values, shared by search threads.
+ * Entries live in fixed primitive arrays and a new entry simply replaces whatever
+ * occupied its slot. Slots are guarded by a small set of striped locks.
+ * A key of 0, the empty board, marks a free slot as it is never searched.
+ */
+public class TranspositionTable {
+    private static final int STRIPES = 64;
+
+    private final long[] keys;
+    private final double[] values;
+    private final byte[] depths;
+    private final Object[] locks;
+    private final int mask;
+
+    /**
+     * Constructs a TranspositionTable holding up to 2^bits entries.
+     * @param bits log2 of the capacity
+     */
+    public TranspositionTable(int bits) {
+        keys = new long[1 << bits];
+        values = new double[1 << bits];
+        depths = new byte[1 << bits];
+        mask = (1 << bits) - 1;
+        locks = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Mixes the bits of a packed board into a slot index.
+     * @param board packed board
+     * @return slot index
+     */
+    private int index(long board) {
+        long h = board * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Looks up the value of a board searched at least as deep as requested.
+     * @param board packed board
+     * @param depth remaining search depth
+     * @return the cached value, or NaN if there is none
+     */
+    public double get(long board, int depth) {
+        int i = index(board);
+        synchronized (locks[i & (STRIPES-1)]) {
+            if (keys[i] == board && depths[i] >= depth)
+                return values[i];
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Stores the value of a board, replacing the previous entry in its slot.
+     * @param board packed board
+     * @param depth remaining search depth
+     * @param value the board's value
+     */
+    public void put(long board, int depth, double value) {
+        int i = index(board);
+        synchronized (locks[i & (STRIPES-1)]) {
+            keys[i] = board;
+            depths[i] = (byte) depth;
+            values[i] = value;
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        for (int s = 0; s < STRIPES; s++) {
+            synchronized (locks[s]) {
+                for (int i = s; i < keys.length; i += STRIPES) {
+                    keys[i] = 0;
+                }
+            }
+        }
+    }
+}
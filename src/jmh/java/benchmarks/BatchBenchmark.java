@@ -0,0 +1,133 @@
+package benchmarks;
+
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks of BoardBatch against moving each board on its own with Board, on batches of
+ * half-filled 4x4 boards. Each operation covers the whole batch, so the time per board is the
+ * score divided by the batch size. The batch is moved with the Vector API when vector is true,
+ * and one board at a time otherwise. The batch move first restores the boards, so restore
+ * alone is the baseline to subtract.
+ *
+ * Usage: java -jar target/benchmarks.jar BatchBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "--add-modules=jdk.incubator.vector"})
+public class BatchBenchmark {
+    private static final Class<?> BATCH = Handles.type("BoardBatch");
+
+    private static final MethodHandle RANDOM_BOARDS = Handles.findStatic(Handles.type("Benchmark"), "randomBoards",
+        MethodType.methodType(long[].class, double.class, Random.class));
+    private static final MethodHandle BOARD_MOVE = Handles.findStatic(Handles.BOARD, "move",
+        MethodType.methodType(long.class, long.class, int.class));
+    private static final MethodHandle BOARD_SCORE = Handles.findStatic(Handles.BOARD, "score",
+        MethodType.methodType(int.class, long.class, int.class));
+    private static final MethodHandle BOARD_CAN_MOVE = Handles.findStatic(Handles.BOARD, "canMove",
+        MethodType.methodType(boolean.class, long.class));
+    private static final MethodHandle NEW_BATCH = Handles.findConstructor(BATCH,
+        MethodType.methodType(void.class, int.class, boolean.class));
+    private static final MethodHandle IS_VECTORIZED = Handles.findVirtual(BATCH, "isVectorized",
+        MethodType.methodType(boolean.class));
+    private static final MethodHandle ADD = Handles.findVirtual(BATCH, "add",
+        MethodType.methodType(void.class, long.class));
+    private static final MethodHandle SET = Handles.findVirtual(BATCH, "set",
+        MethodType.methodType(void.class, int.class, long.class));
+    private static final MethodHandle MOVE = Handles.findVirtual(BATCH, "move",
+        MethodType.methodType(int.class, int.class));
+    private static final MethodHandle CAN_MOVE = Handles.findVirtual(BATCH, "canMove",
+        MethodType.methodType(int.class));
+    private static final MethodHandle COUNT_EMPTY = Handles.findVirtual(BATCH, "countEmpty",
+        MethodType.methodType(int.class, int[].class));
+
+    @Param({"64", "1024", "16384", "65536"})
+    public int batch;
+
+    @Param({"true", "false"})
+    public boolean vector;
+
+    private long[] boards;
+    private long[] next;
+    private long[] scores;
+    private int[] empty;
+    private Object boardBatch;
+    private int counter;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(1);
+        boards = new long[batch];
+        for (int i = 0; i < batch; i += 1024) {
+            long[] filled = (long[]) (Object) RANDOM_BOARDS.invokeExact(0.5, (Object) random);
+            System.arraycopy(filled, 0, boards, i, Math.min(filled.length, batch - i));
+        }
+        next = new long[batch];
+        scores = new long[batch];
+        empty = new int[batch];
+        boardBatch = (Object) NEW_BATCH.invokeExact(batch, vector);
+        if (vector && !(boolean) IS_VECTORIZED.invokeExact(boardBatch))
+            throw new IllegalStateException("the Vector API is not available, see BoardBatch");
+        for (long board: boards) {
+            ADD.invokeExact(boardBatch, board);
+        }
+    }
+
+    /**
+     * Puts the original boards back into the batch, keeping the scores.
+     */
+    private void restoreBatch() throws Throwable {
+        for (int i = 0; i < batch; i++) {
+            SET.invokeExact(boardBatch, i, boards[i]);
+        }
+    }
+
+    @Benchmark
+    public int restore() throws Throwable {
+        restoreBatch();
+        return counter++;
+    }
+
+    @Benchmark
+    public int move() throws Throwable {
+        restoreBatch();
+        return (int) MOVE.invokeExact(boardBatch, counter++ & 3);
+    }
+
+    @Benchmark
+    public int moveEach() throws Throwable {
+        int direction = counter++ & 3;
+        int count = 0;
+        for (int i = 0; i < batch; i++) {
+            long board = boards[i];
+            next[i] = (long) BOARD_MOVE.invokeExact(board, direction);
+            scores[i] += (int) BOARD_SCORE.invokeExact(board, direction);
+            count += next[i] != board ? 1 : 0;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int canMove() throws Throwable {
+        return (int) CAN_MOVE.invokeExact(boardBatch);
+    }
+
+    @Benchmark
+    public int canMoveEach() throws Throwable {
+        int count = 0;
+        for (int i = 0; i < batch; i++) {
+            count += (boolean) BOARD_CAN_MOVE.invokeExact(boards[i]) ? 1 : 0;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int countEmpty() throws Throwable {
+        return (int) COUNT_EMPTY.invokeExact(boardBatch, empty);
+    }
+}
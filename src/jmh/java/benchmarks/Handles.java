@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.lang.invoke.*;
+
+/**
+ * This class looks up the game's methods for the benchmarks.
+ * JMH only runs benchmarks in a named package, and a named package cannot import classes of
+ * the unnamed one, so the game is reached through method handles. A static final handle is a
+ * constant to the JIT, which inlines it like a direct call. Receivers and game types are
+ * erased to Object, so every handle can be called with invokeExact.
+ */
+final class Handles {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    static final Class<?> BOARD = type("Board");
+    static final Class<?> DIRECTION = type("Direction");
+    static final Class<?> ENGINE = type("GameEngine");
+
+    private Handles() {
+    }
+
+    /**
+     * Loads a class of the game.
+     * @param name name of the class
+     * @return the class
+     */
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("the game's classes are not on the class path", e);
+        }
+    }
+
+    /**
+     * Finds a public static method, with every game type erased to Object.
+     * @param owner class of the method
+     * @param name name of the method
+     * @param type its return and parameter types
+     * @return the handle
+     */
+    static MethodHandle findStatic(Class<?> owner, String name, MethodType type) {
+        try {
+            return LOOKUP.findStatic(owner, name, type).asType(type.erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(owner.getName() + "." + name + " was not found", e);
+        }
+    }
+
+    /**
+     * Finds a public instance method, with its receiver and every game type erased to Object.
+     * @param owner class of the method
+     * @param name name of the method
+     * @param type its return and parameter types
+     * @return the handle
+     */
+    static MethodHandle findVirtual(Class<?> owner, String name, MethodType type) {
+        try {
+            MethodHandle handle = LOOKUP.findVirtual(owner, name, type);
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(owner.getName() + "." + name + " was not found", e);
+        }
+    }
+
+    /**
+     * Finds a public constructor, returning the new object as an Object.
+     * @param owner class to construct
+     * @param type its parameter types, returning void
+     * @return the handle
+     */
+    static MethodHandle findConstructor(Class<?> owner, MethodType type) {
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(owner, type);
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("no constructor of " + owner.getName() + " was found", e);
+        }
+    }
+}
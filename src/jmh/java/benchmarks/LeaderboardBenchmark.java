@@ -0,0 +1,149 @@
+package benchmarks;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks of the leaderboard on generated files of rows scores: opening the binary
+ * store, which reads only its index, reading the text leaderboard it replaced, adding a
+ * score, and ranking every score in memory. The files are written once per run, in the
+ * temporary directory; the largest take about a gigabyte and a minute to set up.
+ *
+ * Usage: java -jar target/benchmarks.jar LeaderboardBenchmark -p rows=1000,100000 -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx3g"})
+public class LeaderboardBenchmark {
+    private static final Class<?> STORE = Handles.type("ScoreStore");
+    private static final Class<?> RECORD = Handles.type("ScoreRecord");
+    private static final Class<?> RANKING = Handles.type("Ranking");
+    // Names shared between the ranked records, so ten million of them fit in the heap
+    private static final int NAMES = 1024;
+
+    private static final MethodHandle OPEN = Handles.findConstructor(STORE,
+        MethodType.methodType(void.class, String.class));
+    private static final MethodHandle CLOSE = Handles.findVirtual(STORE, "close",
+        MethodType.methodType(void.class));
+    private static final MethodHandle GET_TOP = Handles.findVirtual(STORE, "getTop",
+        MethodType.methodType(List.class));
+    private static final MethodHandle ADD = Handles.findVirtual(STORE, "add",
+        MethodType.methodType(boolean.class, String.class, long.class, boolean.class));
+    private static final MethodHandle READ = Handles.findStatic(Handles.type("Leaderboard"), "read",
+        MethodType.methodType(ArrayList.class, File.class, ArrayList.class));
+    private static final MethodHandle NEW_RECORD = Handles.findConstructor(RECORD,
+        MethodType.methodType(void.class, String.class, long.class, boolean.class, long.class));
+    private static final MethodHandle NEW_RANKING = Handles.findConstructor(RANKING,
+        MethodType.methodType(void.class, int.class));
+    private static final MethodHandle QUALIFIES = Handles.findVirtual(RANKING, "qualifies",
+        MethodType.methodType(boolean.class, long.class));
+    private static final MethodHandle OFFER = Handles.findVirtual(RANKING, "offer",
+        MethodType.methodType(void.class, RECORD));
+    private static final MethodHandle COUNT = Handles.findVirtual(RANKING, "count",
+        MethodType.methodType(void.class, long.class));
+    private static final MethodHandle RANK = Handles.findVirtual(RANKING, "rank",
+        MethodType.methodType(int.class, long.class));
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    private File dir;
+    private File text;
+    private String base;
+    private Object store;
+    private long[] scores;
+    private Object[] records;
+    private Object ranking;
+    private int counter;
+
+    @Setup
+    public void setup() throws Throwable {
+        dir = File.createTempFile("leaderboard", "");
+        dir.delete();
+        dir.mkdir();
+        base = new File(dir, "leaderboard").getPath();
+        text = new File(base + ".txt");
+        Random random = new Random(1);
+        scores = new long[rows];
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < rows; i++) {
+                scores[i] = random.nextInt(100000);
+                writer.write("user" + i + "," + scores[i] + "," + (random.nextInt(10) == 0) + "\n");
+            }
+        }
+        CLOSE.invokeExact((Object) OPEN.invokeExact((Object) base)); // imports the text file once
+
+        store = (Object) OPEN.invokeExact((Object) base);
+        // The first add scans the log for fingerprints
+        if (!(boolean) ADD.invokeExact(store, (Object) "warm", -1L, false))
+            throw new IllegalStateException("the store already held the warm-up score");
+
+        records = new Object[rows];
+        for (int i = 0; i < rows; i++) {
+            records[i] = (Object) NEW_RECORD.invokeExact((Object) ("user" + (i % NAMES)), scores[i], false, (long) i);
+        }
+        ranking = (Object) NEW_RANKING.invokeExact(10);
+        for (Object r: records) {
+            OFFER.invokeExact(ranking, r);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        CLOSE.invokeExact(store);
+        for (File f: dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Opens the store, reading its index, and closes it.
+     */
+    @Benchmark
+    public Object open() throws Throwable {
+        Object opened = (Object) OPEN.invokeExact((Object) base);
+        Object top = (Object) GET_TOP.invokeExact(opened);
+        CLOSE.invokeExact(opened);
+        return top;
+    }
+
+    /**
+     * Parses every line of the text leaderboard, the format used before ScoreStore.
+     */
+    @Benchmark
+    public Object readText() throws Throwable {
+        return (Object) READ.invokeExact((Object) text, (Object) new ArrayList<String>());
+    }
+
+    @Benchmark
+    public boolean add() throws Throwable {
+        return (boolean) ADD.invokeExact(store, (Object) "bench", (long) counter++, false);
+    }
+
+    /**
+     * Sorts every score into a top 10 and the counts that rank the rest, as a scan of the log does.
+     */
+    @Benchmark
+    public Object rankAll() throws Throwable {
+        Object sorted = (Object) NEW_RANKING.invokeExact(10);
+        for (int i = 0; i < rows; i++) {
+            if ((boolean) QUALIFIES.invokeExact(sorted, scores[i]))
+                OFFER.invokeExact(sorted, records[i]);
+            else
+                COUNT.invokeExact(sorted, scores[i]);
+        }
+        return sorted;
+    }
+
+    @Benchmark
+    public int rank() throws Throwable {
+        return (int) RANK.invokeExact(ranking, scores[counter++ % rows]);
+    }
+}
@@ -0,0 +1,109 @@
+package benchmarks;
+
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks of the 4x4 move, shift, spawn and canMove paths, on random boards with a
+ * share of their cells filled. Each operation first restores one of the boards, so restore
+ * alone is the baseline to subtract. Run with -prof gc to see the bytes allocated per operation.
+ *
+ * Usage: java -jar target/benchmarks.jar MoveBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MoveBenchmark {
+    private static final int BOARDS = 1024;
+
+    private static final MethodHandle RANDOM_BOARDS = Handles.findStatic(Handles.type("Benchmark"), "randomBoards",
+        MethodType.methodType(long[].class, double.class, Random.class));
+    private static final MethodHandle BOARD_MOVE = Handles.findStatic(Handles.BOARD, "move",
+        MethodType.methodType(long.class, long.class, int.class));
+    private static final MethodHandle BOARD_SCORE = Handles.findStatic(Handles.BOARD, "score",
+        MethodType.methodType(int.class, long.class, int.class));
+    private static final MethodHandle NEW_ENGINE = Handles.findConstructor(Handles.ENGINE,
+        MethodType.methodType(void.class, long.class));
+    private static final MethodHandle SET_BOARD = Handles.findVirtual(Handles.ENGINE, "setBoard",
+        MethodType.methodType(void.class, long.class));
+    private static final MethodHandle MOVE = Handles.findVirtual(Handles.ENGINE, "move",
+        MethodType.methodType(boolean.class, int.class));
+    private static final MethodHandle SHIFT = Handles.findVirtual(Handles.ENGINE, "shift",
+        MethodType.methodType(long.class, Handles.DIRECTION));
+    private static final MethodHandle SHIFT_TILES = Handles.findVirtual(Handles.ENGINE, "shiftTiles",
+        MethodType.methodType(int[].class, String.class));
+    private static final MethodHandle SPAWN = Handles.findVirtual(Handles.ENGINE, "spawn",
+        MethodType.methodType(boolean.class));
+    private static final MethodHandle CAN_MOVE = Handles.findVirtual(Handles.ENGINE, "canMove",
+        MethodType.methodType(boolean.class));
+
+    private static final Object[] DIRECTIONS = Handles.DIRECTION.getEnumConstants();
+    private static final String[] NAMES = {"UP", "DOWN", "LEFT", "RIGHT"};
+
+    @Param({"0.25", "0.5", "0.75", "1.0"})
+    public double fill;
+
+    private long[] boards;
+    private Object engine;
+    private int counter;
+
+    @Setup
+    public void setup() throws Throwable {
+        boards = (long[]) (Object) RANDOM_BOARDS.invokeExact(fill, (Object) new Random(1));
+        engine = (Object) NEW_ENGINE.invokeExact(1L);
+    }
+
+    /**
+     * Restores the next board and picks a direction for it.
+     * @return Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     */
+    private int next() throws Throwable {
+        int i = counter++;
+        SET_BOARD.invokeExact(engine, boards[i & (BOARDS-1)]);
+        return i & 3;
+    }
+
+    @Benchmark
+    public int restore() throws Throwable {
+        return next();
+    }
+
+    @Benchmark
+    public long boardMove() throws Throwable {
+        int i = counter++;
+        long board = boards[i & (BOARDS-1)];
+        return (long) BOARD_MOVE.invokeExact(board, i & 3) + (int) BOARD_SCORE.invokeExact(board, i & 3);
+    }
+
+    @Benchmark
+    public Object shiftTilesString() throws Throwable {
+        return (Object) SHIFT_TILES.invokeExact(engine, (Object) NAMES[next()]);
+    }
+
+    @Benchmark
+    public long shift() throws Throwable {
+        return (long) SHIFT.invokeExact(engine, DIRECTIONS[next()]);
+    }
+
+    @Benchmark
+    public boolean move() throws Throwable {
+        return (boolean) MOVE.invokeExact(engine, next());
+    }
+
+    @Benchmark
+    public boolean spawn() throws Throwable {
+        next();
+        return (boolean) SPAWN.invokeExact(engine);
+    }
+
+    @Benchmark
+    public boolean canMove() throws Throwable {
+        next();
+        return (boolean) CAN_MOVE.invokeExact(engine);
+    }
+}
@@ -0,0 +1,139 @@
+package benchmarks;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks of painting: drawing one Tile, from scratch or from its cached sprite, and
+ * painting the whole 4x4 grid offscreen at the size Game shows it, still or animating a turn.
+ * The tiles come from random boards with a share of their cells filled. Everything is painted
+ * into a BufferedImage, so the benchmarks run headless.
+ *
+ * Usage: java -jar target/benchmarks.jar PaintBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark {
+    private static final int BOARDS = 1024;
+    private static final int SIZE = 4;
+    private static final int GRID_SIZE = 500; // Game's FRAME_SIZE * 5/8
+    // Frames painted per turn, about the length of one animation at 1 ms per frame
+    private static final int TURN_FRAMES = 200;
+
+    private static final Class<?> TILE = Handles.type("Tile");
+    private static final Class<?> SPRITES = Handles.type("TileSprites");
+    private static final Class<?> GRID = Handles.type("GridPanel");
+
+    private static final MethodHandle RANDOM_BOARDS = Handles.findStatic(Handles.type("Benchmark"), "randomBoards",
+        MethodType.methodType(long[].class, double.class, Random.class));
+    private static final MethodHandle BOARD_GET = Handles.findStatic(Handles.BOARD, "get",
+        MethodType.methodType(int.class, long.class, int.class, int.class));
+    private static final MethodHandle BOARD_MOVE = Handles.findStatic(Handles.BOARD, "move",
+        MethodType.methodType(long.class, long.class, int.class));
+    private static final MethodHandle UNPACK = Handles.findStatic(Handles.type("ByteBoard"), "unpack",
+        MethodType.methodType(void.class, long.class, byte[].class));
+    private static final MethodHandle NEW_TILE = Handles.findConstructor(TILE,
+        MethodType.methodType(void.class, int.class, int.class, int.class, int.class));
+    private static final MethodHandle DRAW = Handles.findVirtual(TILE, "draw",
+        MethodType.methodType(void.class, Graphics2D.class));
+    private static final MethodHandle DRAW_SPRITE = Handles.findVirtual(TILE, "draw",
+        MethodType.methodType(void.class, Graphics2D.class, SPRITES));
+    private static final MethodHandle NEW_SPRITES = Handles.findConstructor(SPRITES,
+        MethodType.methodType(void.class));
+    private static final MethodHandle NEW_ENGINE = Handles.findConstructor(Handles.ENGINE,
+        MethodType.methodType(void.class, long.class));
+    private static final MethodHandle SET_BOARD = Handles.findVirtual(Handles.ENGINE, "setBoard",
+        MethodType.methodType(void.class, long.class));
+    private static final MethodHandle NEW_GRID = Handles.findConstructor(GRID,
+        MethodType.methodType(void.class, int.class, Handles.ENGINE));
+    private static final MethodHandle SET_SIZE = Handles.findVirtual(GRID, "setSize",
+        MethodType.methodType(void.class, int.class, int.class));
+    private static final MethodHandle PAINT = Handles.findVirtual(GRID, "paintComponent",
+        MethodType.methodType(void.class, Graphics.class));
+    private static final MethodHandle START_ANIMATION = Handles.findVirtual(GRID, "startAnimation",
+        MethodType.methodType(void.class, byte[].class, int.class, byte[].class, int.class));
+
+    @Param({"0.25", "0.5", "0.75", "1.0"})
+    public double fill;
+
+    private long[] boards;
+    private Object[] tiles;
+    private Object sprites;
+    private Object grid;
+    private Graphics2D g2d;
+    private byte[] from;
+    private byte[] to;
+    private int counter;
+
+    @Setup
+    public void setup() throws Throwable {
+        boards = (long[]) (Object) RANDOM_BOARDS.invokeExact(fill, (Object) new Random(1));
+        int tileSize = GRID_SIZE / (SIZE + 1);
+        tiles = new Object[BOARDS];
+        for (int i = 0; i < BOARDS; i++) {
+            int exponent = (int) BOARD_GET.invokeExact(boards[i], 0, i % SIZE);
+            tiles[i] = (Object) NEW_TILE.invokeExact(exponent == 0 ? 0 : 1 << exponent, 0, 0, tileSize);
+        }
+        sprites = (Object) NEW_SPRITES.invokeExact();
+
+        Object engine = (Object) NEW_ENGINE.invokeExact(1L);
+        SET_BOARD.invokeExact(engine, boards[0]);
+        grid = (Object) NEW_GRID.invokeExact(GRID_SIZE, engine);
+        SET_SIZE.invokeExact(grid, GRID_SIZE, GRID_SIZE);
+        // Opaque like Swing's back buffer
+        g2d = new BufferedImage(GRID_SIZE, GRID_SIZE, BufferedImage.TYPE_INT_RGB).createGraphics();
+        from = new byte[SIZE*SIZE];
+        to = new byte[SIZE*SIZE];
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2d.dispose();
+    }
+
+    @Benchmark
+    public int tileDraw() throws Throwable {
+        DRAW.invokeExact(tiles[counter++ & (BOARDS-1)], (Object) g2d);
+        return counter;
+    }
+
+    @Benchmark
+    public int tileDrawSprite() throws Throwable {
+        DRAW_SPRITE.invokeExact(tiles[counter++ & (BOARDS-1)], (Object) g2d, sprites);
+        return counter;
+    }
+
+    @Benchmark
+    public int paintComponent() throws Throwable {
+        PAINT.invokeExact(grid, (Object) g2d);
+        return counter++;
+    }
+
+    /**
+     * Paints one frame of a turn's animation, starting the next turn every TURN_FRAMES frames.
+     * The sampled times give the percentiles of the frame time; the target is a 99th
+     * percentile under 8 ms, so that a frame fits in half of a 60 Hz refresh.
+     */
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+    public int paintComponentAnimating() throws Throwable {
+        int i = counter++;
+        if (i % TURN_FRAMES == 0) {
+            int turn = i / TURN_FRAMES;
+            long board = boards[turn & (BOARDS-1)];
+            UNPACK.invokeExact(board, (Object) from);
+            UNPACK.invokeExact((long) BOARD_MOVE.invokeExact(board, turn & 3), (Object) to);
+            START_ANIMATION.invokeExact(grid, (Object) from, turn & 3, (Object) to, -1);
+        }
+        PAINT.invokeExact(grid, (Object) g2d);
+        return i;
+    }
+}
@@ -0,0 +1,77 @@
+package benchmarks;
+
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks of moving and checking half-filled boards of every size the engine plays.
+ * 4x4 boards go through the packed tables of Board, the other sizes through the byte loop.
+ *
+ * Usage: java -jar target/benchmarks.jar SizeBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SizeBenchmark {
+    private static final int BOARDS = 1024;
+
+    private static final MethodHandle NEW_ENGINE = Handles.findConstructor(Handles.ENGINE,
+        MethodType.methodType(void.class, int.class, long.class));
+    private static final MethodHandle RESTORE = Handles.findVirtual(Handles.ENGINE, "restore",
+        MethodType.methodType(void.class, byte[].class, long.class, boolean.class));
+    private static final MethodHandle MOVE = Handles.findVirtual(Handles.ENGINE, "move",
+        MethodType.methodType(boolean.class, int.class));
+    private static final MethodHandle CAN_MOVE = Handles.findVirtual(Handles.ENGINE, "canMove",
+        MethodType.methodType(boolean.class));
+
+    @Param({"3", "4", "6", "8"})
+    public int size;
+
+    private byte[][] boards;
+    private Object engine;
+    private int counter;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(1);
+        boards = new byte[BOARDS][size*size];
+        for (byte[] cells: boards) {
+            for (int i = 0; i < cells.length; i++) {
+                if (random.nextBoolean())
+                    cells[i] = (byte) (1 + random.nextInt(11));
+            }
+        }
+        engine = (Object) NEW_ENGINE.invokeExact(size, 1L);
+    }
+
+    /**
+     * Restores the next board and picks a direction for it.
+     * @return Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     */
+    private int next() throws Throwable {
+        int i = counter++;
+        RESTORE.invokeExact(engine, (Object) boards[i & (BOARDS-1)], 0L, false);
+        return i & 3;
+    }
+
+    @Benchmark
+    public int restore() throws Throwable {
+        return next();
+    }
+
+    @Benchmark
+    public boolean move() throws Throwable {
+        return (boolean) MOVE.invokeExact(engine, next());
+    }
+
+    @Benchmark
+    public boolean canMove() throws Throwable {
+        next();
+        return (boolean) CAN_MOVE.invokeExact(engine);
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class checks that a BoardBatch, moved with the Vector API or one board at a time,
+ * gives the same results as Board. Surefire starts the tests with the Vector API module.
+ */
+public class BoardBatchTest {
+    // Not a multiple of any vector length, so the last boards are moved one at a time
+    private static final int BOARDS = 10007;
+    private static final int ROUNDS = 40;
+
+    /**
+     * Moves random boards in every direction, comparing every board, score and moved flag,
+     * then checks for moves and counts the empty cells.
+     * @param vector true to move with the Vector API
+     */
+    private static void check(boolean vector) {
+        Random random = new Random(1);
+        BoardBatch batch = new BoardBatch(BOARDS, vector);
+        long[] boards = new long[BOARDS];
+        long[] scores = new long[BOARDS];
+        boolean[] moved = new boolean[BOARDS];
+        int[] empty = new int[BOARDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            batch.clear();
+            Arrays.fill(scores, 0);
+            for (int i = 0; i < BOARDS; i++) {
+                boards[i] = BoardTest.randomBoard(random, round % 2 == 0 ? 3 : 15);
+                batch.add(boards[i]);
+            }
+            for (int d = 0; d < 4; d++) {
+                int count = 0;
+                for (int i = 0; i < BOARDS; i++) {
+                    long next = Board.move(boards[i], d);
+                    scores[i] += Board.score(boards[i], d);
+                    moved[i] = next != boards[i];
+                    count += moved[i] ? 1 : 0;
+                    boards[i] = next;
+                }
+                assertEquals(count, batch.move(d));
+                for (int i = 0; i < BOARDS; i++) {
+                    assertEquals(boards[i], batch.get(i), Long.toHexString(boards[i]));
+                    assertEquals(scores[i], batch.getScore(i));
+                    assertEquals(moved[i], batch.isMoved(i));
+                }
+
+                count = 0;
+                for (int i = 0; i < BOARDS; i++) {
+                    count += Board.canMove(boards[i]) ? 1 : 0;
+                }
+                assertEquals(count, batch.canMove());
+                for (int i = 0; i < BOARDS; i++) {
+                    assertEquals(Board.canMove(boards[i]), batch.isMoved(i));
+                }
+
+                int total = batch.countEmpty(empty);
+                for (int i = 0; i < BOARDS; i++) {
+                    assertEquals(Board.countEmpty(boards[i]), empty[i]);
+                    total -= empty[i];
+                }
+                assertEquals(0, total);
+            }
+        }
+    }
+
+    /**
+     * The Vector API is found when its module is present.
+     */
+    @Test
+    void vectorizedWithModule() {
+        Assumptions.assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+        assertTrue(new BoardBatch(1).isVectorized());
+        assertFalse(new BoardBatch(1, false).isVectorized());
+    }
+
+    /**
+     * Enough rounds are moved for the vector code to be compiled and checked compiled.
+     */
+    @Test
+    void vectorMatchesBoard() {
+        check(true);
+    }
+
+    /**
+     * The fallback used without the module.
+     */
+    @Test
+    void scalarMatchesBoard() {
+        check(false);
+    }
+}
@@ -0,0 +1,196 @@
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class checks the packed board engine against the original GridPanel.shiftTiles and
+ * GridPanel.canMove, kept below as reference copies that work on a grid of tile values.
+ */
+public class BoardTest {
+    private static final int BOARDS = 200000;
+    private static final String[] NAMES = {"UP", "DOWN", "LEFT", "RIGHT"};
+
+    /**
+     * Builds a random board, with a random share of its cells filled.
+     * @param random the random generator
+     * @param maxExponent largest exponent placed, lower values giving more merges
+     * @return the packed board
+     */
+    static long randomBoard(Random random, int maxExponent) {
+        int filled = random.nextInt(Board.SIZE*Board.SIZE + 1);
+        long board = 0;
+        for (int i = 0; i < Board.SIZE*Board.SIZE; i++) {
+            if (random.nextInt(Board.SIZE*Board.SIZE) < filled)
+                board |= (long) (1 + random.nextInt(maxExponent)) << 4*i;
+        }
+        return board;
+    }
+
+    /**
+     * Unpacks a board into a grid of tile values.
+     * @param board packed board
+     * @return the values, 0 for an empty cell
+     */
+    static int[][] values(long board) {
+        int[][] grid = new int[Board.SIZE][Board.SIZE];
+        for (int r = 0; r < Board.SIZE; r++) {
+            for (int c = 0; c < Board.SIZE; c++) {
+                int exponent = Board.get(board, r, c);
+                grid[r][c] = exponent == 0 ? 0 : 1 << exponent;
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * The original GridPanel.shiftTiles, on values instead of Tiles.
+     * @param grid tile values, modified in place
+     * @param direction the direction ("UP", "DOWN", "LEFT", or "RIGHT")
+     * @return array containing the score and the original moved flag
+     */
+    static int[] shiftTiles(int[][] grid, String direction) {
+        int score = 0;
+        boolean moved = false;
+        for (int s = 0; s < Board.SIZE; s++) {
+            // Cells of the segment, starting at the edge the tiles move towards
+            int[][] segment = new int[Board.SIZE][];
+            for (int i = 0; i < Board.SIZE; i++) {
+                int p = direction.equals("DOWN") || direction.equals("RIGHT") ? Board.SIZE-1 - i : i;
+                segment[i] = direction.equals("UP") || direction.equals("DOWN") ? new int[] {p, s} : new int[] {s, p};
+            }
+
+            int j = 0;
+            for (int i = 0; i < Board.SIZE; i++) {
+                if (get(grid, segment[i]) != 0) {
+                    if (j != i) {
+                        swap(grid, segment[i], segment[j]);
+                        moved = true;
+                    }
+                    j++;
+                }
+            }
+
+            int scoreAdd = 0;
+            for (int i = 0; i < Board.SIZE-1; i++) {
+                if (get(grid, segment[i]) == get(grid, segment[i+1])) {
+                    set(grid, segment[i], get(grid, segment[i]) * 2);
+                    set(grid, segment[i+1], 0);
+                    scoreAdd += get(grid, segment[i]);
+                    i++;
+                }
+            }
+            if (scoreAdd == 0)
+                continue;
+
+            j = 0;
+            for (int i = 0; i < Board.SIZE; i++) {
+                if (get(grid, segment[i]) != 0) {
+                    if (j != i)
+                        swap(grid, segment[i], segment[j]);
+                    j++;
+                }
+            }
+            score += scoreAdd;
+        }
+        return new int[] {score, moved ? 1 : 0};
+    }
+
+    /**
+     * The original GridPanel.canMove, on values instead of Tiles.
+     * @param grid tile values
+     * @return true if a valid move exists, otherwise false
+     */
+    static boolean canMove(int[][] grid) {
+        for (int r = 0; r < Board.SIZE; r++) {
+            for (int c = 0; c < Board.SIZE; c++) {
+                if (grid[r][c] == 0 || r < Board.SIZE-1 && grid[r+1][c] == grid[r][c] || c < Board.SIZE-1 && grid[r][c+1] == grid[r][c])
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the value of a cell.
+     * @param grid tile values
+     * @param cell row and column of the cell
+     * @return the value
+     */
+    private static int get(int[][] grid, int[] cell) {
+        return grid[cell[0]][cell[1]];
+    }
+
+    /**
+     * Sets the value of a cell.
+     * @param grid tile values
+     * @param cell row and column of the cell
+     * @param value the new value
+     */
+    private static void set(int[][] grid, int[] cell, int value) {
+        grid[cell[0]][cell[1]] = value;
+    }
+
+    /**
+     * Swaps the values of two cells, like Tile.swap.
+     * @param grid tile values
+     * @param a row and column of one cell
+     * @param b row and column of the other cell
+     */
+    private static void swap(int[][] grid, int[] a, int[] b) {
+        int value = get(grid, a);
+        set(grid, a, get(grid, b));
+        set(grid, b, value);
+    }
+
+    /**
+     * Moves random boards both ways in every direction. Tiles stay below 2^15, where the
+     * original had no limit. Every board and score must match, and the board must change
+     * exactly when the original took a turn (a score or its moved flag).
+     */
+    @Test
+    void moveMatchesOriginalShiftTiles() {
+        Random random = new Random(1);
+        for (int b = 0; b < BOARDS; b++) {
+            long board = randomBoard(random, b % 2 == 0 ? 3 : 14);
+            for (int d = 0; d < 4; d++) {
+                int[][] grid = values(board);
+                int[] expected = shiftTiles(grid, NAMES[d]);
+                long next = Board.move(board, d);
+                String where = Long.toHexString(board) + " " + NAMES[d];
+                assertArrayEquals(grid, values(next), where);
+                assertEquals(expected[0], Board.score(board, d), where);
+                assertEquals(expected[0] > 0 || expected[1] == 1, next != board, where);
+            }
+        }
+    }
+
+    /**
+     * Checks for moves on random boards that are not empty, and on full boards where only
+     * merges are left.
+     */
+    @Test
+    void canMoveMatchesOriginal() {
+        Random random = new Random(2);
+        for (int b = 0; b < BOARDS; b++) {
+            long board = randomBoard(random, 14);
+            if (board != 0)
+                assertEquals(canMove(values(board)), Board.canMove(board), Long.toHexString(board));
+            long full = 0;
+            for (int i = 0; i < Board.SIZE*Board.SIZE; i++) {
+                full |= (long) (1 + random.nextInt(b % 2 == 0 ? 3 : 14)) << 4*i;
+            }
+            assertEquals(canMove(values(full)), Board.canMove(full), Long.toHexString(full));
+        }
+    }
+
+    /**
+     * A pair of 32768 tiles cannot merge, since 65536 does not fit in a nibble.
+     */
+    @Test
+    void maxExponentPairIsNotMerged() {
+        long board = Board.set(Board.set(0, 0, 0, 15), 0, 1, 15);
+        assertEquals(board, Board.move(board, Board.LEFT));
+        assertEquals(0, Board.score(board, Board.LEFT));
+        assertEquals(Board.set(Board.set(0, 0, 2, 15), 0, 3, 15), Board.move(board, Board.RIGHT));
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class checks the byte board engine against the packed 4x4 engine of Board.
+ */
+public class ByteBoardTest {
+    private static final int BOARDS = 200000;
+
+    /**
+     * Moves random 4x4 boards through the line by line shift used for every other size, with
+     * Board's exponent limit, and checks the board, score and moved flag against Board.move.
+     */
+    @Test
+    void shiftMatchesBoardMove() {
+        Random random = new Random(1);
+        byte[] cells = new byte[Board.SIZE*Board.SIZE];
+        for (int b = 0; b < BOARDS; b++) {
+            long board = BoardTest.randomBoard(random, b % 2 == 0 ? 3 : 15);
+            for (int d = 0; d < 4; d++) {
+                ByteBoard.unpack(board, cells);
+                long result = ByteBoard.shift(cells, Board.SIZE, d, ByteBoard.maxExponent(Board.SIZE));
+                long next = Board.move(board, d);
+                String where = Long.toHexString(board) + " " + Direction.get(d);
+                assertEquals(next, ByteBoard.pack(cells), where);
+                assertEquals(Board.score(board, d), GameEngine.score(result), where);
+                assertEquals(next != board, GameEngine.moved(result), where);
+            }
+        }
+    }
+
+    /**
+     * Moves random 4x4 boards through ByteBoard.move, which packs them for Board.move.
+     */
+    @Test
+    void moveMatchesBoardMove() {
+        Random random = new Random(2);
+        byte[] cells = new byte[Board.SIZE*Board.SIZE];
+        for (int b = 0; b < BOARDS; b++) {
+            long board = BoardTest.randomBoard(random, 15);
+            int d = b & 3;
+            ByteBoard.unpack(board, cells);
+            long result = ByteBoard.move(cells, Board.SIZE, d);
+            assertEquals(Board.move(board, d), ByteBoard.pack(cells), Long.toHexString(board));
+            assertEquals(Board.score(board, d), GameEngine.score(result), Long.toHexString(board));
+        }
+    }
+
+    /**
+     * Tiles merge up to the exponent limit of large boards and no further.
+     */
+    @Test
+    void largeBoardsStopAtMaxExponent() {
+        byte[] cells = new byte[8*8];
+        cells[0] = cells[1] = ByteBoard.MAX_EXPONENT - 1;
+        cells[8] = cells[9] = ByteBoard.MAX_EXPONENT;
+        long result = ByteBoard.move(cells, 8, Board.LEFT);
+        assertEquals(ByteBoard.MAX_EXPONENT, cells[0]);
+        assertEquals(0, cells[1]);
+        assertEquals(ByteBoard.MAX_EXPONENT, cells[8]);
+        assertEquals(ByteBoard.MAX_EXPONENT, cells[9]);
+        assertEquals(1L << ByteBoard.MAX_EXPONENT, GameEngine.score(result));
+    }
+
+    /**
+     * Spawns on random boards of every size, leaving at least one cell empty, with two
+     * generators on the same seed: spawnMasked picks the same cell and tile as spawn and
+     * draws the same random numbers.
+     */
+    @Test
+    void spawnMaskedMatchesSpawn() {
+        Random random = new Random(3);
+        for (int b = 0; b < BOARDS; b++) {
+            int size = ByteBoard.MIN_SIZE + b % (ByteBoard.MAX_SIZE - ByteBoard.MIN_SIZE + 1);
+            byte[] cells = new byte[size*size];
+            for (int i = 0; i < cells.length; i++) {
+                if (random.nextInt(4) != 0)
+                    cells[i] = (byte) (1 + random.nextInt(ByteBoard.maxExponent(size)));
+            }
+            cells[random.nextInt(cells.length)] = 0;
+            byte[] masked = cells.clone();
+            long seed = random.nextLong();
+            Random a = new Random(seed);
+            Random c = new Random(seed);
+            assertEquals(ByteBoard.spawn(cells, ByteBoard.countEmpty(cells), a),
+                ByteBoard.spawnMasked(masked, ByteBoard.emptyMask(masked), c));
+            assertArrayEquals(cells, masked);
+            assertEquals(a.nextLong(), c.nextLong());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.lang.management.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class checks the headless game engine.
+ */
+public class GameEngineTest {
+    private static final int BOARDS = 1024;
+
+    /**
+     * Gets the bytes allocated so far by the current thread.
+     * @return allocated bytes
+     */
+    static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Builds half-filled random 4x4 boards.
+     * @param random the random generator
+     * @return the packed boards
+     */
+    static long[] randomBoards(Random random) {
+        long[] boards = new long[BOARDS];
+        for (int b = 0; b < BOARDS; b++) {
+            for (int i = 0; i < Board.SIZE*Board.SIZE; i++) {
+                if (random.nextBoolean())
+                    boards[b] |= (long) (1 + random.nextInt(11)) << 4*i;
+            }
+        }
+        return boards;
+    }
+
+    /**
+     * Plays moves and shifts by Direction until they are compiled, then checks that they
+     * allocate nothing. The first calls may allocate while interpreted, such as the Flight
+     * Recorder event of a move, which the JIT removes when recording is off.
+     */
+    @Test
+    void moveAllocatesNothing() {
+        assumeAllocationCounting();
+        long[] boards = randomBoards(new Random(1));
+        GameEngine engine = new GameEngine(1);
+        long sink = 0;
+        for (int round = 0; round < 3; round++) {
+            long before = allocated();
+            int moves = 200000;
+            for (int i = 0; i < moves; i++) {
+                engine.setBoard(boards[i & (BOARDS-1)]);
+                sink += engine.move(Direction.get(i & 3)) ? 1 : 0;
+                engine.setBoard(boards[(i + 1) & (BOARDS-1)]);
+                sink += engine.shift(Direction.get(i & 3));
+            }
+            long bytes = allocated() - before;
+            if (round == 2)
+                assertEquals(0, bytes / moves, bytes + " bytes allocated by " + moves + " moves and shifts");
+        }
+        assertNotEquals(0, sink);
+    }
+
+    /**
+     * The String overloads are kept for old callers, and must match the Direction ones.
+     */
+    @Test
+    void stringShimMatchesDirection() {
+        long[] boards = randomBoards(new Random(2));
+        GameEngine a = new GameEngine(1);
+        GameEngine b = new GameEngine(1);
+        for (int i = 0; i < BOARDS; i++) {
+            Direction direction = Direction.get(i & 3);
+            a.setBoard(boards[i]);
+            b.setBoard(boards[i]);
+            long result = a.shift(direction);
+            int[] old = b.shiftTiles(direction.name());
+            assertEquals(GameEngine.score(result), old[0]);
+            assertEquals(GameEngine.moved(result), old[1] == 1);
+            assertEquals(a.getBoard(), b.getBoard());
+        }
+    }
+
+    /**
+     * Large boards score past Integer.MAX_VALUE without saturating.
+     */
+    @Test
+    void scorePassesIntegerMaxValue() {
+        GameEngine engine = new GameEngine(8, 1);
+        byte[] cells = new byte[8*8];
+        cells[0] = cells[1] = 40;
+        engine.restore(cells, Integer.MAX_VALUE, true);
+        assertTrue(engine.move(Direction.LEFT));
+        assertEquals(Integer.MAX_VALUE + (1L << 41), engine.getScore());
+        assertEquals(engine.getScore(), engine.getState().getScore());
+    }
+
+    /**
+     * Plays random games of every size to the end, and restores random full boards, checking
+     * the engine's kept up to date canMove against a scan with ByteBoard.canMove each time.
+     */
+    @Test
+    void canMoveMatchesByteBoard() {
+        Random random = new Random(3);
+        for (int size = ByteBoard.MIN_SIZE; size <= ByteBoard.MAX_SIZE; size++) {
+            byte[] cells = new byte[size*size];
+            for (int game = 0; game < 50; game++) {
+                GameEngine engine = new GameEngine(size, random.nextLong());
+                for (int turn = 0; turn < 2000 && engine.canMove(); turn++) {
+                    engine.move(random.nextInt(4));
+                    engine.copyCells(cells, 0);
+                    assertEquals(ByteBoard.canMove(cells, size), engine.canMove(), Arrays.toString(cells));
+                }
+            }
+            GameEngine engine = new GameEngine(size, 1);
+            int max = ByteBoard.maxExponent(size);
+            for (int b = 0; b < 10000; b++) {
+                // Few distinct tiles, so some full boards have a pair to merge and some do not
+                for (int i = 0; i < cells.length; i++) {
+                    cells[i] = (byte) (max - random.nextInt(b % 2 == 0 ? 3 : Math.min(size*size, max)));
+                }
+                engine.restore(cells, 0, false);
+                assertEquals(ByteBoard.canMove(cells, size), engine.canMove(), Arrays.toString(cells));
+            }
+        }
+    }
+
+    /**
+     * Skips a test on JVMs that cannot count the bytes a thread allocates.
+     */
+    static void assumeAllocationCounting() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(bean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled());
+    }
+}
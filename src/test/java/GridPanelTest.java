@@ -0,0 +1,77 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class checks the animation frames of GridPanel, painted offscreen: once compiled they
+ * allocate nothing. Their times depend on the machine, so the 8 ms target for the 99th
+ * percentile is checked by PaintBenchmark instead.
+ */
+public class GridPanelTest {
+    private static final int TURNS = 4;
+    // Longer than the slide and pop of a turn, so every frame of its animation is painted
+    private static final long TURN_NANOS = 220000000L;
+    private static final int WARMUP_FRAMES = 20000;
+
+    /**
+     * Constructs a 4x4 GridPanel laid out at a size, as Game does.
+     * @param size panel's size
+     * @return the panel
+     */
+    static GridPanel panel(int size) {
+        GridPanel grid = new GridPanel(size, new GameEngine(1));
+        grid.setSize(size, size);
+        return grid;
+    }
+
+    /**
+     * Animates a turn of each of the first boards, painting frames until each turn is over.
+     * @param grid the panel
+     * @param g2d graphics context to paint on
+     * @param boards packed boards before each turn
+     * @return number of frames painted
+     */
+    static long play(GridPanel grid, Graphics2D g2d, long[] boards) {
+        byte[] from = new byte[Board.SIZE*Board.SIZE];
+        byte[] to = new byte[Board.SIZE*Board.SIZE];
+        long frames = 0;
+        for (int turn = 0; turn < TURNS; turn++) {
+            int direction = turn & 3;
+            ByteBoard.unpack(boards[turn], from);
+            ByteBoard.unpack(Board.move(boards[turn], direction), to);
+            int spawned = Long.numberOfTrailingZeros(ByteBoard.emptyMask(to));
+            to[spawned] = 1;
+            grid.startAnimation(from, direction, to, spawned);
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < TURN_NANOS) {
+                grid.paintComponent(g2d);
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Paints animation frames until they are compiled and every scaled sprite is cached,
+     * then checks that a further round of frames allocates nothing.
+     */
+    @Test
+    void framesAllocateNothing() {
+        GameEngineTest.assumeAllocationCounting();
+        long[] boards = GameEngineTest.randomBoards(new Random(1));
+        // A small panel paints quickly, so the frames compile sooner
+        GridPanel grid = panel(200);
+        Graphics2D g2d = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB).createGraphics();
+        for (long frames = 0; frames < WARMUP_FRAMES; ) {
+            frames += play(grid, g2d, boards);
+        }
+
+        long before = GameEngineTest.allocated();
+        long frames = play(grid, g2d, boards);
+        long bytes = GameEngineTest.allocated() - before;
+        assertEquals(0, bytes / frames, bytes + " bytes allocated by " + frames + " frames");
+        g2d.dispose();
+    }
+}
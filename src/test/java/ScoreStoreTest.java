@@ -0,0 +1,141 @@
+import java.io.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class checks the binary leaderboard store and its duplicate detection.
+ */
+public class ScoreStoreTest {
+    @TempDir
+    File dir;
+
+    /**
+     * A score whose write fails is left out of the ranking and its fingerprint is not kept,
+     * so the same score can be added once the store works again.
+     */
+    @Test
+    void failedAddIsRolledBack() throws IOException {
+        String base = new File(dir, "leaderboard").getPath();
+        ScoreStore store = new ScoreStore(base);
+        assertTrue(store.add("alice", 100, false));
+        store.close(); // every write fails from here on
+
+        assertThrows(IOException.class, () -> store.add("bob", 200, false));
+        List<ScoreRecord> records = List.of(new ScoreRecord("carol", 300, true, 0), new ScoreRecord("dave", 400, false, 0));
+        boolean[] added = new boolean[records.size()];
+        assertThrows(IOException.class, () -> store.addAll(records, added, true));
+        assertArrayEquals(new boolean[] {false, false}, added);
+        assertEquals(1, store.getTop().size());
+        assertEquals(2, store.rank(50));
+
+        ScoreStore reopened = new ScoreStore(base);
+        assertEquals(1, reopened.getTop().size());
+        assertTrue(reopened.add("bob", 200, false));
+        assertEquals(2, reopened.addAll(records, added, true));
+        assertFalse(reopened.add("bob", 200, false));
+        assertEquals(400, reopened.getTop().get(0).getScore());
+        reopened.close();
+    }
+
+    /**
+     * A log written with 4-byte scores is rewritten with 8-byte scores when opened, keeping
+     * every record, and then holds scores past Integer.MAX_VALUE.
+     */
+    @Test
+    void oldLogIsUpgraded() throws IOException {
+        String base = new File(dir, "leaderboard").getPath();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(base + ".dat"))) {
+            out.writeInt(0x32303438); // "2048"
+            for (int i = 1; i <= 20; i++) {
+                byte[] name = ("player" + i).getBytes("UTF-8");
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeInt(i * 1000);
+                out.writeBoolean(i % 2 == 0);
+            }
+        }
+        ScoreStore store = new ScoreStore(base);
+        assertEquals(ScoreStore.TOP, store.getTop().size());
+        assertEquals("player20", store.getTop().get(0).getUsername());
+        assertEquals(20000, store.getTop().get(0).getScore());
+        assertTrue(store.getTop().get(0).getWon());
+        assertFalse(store.add("player20", 20000, true));
+        assertTrue(store.add("erin", 5000000000L, false));
+        store.close();
+
+        ScoreStore reopened = new ScoreStore(base);
+        assertEquals(5000000000L, reopened.getTop().get(0).getScore());
+        assertEquals(22, reopened.rank(0));
+        reopened.close();
+    }
+
+    /**
+     * A text leaderboard is imported with its malformed lines skipped, and a log left half
+     * written by a crash during the import does not stop it being imported again.
+     */
+    @Test
+    void textIsImported() throws IOException {
+        String base = new File(dir, "leaderboard").getPath();
+        try (PrintWriter out = new PrintWriter(new FileWriter(base + ".txt"))) {
+            out.println("alice,100,false");
+            out.println("bob,lots,true");
+            out.println("carol");
+            out.println("dave,300,true");
+        }
+        new FileOutputStream(base + ".dat.tmp").close(); // a crashed import
+        ScoreStore store = new ScoreStore(base);
+        assertEquals(2, store.getTop().size());
+        assertEquals("dave", store.getTop().get(0).getUsername());
+        assertTrue(store.getTop().get(0).getWon());
+        store.close();
+
+        ScoreStore reopened = new ScoreStore(base);
+        assertEquals(2, reopened.getTop().size());
+        assertFalse(reopened.add("alice", 100, false));
+        reopened.close();
+    }
+
+    /**
+     * Repeats in a batch, or of stored scores, are skipped.
+     */
+    @Test
+    void addAllSkipsDuplicates() throws IOException {
+        ScoreStore store = new ScoreStore(new File(dir, "leaderboard").getPath());
+        assertTrue(store.add("alice", 100, false));
+        List<ScoreRecord> records = List.of(new ScoreRecord("alice", 100, false, 0), new ScoreRecord("bob", 200, false, 0),
+            new ScoreRecord("bob", 200, false, 0), new ScoreRecord("bob", 200, true, 0));
+        boolean[] added = new boolean[records.size()];
+        assertEquals(2, store.addAll(records, added, false));
+        assertArrayEquals(new boolean[] {false, true, false, true}, added);
+        assertEquals(3, store.getTop().size());
+        store.close();
+    }
+
+    /**
+     * Adds and removes random fingerprints, many of them colliding in the table, and checks
+     * the set against a HashSet after every change.
+     */
+    @Test
+    void fingerprintSetRemove() {
+        Random random = new Random(1);
+        FingerprintSet set = new FingerprintSet();
+        HashSet<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 100000; i++) {
+            // Few distinct low bits, so the probe runs are long and wrap around the table.
+            // 0 is left out, as it is stored as 1
+            long fingerprint = (long) random.nextInt(16) << 32 | (1 + random.nextInt(1500));
+            if (random.nextBoolean())
+                assertEquals(expected.add(fingerprint), set.add(fingerprint));
+            else
+                assertEquals(expected.remove(fingerprint), set.remove(fingerprint));
+            assertEquals(expected.size(), set.size());
+        }
+        for (long f = 1; f <= 1500; f++) {
+            for (long high = 0; high < 16; high++) {
+                assertEquals(expected.contains(high << 32 | f), set.contains(high << 32 | f));
+            }
+        }
+    }
+}
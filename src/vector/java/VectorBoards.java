@@ -0,0 +1,275 @@
+import jdk.incubator.vector.*;
+
+/**
+ * This class moves the boards of a BoardBatch a whole vector at a time with the incubating
+ * Vector API, one packed board per lane. A vector cannot look up Board's row tables, so each
+ * move is done with shifts and masks on the four rows of a board at once: the empty cells are
+ * closed up one column at a time, then each pair of equal neighbors is merged, in the same
+ * order as Board.move. Boards left over after the last whole vector are moved one at a time.
+ *
+ * It is compiled apart from the game, with --add-modules jdk.incubator.vector, and BoardBatch
+ * only loads it when that module is present at run time.
+ */
+class VectorBoards implements BoardBatch.Mover {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    // Ints with the same number of lanes, for storing empty cell counts
+    private static final VectorSpecies<Integer> COUNTS = VectorSpecies.of(int.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+    // Lowest bit of every nibble, and of the nibbles that have a neighbor to their right or below
+    private static final long NIBBLES = 0x1111111111111111L;
+    private static final long HAS_RIGHT = 0x0111011101110111L;
+    private static final long HAS_BELOW = 0x0000111111111111L;
+    // Lowest bit of the first nibble of every row
+    private static final long ROWS = 0x0001000100010001L;
+    // The first three nibbles of every row
+    private static final long LOW3 = 0x0FFF0FFF0FFF0FFFL;
+
+    /**
+     * Shifts every board in the specified direction and adds each move's score.
+     * Every direction is turned into a move to the left: vertical moves transpose the boards,
+     * and moves towards the last column mirror each row. The move is made in passes over the
+     * boards, as the JIT allocates the vectors of a loop too large to inline as objects.
+     * @param boards packed boards, modified in place
+     * @param scores score of each board, added to
+     * @param moved receives, for each board, true if it changed
+     * @param size number of boards
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @return number of boards that changed
+     */
+    public int move(long[] boards, long[] scores, boolean[] moved, int size, int direction) {
+        int bound = SPECIES.loopBound(size);
+        turn(boards, bound, direction, false);
+        int count = moves(boards, moved, bound);
+        compact(boards, bound);
+        merge(boards, scores, bound);
+        turn(boards, bound, direction, true);
+        for (int i = bound; i < size; i++) {
+            long board = boards[i];
+            long next = Board.move(board, direction);
+            scores[i] += Board.score(board, direction);
+            moved[i] = next != board;
+            count += next != board ? 1 : 0;
+            boards[i] = next;
+        }
+        return count;
+    }
+
+    /**
+     * Turns the boards so that a move in the specified direction becomes a move to the left,
+     * or back again.
+     * @param boards packed boards, modified in place
+     * @param bound number of boards, a multiple of the vector length
+     * @param direction Board.UP, Board.DOWN, Board.LEFT or Board.RIGHT
+     * @param back true to turn the boards back after the move
+     */
+    private static void turn(long[] boards, int bound, int direction, boolean back) {
+        switch (direction) {
+            case Board.UP:
+                for (int i = 0; i < bound; i += SPECIES.length()) {
+                    transpose(LongVector.fromArray(SPECIES, boards, i)).intoArray(boards, i);
+                }
+                break;
+            case Board.DOWN:
+                // The two turns do not commute, so the way back is the other order
+                if (back) {
+                    for (int i = 0; i < bound; i += SPECIES.length()) {
+                        transpose(mirror(LongVector.fromArray(SPECIES, boards, i))).intoArray(boards, i);
+                    }
+                } else {
+                    for (int i = 0; i < bound; i += SPECIES.length()) {
+                        mirror(transpose(LongVector.fromArray(SPECIES, boards, i))).intoArray(boards, i);
+                    }
+                }
+                break;
+            case Board.RIGHT:
+                for (int i = 0; i < bound; i += SPECIES.length()) {
+                    mirror(LongVector.fromArray(SPECIES, boards, i)).intoArray(boards, i);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Finds the boards that a move to the left changes: those with an empty cell before a
+     * tile in some row, or else two equal neighbors to merge.
+     * @param boards packed boards
+     * @param moved receives, for each board, true if it moves
+     * @param bound number of boards, a multiple of the vector length
+     * @return number of boards that move
+     */
+    private static int moves(long[] boards, boolean[] moved, int bound) {
+        int count = 0;
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            LongVector x = LongVector.fromArray(SPECIES, boards, i);
+            LongVector full = occupied(x);
+            LongVector gap = full.lanewise(VectorOperators.LSHR, 4).and(full.not());
+            LongVector pair = occupied(x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHR, 4))).not().and(full).and(occupied(x.not()));
+            VectorMask<Long> moves = gap.or(pair).and(HAS_RIGHT).compare(VectorOperators.NE, 0);
+            moves.intoArray(moved, i);
+            count += moves.trueCount();
+        }
+        return count;
+    }
+
+    /**
+     * Slides the tiles of every row to the left, closing up the empty cells between them.
+     * @param boards packed boards, modified in place
+     * @param bound number of boards, a multiple of the vector length
+     */
+    private static void compact(long[] boards, int bound) {
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            LongVector x = LongVector.fromArray(SPECIES, boards, i);
+            for (int p = 2; p >= 0; p--) {
+                x = close(x, occupied(x).lanewise(VectorOperators.XOR, NIBBLES).and(ROWS << 4*p), p);
+            }
+            x.intoArray(boards, i);
+        }
+    }
+
+    /**
+     * Merges each pair of equal neighbors in every row of compacted boards, from the left,
+     * the same way as Board.move.
+     * @param boards packed boards, with no empty cell before a tile in any row, modified in place
+     * @param scores score of each board, added to
+     * @param bound number of boards, a multiple of the vector length
+     */
+    private static void merge(long[] boards, long[] scores, int bound) {
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            LongVector x = LongVector.fromArray(SPECIES, boards, i);
+            LongVector score = LongVector.zero(SPECIES);
+            for (int j = 0; j < 3; j++) {
+                // Nibble j of the rows where it holds a tile equal to the next one, below the maximum
+                LongVector differs = occupied(x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHR, 4)));
+                LongVector merged = occupied(x).and(occupied(x.not())).and(differs.not()).and(ROWS << 4*j);
+                x = x.add(merged);
+                score = score.add(scoreRows(x.lanewise(VectorOperators.LSHR, 4*j), merged.lanewise(VectorOperators.LSHR, 4*j)));
+                x = close(x, merged.lanewise(VectorOperators.LSHL, 4), j + 1);
+            }
+            x.intoArray(boards, i);
+            LongVector.fromArray(SPECIES, scores, i).add(score).intoArray(scores, i);
+        }
+    }
+
+    /**
+     * Checks which boards have a valid move, the same way as Board.canMove.
+     * @param boards packed boards
+     * @param moved receives, for each board, true if it can move
+     * @param size number of boards
+     * @return number of boards that can move
+     */
+    public int canMove(long[] boards, boolean[] moved, int size) {
+        int count = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(size); i < bound; i += SPECIES.length()) {
+            LongVector board = LongVector.fromArray(SPECIES, boards, i);
+            LongVector full = occupied(board);
+            LongVector mergeable = board.and(board.lanewise(VectorOperators.LSHR, 1))
+                .and(board.lanewise(VectorOperators.LSHR, 2)).and(board.lanewise(VectorOperators.LSHR, 3)).not();
+            LongVector right = occupied(board.lanewise(VectorOperators.XOR, board.lanewise(VectorOperators.LSHR, 4))).not().and(HAS_RIGHT);
+            LongVector below = occupied(board.lanewise(VectorOperators.XOR, board.lanewise(VectorOperators.LSHR, 16))).not().and(HAS_BELOW);
+            VectorMask<Long> isFull = full.compare(VectorOperators.EQ, NIBBLES);
+            VectorMask<Long> canMerge = right.or(below).and(mergeable).compare(VectorOperators.NE, 0);
+            // Tiles and empty cells, or a full board with a pair to merge
+            VectorMask<Long> can = full.compare(VectorOperators.NE, 0).and(isFull.not()).or(isFull.and(canMerge));
+            can.intoArray(moved, i);
+            count += can.trueCount();
+        }
+        for (; i < size; i++) {
+            moved[i] = Board.canMove(boards[i]);
+            count += moved[i] ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the empty cells of every board.
+     * @param boards packed boards
+     * @param empty receives each board's count
+     * @param size number of boards
+     * @return total number of empty cells
+     */
+    public int countEmpty(long[] boards, int[] empty, int size) {
+        int total = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(size); i < bound; i += SPECIES.length()) {
+            LongVector x = occupied(LongVector.fromArray(SPECIES, boards, i)).lanewise(VectorOperators.XOR, NIBBLES);
+            // Adds up the sixteen bits, each sum fitting in the lowest byte
+            x = x.add(x.lanewise(VectorOperators.LSHR, 4)).and(0x0F0F0F0F0F0F0F0FL);
+            x = x.add(x.lanewise(VectorOperators.LSHR, 8));
+            x = x.add(x.lanewise(VectorOperators.LSHR, 16));
+            x = x.add(x.lanewise(VectorOperators.LSHR, 32)).and(0xFF);
+            ((IntVector) x.castShape(COUNTS, 0)).intoArray(empty, i);
+            total += (int) x.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < size; i++) {
+            empty[i] = Board.countEmpty(boards[i]);
+            total += empty[i];
+        }
+        return total;
+    }
+
+    /**
+     * Folds each nibble into its lowest bit, which is set if the nibble is non-zero.
+     * @param x packed boards
+     * @return the lowest bit of every non-zero nibble
+     */
+    private static LongVector occupied(LongVector x) {
+        x = x.or(x.lanewise(VectorOperators.LSHR, 2));
+        return x.or(x.lanewise(VectorOperators.LSHR, 1)).and(NIBBLES);
+    }
+
+    /**
+     * Removes one nibble from some of the rows, moving the nibbles after it down by one and
+     * leaving the last nibble of those rows empty.
+     * @param x packed boards
+     * @param rows lowest bit of nibble p in each row to change
+     * @param p index of the nibble within its row, from 0 to 3
+     * @return the boards with the nibbles removed
+     */
+    private static LongVector close(LongVector x, LongVector rows, int p) {
+        // Nibbles p to 3 of each row to change
+        LongVector mask = rows.lanewise(VectorOperators.LSHL, 16 - 4*p).sub(rows);
+        return x.and(mask.not()).or(x.lanewise(VectorOperators.LSHR, 4).and(mask).and(LOW3));
+    }
+
+    /**
+     * Sums the value of the tiles made by merging, at the first nibble of each row.
+     * @param x packed boards, the new exponents in the first nibble of each row
+     * @param merged lowest bit of the first nibble of each row that merged
+     * @return the score of the merges
+     */
+    private static LongVector scoreRows(LongVector x, LongVector merged) {
+        LongVector score = LongVector.zero(SPECIES);
+        for (int r = 0; r < 64; r += 16) {
+            LongVector exponent = x.lanewise(VectorOperators.LSHR, r).and(0xF);
+            score = score.add(merged.lanewise(VectorOperators.LSHR, r).and(1).lanewise(VectorOperators.LSHL, exponent));
+        }
+        return score;
+    }
+
+    /**
+     * Turns the rows of the boards into columns, the same way as Board.transpose.
+     * @param x packed boards
+     * @return the transposed boards
+     */
+    private static LongVector transpose(LongVector x) {
+        LongVector a = x.and(0xF0F00F0FF0F00F0FL)
+            .or(x.and(0x0000F0F00000F0F0L).lanewise(VectorOperators.LSHL, 12))
+            .or(x.and(0x0F0F00000F0F0000L).lanewise(VectorOperators.LSHR, 12));
+        return a.and(0xFF00FF0000FF00FFL)
+            .or(a.and(0x00FF00FF00000000L).lanewise(VectorOperators.LSHR, 24))
+            .or(a.and(0x00000000FF00FF00L).lanewise(VectorOperators.LSHL, 24));
+    }
+
+    /**
+     * Reverses the order of the nibbles in every row.
+     * @param x packed boards
+     * @return the mirrored boards
+     */
+    private static LongVector mirror(LongVector x) {
+        x = x.and(0x0F0F0F0F0F0F0F0FL).lanewise(VectorOperators.LSHL, 4).or(x.lanewise(VectorOperators.LSHR, 4).and(0x0F0F0F0F0F0F0F0FL));
+        return x.and(0x00FF00FF00FF00FFL).lanewise(VectorOperators.LSHL, 8).or(x.lanewise(VectorOperators.LSHR, 8).and(0x00FF00FF00FF00FFL));
+    }
+}